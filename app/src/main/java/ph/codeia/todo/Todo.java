@@ -8,9 +8,14 @@ import com.squareup.leakcanary.LeakCanary;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
+import ph.codeia.todo.data.AsyncTodoRepository;
+import ph.codeia.todo.data.CoalescingRepository;
+import ph.codeia.todo.data.InstrumentedRepository;
 import ph.codeia.todo.data.TodoInMemory;
 import ph.codeia.todo.data.TodoRepository;
 import ph.codeia.todo.data.TodoSerialized;
@@ -21,12 +26,33 @@ public class Todo extends Application {
         Executor io();
         Executor compute();
         TodoRepository todoRepository(Context context);
+        AsyncTodoRepository asyncTodoRepository(Context context);
+        Entities entities();
+        Map<String, InstrumentedRepository.Stats> repositoryStats();
     }
 
+    /**
+     * The number of threads that serve the repository requests.
+     */
+    private static final int IO_THREADS = 2;
+
+    /**
+     * The number of threads that crunch lists.
+     */
+    public static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The max number of rows shared between the screens.
+     */
+    private static final int ENTITIES = 1024;
+
     public static final Component GLOBALS = new Component() {
         Executor io;
         Executor compute;
+        InstrumentedRepository storage;
         TodoRepository repo;
+        AsyncTodoRepository asyncRepo;
+        Entities entities;
 
         @Override
         public synchronized Executor io() {
@@ -39,24 +65,51 @@ public class Todo extends Application {
         @Override
         public synchronized Executor compute() {
             if (compute == null) {
-                compute = Executors.newSingleThreadExecutor();
+                compute = Executors.newFixedThreadPool(CORES);
             }
             return compute;
         }
 
+        @Override
+        public synchronized Entities entities() {
+            if (entities == null) {
+                entities = new Entities(ENTITIES);
+            }
+            return entities;
+        }
+
         @Override
         public synchronized TodoRepository todoRepository(Context context) {
             if (repo == null) {
                 try {
-                    repo = new TodoSerialized(new File(context.getCacheDir(), "todos"));
+                    TodoSerialized file = new TodoSerialized(new File(context.getCacheDir(), "todos"));
+                    storage = new InstrumentedRepository(file, file::bytesWrittenByThisThread);
                 } catch (ClassNotFoundException | IOException e) {
                     Toast.makeText(context, "couldn't read/create cache file", Toast.LENGTH_SHORT)
                             .show();
-                    repo = new TodoInMemory();
+                    storage = new InstrumentedRepository(new TodoInMemory());
                 }
+                // the file is read into memory once, there's nothing to cache
+                repo = new CoalescingRepository(storage);
             }
             return repo;
         }
+
+        @Override
+        public synchronized AsyncTodoRepository asyncTodoRepository(Context context) {
+            if (asyncRepo == null) {
+                asyncRepo = new AsyncTodoRepository(todoRepository(context), IO_THREADS);
+            }
+            return asyncRepo;
+        }
+
+        @Override
+        public synchronized Map<String, InstrumentedRepository.Stats> repositoryStats() {
+            if (storage == null) {
+                return Collections.emptyMap();
+            }
+            return storage.snapshot();
+        }
     };
 
     @Override
@@ -60,7 +60,8 @@ public class DetailsFragment extends BaseFragment implements Details.View {
             goBack();
             return null;
         }
-        presenter = new DetailsActions(Todo.GLOBALS.todoRepository(getContext()), id);
+        presenter = new DetailsActions(
+                Todo.GLOBALS.asyncTodoRepository(getContext()), id, Todo.GLOBALS.entities());
         layout = ScreenDetailsBinding.inflate(inflater, container, false);
         layout.isCompleted.setOnClickListener(_v -> apply(presenter.toggleCompleted()));
         ViewCompat.setTransitionName(layout.theTitle, "title");
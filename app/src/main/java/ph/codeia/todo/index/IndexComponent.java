@@ -6,7 +6,10 @@ import android.support.v7.widget.RecyclerView;
 import java.util.concurrent.Executor;
 
 import ph.codeia.todo.Mvp;
+import ph.codeia.todo.Parallel;
+import ph.codeia.todo.Serial;
 import ph.codeia.todo.Todo;
+import ph.codeia.todo.data.Clock;
 import ph.codeia.todo.data.TodoRepository;
 import ph.codeia.todo.util.AndroidUnit;
 
@@ -19,6 +22,16 @@ public interface IndexComponent {
     Executor visibleWorker();
 
     class Production implements IndexComponent {
+        /**
+         * Loads with fewer rows than this are converted in one thread.
+         */
+        private static final int PARALLEL_THRESHOLD = 2048;
+
+        /**
+         * The number of rows loaded at a time. A few screens' worth.
+         */
+        private static final int WINDOW = 100;
+
         private final Todo.Component globals;
         private final Context context;
 
@@ -34,7 +47,13 @@ public interface IndexComponent {
 
         @Override
         public Index.Presenter presenter() {
-            return new IndexActions(repository());
+            return new IndexActions(
+                    globals.asyncTodoRepository(context),
+                    Clock.SYSTEM,
+                    new Parallel(globals.compute(), Todo.CORES, PARALLEL_THRESHOLD),
+                    visibleWorker(),
+                    WINDOW,
+                    globals.entities());
         }
 
         @Override
@@ -56,7 +75,7 @@ public interface IndexComponent {
 
         @Override
         public Executor visibleWorker() {
-            return globals.compute();
+            return new Serial(globals.compute());
         }
     }
 }
@@ -7,10 +7,13 @@ import android.support.annotation.Nullable;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentTransaction;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.widget.DividerItemDecoration;
 import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.helper.ItemTouchHelper;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -100,9 +103,21 @@ public class IndexFragment extends BaseFragment implements Index.View {
         layout.todoContainer.setLayoutManager(new LinearLayoutManager(context));
         layout.todoContainer.addItemDecoration(
                 new DividerItemDecoration(context, DividerItemDecoration.VERTICAL));
+        new ItemTouchHelper(new Reorder()).attachToRecyclerView(layout.todoContainer);
+        layout.todoContainer.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager lm = (LinearLayoutManager) recyclerView.getLayoutManager();
+                int first = lm.findFirstVisibleItemPosition();
+                int last = lm.findLastVisibleItemPosition();
+                if (first != RecyclerView.NO_POSITION) {
+                    apply(presenter.scrolled(first, last));
+                }
+            }
+        });
         setHasOptionsMenu(true);
         applyList(adapter.init());
-        apply(shouldLoad() ? presenter.load() : presenter.refresh());
+        apply(shouldLoad() ? presenter.load() : presenter.sync());
         return layout.getRoot();
     }
 
@@ -123,6 +138,26 @@ public class IndexFragment extends BaseFragment implements Index.View {
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.index, menu);
+        MenuItem search = menu.findItem(R.id.search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(search);
+        String query = screen.state().query;
+        if (!query.isEmpty()) {
+            MenuItemCompat.expandActionView(search);
+            searchView.setQuery(query, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String text) {
+                apply(presenter.search(text));
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                apply(presenter.search(text));
+                return true;
+            }
+        });
     }
 
     @Override
@@ -137,6 +172,20 @@ public class IndexFragment extends BaseFragment implements Index.View {
             setTitle("Active");
             menu.findItem(R.id.active_only).setChecked(true);
         }
+        switch (state.sort) {
+            case MANUAL:
+                menu.findItem(R.id.sort_manual).setChecked(true);
+                break;
+            case NEWEST:
+                menu.findItem(R.id.sort_newest).setChecked(true);
+                break;
+            case TITLE:
+                menu.findItem(R.id.sort_title).setChecked(true);
+                break;
+            case COMPLETED_FIRST:
+                menu.findItem(R.id.sort_completed_first).setChecked(true);
+                break;
+        }
     }
 
     @Override
@@ -163,6 +212,22 @@ public class IndexFragment extends BaseFragment implements Index.View {
                 setTitle("Todo");
                 applyNow(presenter.filter(true, true));
                 break;
+            case R.id.sort_manual:
+                item.setChecked(true);
+                applyNow(presenter.sortBy(Index.Sort.MANUAL));
+                break;
+            case R.id.sort_newest:
+                item.setChecked(true);
+                applyNow(presenter.sortBy(Index.Sort.NEWEST));
+                break;
+            case R.id.sort_title:
+                item.setChecked(true);
+                applyNow(presenter.sortBy(Index.Sort.TITLE));
+                break;
+            case R.id.sort_completed_first:
+                item.setChecked(true);
+                applyNow(presenter.sortBy(Index.Sort.COMPLETED_FIRST));
+                break;
             default:
                 break;
         }
@@ -181,6 +246,12 @@ public class IndexFragment extends BaseFragment implements Index.View {
         applyList(adapter.setItems(newItems));
     }
 
+    @Override
+    public void show(ListDiff.Patch patch) {
+        layout.emptyMessage.setVisibility(patch.after.isEmpty() ? View.VISIBLE : View.GONE);
+        applyList(adapter.patch(patch));
+    }
+
     @Override
     public void spin(boolean busy) {
         layout.spinner.setVisibility(busy ? View.VISIBLE : View.GONE);
@@ -197,7 +268,6 @@ public class IndexFragment extends BaseFragment implements Index.View {
 
     @Override
     public void goToDetails(int id) {
-        forceLoadOnReenter();
         DetailsFragment.of(getActivity())
                 .withArgs(args -> args.putInt(DetailsFragment.ARG_ID, id))
                 .replace(R.id.content)
@@ -228,6 +298,51 @@ public class IndexFragment extends BaseFragment implements Index.View {
         list.apply(Runnable::run, layout.todoContainer, action);
     }
 
+    /**
+     * Long-press and drag a row onto another to take its place. The list is
+     * only rearranged when the row is dropped.
+     */
+    private class Reorder extends ItemTouchHelper.SimpleCallback {
+        private long dragged = RecyclerView.NO_ID;
+        private long target = RecyclerView.NO_ID;
+
+        Reorder() {
+            super(ItemTouchHelper.UP | ItemTouchHelper.DOWN, 0);
+        }
+
+        @Override
+        public int getDragDirs(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+            if (screen.state().sort != Index.Sort.MANUAL) {
+                return 0;
+            }
+            return super.getDragDirs(recyclerView, viewHolder);
+        }
+
+        @Override
+        public boolean onMove(
+                RecyclerView recyclerView,
+                RecyclerView.ViewHolder viewHolder,
+                RecyclerView.ViewHolder target) {
+            dragged = viewHolder.getItemId();
+            this.target = target.getItemId();
+            return false;
+        }
+
+        @Override
+        public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
+        }
+
+        @Override
+        public void clearView(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+            super.clearView(recyclerView, viewHolder);
+            if (dragged != RecyclerView.NO_ID && target != RecyclerView.NO_ID && dragged != target) {
+                apply(presenter.move((int) dragged, (int) target));
+            }
+            dragged = RecyclerView.NO_ID;
+            target = RecyclerView.NO_ID;
+        }
+    }
+
     @SuppressLint("NewApi")  // retrolambda can convert the try-let
     private Index.Action populate() {
         // shadow the fields to make the lambda not dependent on the fragment (== leak)
@@ -1,7 +1,6 @@
 package ph.codeia.todo.index;
 
 import android.support.v4.view.ViewCompat;
-import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -24,6 +23,10 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.RowView> {
 
     public static class State extends Mvp.BaseState<State, Action> {
         private List<Index.Item> items = Collections.emptyList();
+        /**
+         * The number of the last patch received.
+         */
+        private long seq;
 
         @Override
         public String toString() {
@@ -42,6 +45,27 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.RowView> {
 
     private final State state;
     private final Controller controller;
+    private final ListDiff.Receiver notifier = new ListDiff.Receiver() {
+        @Override
+        public void inserted(int position, Index.Item item) {
+            notifyItemInserted(position);
+        }
+
+        @Override
+        public void removed(int position) {
+            notifyItemRemoved(position);
+        }
+
+        @Override
+        public void moved(int from, int to) {
+            notifyItemMoved(from, to);
+        }
+
+        @Override
+        public void changed(int position, Index.Item item) {
+            notifyItemChanged(position);
+        }
+    };
 
     public TodoAdapter(State state, Controller controller) {
         this.controller = controller;
@@ -81,44 +105,74 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.RowView> {
         };
     }
 
+    /**
+     * @param newItems The whole list. Starts a new patch sequence, since a
+     *                 presenter sends this before its first patch and a
+     *                 new one (e.g. after a rotation) numbers its patches
+     *                 from the start again.
+     */
     public Action setItems(List<Index.Item> newItems) {
-        return (state, view) -> state.async(() -> {
-            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-                final List<Index.Item> oldItems = state.items;
-
-                @Override
-                public int getOldListSize() {
-                    return oldItems.size();
-                }
-
-                @Override
-                public int getNewListSize() {
-                    return newItems.size();
-                }
-
-                @Override
-                public boolean areItemsTheSame(int oldPos, int newPos) {
-                    return oldItems.get(oldPos).id() == newItems.get(newPos).id();
-                }
-
-                @Override
-                public boolean areContentsTheSame(int oldPos, int newPos) {
-                    return oldItems.get(oldPos).sameAs(newItems.get(newPos));
-                }
-            }, false);
-            return (futureState, futureView) -> {
-                futureState.items = newItems;
-                // technically leaking the old view here, but this happens so
-                // quickly that i think it's fine. i'm not even sure why this is
-                // an async action in the first place. the else branch almost
-                // never happens unless there's thousands of items in the list.
-                if (view == futureView) {
-                    diff.dispatchUpdatesTo(this);
-                } else {
-                    futureView.getAdapter().notifyDataSetChanged();
-                }
-                return futureState;
-            };
-        });
+        return (state, view) -> {
+            state.seq = 0;
+            return replace(newItems, 0).fold(state, view);
+        };
+    }
+
+    /**
+     * @param patch Edits computed elsewhere. If the adapter doesn't have the
+     *              list the patch was made against, the new list is diffed
+     *              against what it does have. Ignored if a later patch was
+     *              already received.
+     */
+    public Action patch(ListDiff.Patch patch) {
+        return (state, view) -> {
+            if (patch.seq <= state.seq) {
+                return state;
+            }
+            state.seq = patch.seq;
+            if (patch.before != state.items) {
+                return state.plus(replace(patch.after, patch.seq));
+            }
+            state.items = patch.after;
+            patch.dispatchTo(notifier);
+            return state;
+        };
+    }
+
+    /**
+     * @param seq The number of the last patch when the list was made. The
+     *            list is dropped if a later patch comes in before the diff
+     *            is done.
+     */
+    private Action replace(List<Index.Item> newItems, long seq) {
+        return (state, view) -> {
+            if (newItems == state.items) {
+                return state;
+            }
+            List<Index.Item> base = state.items;
+            return state.async(() -> {
+                ListDiff.Patch patch = ListDiff.between(base, newItems);
+                return (futureState, futureView) -> {
+                    if (seq < futureState.seq) {
+                        return futureState;
+                    }
+                    if (futureState.items != base) {
+                        // something else was applied in the meantime
+                        return futureState.plus(replace(newItems, seq));
+                    }
+                    futureState.items = newItems;
+                    // technically leaking the old view here, but this happens so
+                    // quickly that i think it's fine. i'm not even sure why this is
+                    // an async action in the first place. the else branch almost
+                    // never happens unless there's thousands of items in the list.
+                    if (view == futureView) {
+                        patch.dispatchTo(notifier);
+                    } else {
+                        futureView.getAdapter().notifyDataSetChanged();
+                    }
+                    return futureState;
+                };
+            });
+        };
     }
 }
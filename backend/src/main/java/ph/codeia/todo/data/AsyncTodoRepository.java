@@ -0,0 +1,83 @@
+package ph.codeia.todo.data;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs repository calls on a few dedicated threads and returns promises
+ * instead of blocking the caller.
+ * <p>
+ * Requests are queued and served in order by a fixed number of threads, so a
+ * caller can fire off many of them without waiting for the earlier ones and
+ * the number of threads stays the same no matter how many are in flight.
+ * Put the reads and writes that belong together in a single {@link #call}
+ * so that they take one trip through the queue.
+ */
+public class AsyncTodoRepository {
+
+    public interface Call<T> {
+        T run(TodoRepository repo) throws Exception;
+    }
+
+    private final TodoRepository repo;
+    private final Executor executor;
+
+    /**
+     * @param repo The repository to call.
+     * @param threads The number of threads that serve the requests. They are
+     *                daemons and stay alive for as long as this object.
+     */
+    public AsyncTodoRepository(TodoRepository repo, int threads) {
+        this(repo, pool(threads));
+    }
+
+    /**
+     * @param repo The repository to call.
+     * @param executor Where the calls are run. {@code Runnable::run} makes
+     *                 every call synchronous, which is handy in tests.
+     */
+    public AsyncTodoRepository(TodoRepository repo, Executor executor) {
+        this.repo = repo;
+        this.executor = executor;
+    }
+
+    /**
+     * @param call Some work to do with the repository.
+     * @param <T> The type of the result.
+     * @return the result of the call, or the exception it threw.
+     */
+    public <T> Promise<T> call(Call<T> call) {
+        Promise<T> result = new Promise<>();
+        executor.execute(() -> {
+            if (result.isDone()) {
+                // cancelled while queued
+                return;
+            }
+            try {
+                result.resolve(call.run(repo));
+            } catch (Exception e) {
+                result.reject(e);
+            }
+        });
+        return result;
+    }
+
+    private static Executor pool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = block -> {
+            Thread t = new Thread(block, "todo-io-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        return new ThreadPoolExecutor(
+                threads, threads,
+                0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                factory);
+    }
+
+}
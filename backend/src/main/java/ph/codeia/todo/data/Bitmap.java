@@ -0,0 +1,503 @@
+package ph.codeia.todo.data;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of ints in the style of Roaring bitmaps.
+ * <p>
+ * The ints are grouped by their upper 16 bits and each group stores the lower
+ * 16 bits in whichever container is smallest for it: a sorted array when the
+ * group is sparse, a plain 8KB bitmap when it's dense, or a list of runs when
+ * the members are mostly consecutive (which is common for row ids). Set
+ * operations work a container at a time and skip the groups that can't
+ * contribute to the result.
+ * <p>
+ * Not thread safe. The results of {@link #and(Bitmap)}, {@link #or(Bitmap)}
+ * and {@link #andNot(Bitmap)} are new bitmaps; the operands are not changed
+ * but may share containers with the result, so don't mutate a result unless
+ * you copy it first.
+ */
+class Bitmap {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private int[] keys = new int[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /**
+     * O(log g + c) where g is the number of groups and c is the max size of
+     * an array container.
+     */
+    void add(int x) {
+        int i = find(x >> 16);
+        if (i >= 0) {
+            containers[i] = containers[i].add(low(x));
+        } else {
+            insert(-i - 1, x >> 16, new ArrayContainer().add(low(x)));
+        }
+    }
+
+    void remove(int x) {
+        int i = find(x >> 16);
+        if (i >= 0) {
+            Container c = containers[i].remove(low(x));
+            if (c.cardinality() == 0) {
+                System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+                System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+                containers[--size] = null;
+            } else {
+                containers[i] = c;
+            }
+        }
+    }
+
+    boolean contains(int x) {
+        int i = find(x >> 16);
+        return i >= 0 && containers[i].contains(low(x));
+    }
+
+    int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            n += containers[i].cardinality();
+        }
+        return n;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    Bitmap and(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container a = containers[i];
+                Container b = other.containers[j];
+                Container c = a.cardinality() <= b.cardinality() ? a.and(b) : b.and(a);
+                if (c.cardinality() > 0) {
+                    result.append(keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    Bitmap or(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || i < size && keys[i] < other.keys[j]) {
+                result.append(keys[i], containers[i]);
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j]);
+                j++;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    Bitmap andNot(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                Container c = containers[i].andNot(other.containers[j]);
+                if (c.cardinality() > 0) {
+                    result.append(keys[i], c);
+                }
+            } else {
+                result.append(keys[i], containers[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts every container to its smallest representation. Worth doing
+     * after building a bitmap out of many consecutive ints.
+     */
+    void optimize() {
+        for (int i = 0; i < size; i++) {
+            containers[i] = Container.best(containers[i].words());
+        }
+    }
+
+    /**
+     * @return the members in ascending order.
+     */
+    int[] toArray() {
+        int[] out = new int[cardinality()];
+        int at = 0;
+        for (int i = 0; i < size; i++) {
+            at = containers[i].copyTo(keys[i] << 16, out, at);
+        }
+        return out;
+    }
+
+    private int find(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int i, int key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = c;
+        size++;
+    }
+
+    private void append(int key, Container c) {
+        insert(size, key, c);
+    }
+
+    private static char low(int x) {
+        return (char) x;
+    }
+
+    private static abstract class Container {
+        abstract Container add(char x);
+        abstract Container remove(char x);
+        abstract boolean contains(char x);
+        abstract int cardinality();
+        abstract long[] words();
+        abstract int copyTo(int high, int[] out, int at);
+
+        Container and(Container other) {
+            long[] a = words();
+            long[] b = other.words();
+            for (int i = 0; i < WORDS; i++) {
+                a[i] &= b[i];
+            }
+            return best(a);
+        }
+
+        Container or(Container other) {
+            long[] a = words();
+            long[] b = other.words();
+            for (int i = 0; i < WORDS; i++) {
+                a[i] |= b[i];
+            }
+            return best(a);
+        }
+
+        Container andNot(Container other) {
+            long[] a = words();
+            long[] b = other.words();
+            for (int i = 0; i < WORDS; i++) {
+                a[i] &= ~b[i];
+            }
+            return best(a);
+        }
+
+        /**
+         * Picks the smallest container for the set bits. Arrays take 2 bytes
+         * per member, runs take 4 bytes per run and bitmaps are always 8KB.
+         */
+        static Container best(long[] words) {
+            int cardinality = 0;
+            int runs = 0;
+            long carry = 0;
+            for (long w : words) {
+                cardinality += Long.bitCount(w);
+                runs += Long.bitCount(w & ~((w << 1) | carry));
+                carry = w >>> 63;
+            }
+            int asArray = 2 * cardinality;
+            int asRuns = 4 * runs;
+            if (asRuns < asArray && asRuns < 8 * WORDS) {
+                return RunContainer.of(words, runs);
+            }
+            if (cardinality <= ARRAY_MAX) {
+                return ArrayContainer.of(words, cardinality);
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+
+        /**
+         * Like {@link #best(long[])} but never returns runs, for when the
+         * container is about to be modified.
+         */
+        static Container plain(long[] words) {
+            int cardinality = 0;
+            for (long w : words) {
+                cardinality += Long.bitCount(w);
+            }
+            if (cardinality <= ARRAY_MAX) {
+                return ArrayContainer.of(words, cardinality);
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+    }
+
+    private static class ArrayContainer extends Container {
+        char[] values = new char[4];
+        int size;
+
+        static ArrayContainer of(long[] words, int cardinality) {
+            ArrayContainer c = new ArrayContainer();
+            c.values = new char[Math.max(4, cardinality)];
+            for (int i = 0; i < WORDS; i++) {
+                for (long w = words[i]; w != 0; w &= w - 1) {
+                    c.values[c.size++] = (char) (i * 64 + Long.numberOfTrailingZeros(w));
+                }
+            }
+            return c;
+        }
+
+        @Override
+        Container add(char x) {
+            int i = Arrays.binarySearch(values, 0, size, x);
+            if (i >= 0) {
+                return this;
+            }
+            if (size == ARRAY_MAX) {
+                return new BitmapContainer(words(), size).add(x);
+            }
+            i = -i - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, size - i);
+            values[i] = x;
+            size++;
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            int i = Arrays.binarySearch(values, 0, size, x);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, size - i - 1);
+                size--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return Arrays.binarySearch(values, 0, size, x) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        long[] words() {
+            long[] words = new long[WORDS];
+            for (int i = 0; i < size; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            return words;
+        }
+
+        @Override
+        int copyTo(int high, int[] out, int at) {
+            for (int i = 0; i < size; i++) {
+                out[at++] = high | values[i];
+            }
+            return at;
+        }
+
+        /**
+         * O(k log m) instead of going through the bitmaps when this is the
+         * smaller side, which is the usual case for tags.
+         */
+        @Override
+        Container and(Container other) {
+            ArrayContainer c = new ArrayContainer();
+            c.values = new char[Math.max(4, size)];
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i])) {
+                    c.values[c.size++] = values[i];
+                }
+            }
+            return c;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            ArrayContainer c = new ArrayContainer();
+            c.values = new char[Math.max(4, size)];
+            for (int i = 0; i < size; i++) {
+                if (!other.contains(values[i])) {
+                    c.values[c.size++] = values[i];
+                }
+            }
+            return c;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        final long[] words;
+        int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char x) {
+            long mask = 1L << x;
+            if ((words[x >>> 6] & mask) == 0) {
+                words[x >>> 6] |= mask;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            long mask = 1L << x;
+            if ((words[x >>> 6] & mask) != 0) {
+                words[x >>> 6] &= ~mask;
+                cardinality--;
+                if (cardinality <= ARRAY_MAX / 2) {
+                    return ArrayContainer.of(words, cardinality);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        long[] words() {
+            return words.clone();
+        }
+
+        @Override
+        int copyTo(int high, int[] out, int at) {
+            for (int i = 0; i < WORDS; i++) {
+                for (long w = words[i]; w != 0; w &= w - 1) {
+                    out[at++] = high | (i * 64 + Long.numberOfTrailingZeros(w));
+                }
+            }
+            return at;
+        }
+    }
+
+    /**
+     * Read-optimized. Any mutation converts it back to an array or a bitmap.
+     */
+    private static class RunContainer extends Container {
+        final char[] starts;
+        final char[] ends;
+        final int cardinality;
+
+        RunContainer(char[] starts, char[] ends) {
+            this.starts = starts;
+            this.ends = ends;
+            int n = 0;
+            for (int i = 0; i < starts.length; i++) {
+                n += ends[i] - starts[i] + 1;
+            }
+            cardinality = n;
+        }
+
+        static RunContainer of(long[] words, int runs) {
+            char[] starts = new char[runs];
+            char[] ends = new char[runs];
+            int r = -1;
+            boolean inRun = false;
+            for (int x = 0; x < WORDS * 64; x++) {
+                boolean set = (words[x >>> 6] & (1L << x)) != 0;
+                if (set && !inRun) {
+                    starts[++r] = (char) x;
+                }
+                if (set) {
+                    ends[r] = (char) x;
+                }
+                inRun = set;
+            }
+            return new RunContainer(starts, ends);
+        }
+
+        @Override
+        Container add(char x) {
+            if (contains(x)) {
+                return this;
+            }
+            return plain(words()).add(x);
+        }
+
+        @Override
+        Container remove(char x) {
+            if (!contains(x)) {
+                return this;
+            }
+            return plain(words()).remove(x);
+        }
+
+        @Override
+        boolean contains(char x) {
+            int i = Arrays.binarySearch(starts, x);
+            if (i >= 0) {
+                return true;
+            }
+            i = -i - 2;
+            return i >= 0 && x <= ends[i];
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        long[] words() {
+            long[] words = new long[WORDS];
+            for (int i = 0; i < starts.length; i++) {
+                for (int x = starts[i]; x <= ends[i]; x++) {
+                    words[x >>> 6] |= 1L << x;
+                }
+            }
+            return words;
+        }
+
+        @Override
+        int copyTo(int high, int[] out, int at) {
+            for (int i = 0; i < starts.length; i++) {
+                for (int x = starts[i]; x <= ends[i]; x++) {
+                    out[at++] = high | x;
+                }
+            }
+            return at;
+        }
+    }
+
+}
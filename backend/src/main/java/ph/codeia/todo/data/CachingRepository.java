@@ -0,0 +1,372 @@
+package ph.codeia.todo.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the most useful rows and query results of a slower repository in
+ * memory.
+ * <p>
+ * The cache is a segmented LRU bounded by weight, where a row weighs 1 and a
+ * list weighs 1 plus the number of rows in it. New entries go into a
+ * probation segment and are promoted to the protected segment when they are
+ * read again. Eviction takes the least recently used probation entry first,
+ * so a one-off scan over many rows can't push out the entries that are read
+ * over and over.
+ * <p>
+ * Entries are invalidated through the {@link ChangeFeed} of the delegate,
+ * so writes made around this cache are seen too. A changed row drops its own
+ * entry and every cached list. A reset, e.g. after a cancelled transaction,
+ * drops everything.
+ * <p>
+ * Only worth it in front of a repository that is slow to read. A list
+ * heavier than the capacity is never kept. There is nothing to gain in front
+ * of {@link TodoInMemory} or {@link TodoSerialized}, which already keep every
+ * row in memory. The cache would only hold a second copy and add an
+ * invalidation on every write.
+ */
+public class CachingRepository extends ForwardingRepository {
+
+    /**
+     * The share of the capacity reserved for entries that were hit at least
+     * twice.
+     */
+    private static final float PROTECTED_RATIO = 0.8f;
+
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        /**
+         * The total weight of the entries right now.
+         */
+        public final int weight;
+        public final int capacity;
+
+        Stats(long hits, long misses, long evictions, int weight, int capacity) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.weight = weight;
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return the fraction of the reads that didn't go to the delegate,
+         * or 0 if there were none.
+         */
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    /**
+     * The key of a cached list.
+     */
+    private static class Query {
+        final String name;
+        final int a;
+        final int b;
+
+        Query(String name, int a, int b) {
+            this.name = name;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Query)) {
+                return false;
+            }
+            Query q = (Query) o;
+            return a == q.a && b == q.b && name.equals(q.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return (name.hashCode() * 31 + a) * 31 + b;
+        }
+    }
+
+    private static class Entry {
+        final Object value;
+        final int weight;
+
+        Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final Map<Object, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Object, Entry> hot = new LinkedHashMap<>(16, 0.75f, true);
+    private final ChangeFeed.Subscription subscription;
+    private int capacity;
+    private int weight;
+    private int hotWeight;
+    private long hits;
+    private long misses;
+    private long evictions;
+    /**
+     * Bumped on every invalidation. A value read from the delegate is only
+     * stored if nothing changed while it was being read.
+     */
+    private long generation;
+    private boolean released;
+
+    /**
+     * @param delegate The repository to read from and write to.
+     * @param capacity The max total weight of the entries.
+     */
+    public CachingRepository(TodoRepository delegate, int capacity) {
+        super(delegate);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        ChangeFeed feed = delegate.changes();
+        // invalidating is cheap, so it's done right away while the writer
+        // still holds the table. reads never hold the cache while calling
+        // the delegate, so this can't deadlock.
+        subscription = feed.subscribe(feed.seq(), Runnable::run, this::invalidate);
+    }
+
+    /**
+     * O(1) on a hit
+     *
+     * @param id The row id.
+     * @return the row, or null if absent.
+     */
+    @Override
+    public Todo oneWithId(int id) {
+        if (id <= 0) {
+            // occurrences depend on the rules, not the rows
+            return delegate.oneWithId(id);
+        }
+        long gen;
+        synchronized (this) {
+            Entry e = get(id);
+            if (e != null) {
+                return (Todo) e.value;
+            }
+            gen = generation;
+        }
+        Todo row = delegate.oneWithId(id);
+        if (row != null) {
+            put(gen, id, row, 1);
+        }
+        return row;
+    }
+
+    /**
+     * O(n) on a hit, for the copy.
+     *
+     * @return all rows sorted by id.
+     */
+    @Override
+    public List<Todo> all() {
+        return list(new Query("all", 0, 0));
+    }
+
+    /**
+     * O(k) on a hit, for the copy.
+     *
+     * @param completed The status to match.
+     * @return the rows with the status sorted by id.
+     */
+    @Override
+    public List<Todo> withStatus(boolean completed) {
+        return list(new Query("withStatus", completed ? 1 : 0, 0));
+    }
+
+    /**
+     * O(k) on a hit, for the copy.
+     *
+     * @param from The position of the first row.
+     * @param limit The max number of rows k.
+     * @return the rows in manual order.
+     */
+    @Override
+    public List<Todo> ordered(int from, int limit) {
+        return list(new Query("ordered", from, limit));
+    }
+
+    /**
+     * @return the hit and miss counts so far and the current size.
+     */
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, weight, capacity);
+    }
+
+    /**
+     * Evicts entries until the total weight is at most the given size. Call
+     * this when the system is low on memory. The capacity is not changed, so
+     * the cache grows back as it is used.
+     *
+     * @param maxWeight The weight to shrink to. 0 empties the cache.
+     */
+    public synchronized void trimTo(int maxWeight) {
+        evict(Math.max(0, maxWeight));
+    }
+
+    /**
+     * @param capacity The new max total weight. Evicts right away if the
+     *                 cache is over it.
+     */
+    public synchronized void resize(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        evict(capacity);
+    }
+
+    /**
+     * Stops listening to the delegate and drops everything. Every call goes
+     * straight to the delegate after this.
+     */
+    public synchronized void release() {
+        subscription.cancel();
+        released = true;
+        clear();
+    }
+
+    private List<Todo> list(Query key) {
+        long gen;
+        synchronized (this) {
+            Entry e = get(key);
+            if (e != null) {
+                @SuppressWarnings("unchecked")
+                List<Todo> rows = (List<Todo>) e.value;
+                return new ArrayList<>(rows);
+            }
+            gen = generation;
+        }
+        List<Todo> rows;
+        switch (key.name) {
+            case "all":
+                rows = delegate.all();
+                break;
+            case "withStatus":
+                rows = delegate.withStatus(key.a == 1);
+                break;
+            default:
+                rows = delegate.ordered(key.a, key.b);
+                break;
+        }
+        put(gen, key, new ArrayList<>(rows), rows.size() + 1);
+        return rows;
+    }
+
+    private Entry get(Object key) {
+        Entry e = hot.get(key);
+        if (e == null) {
+            e = probation.remove(key);
+            if (e != null) {
+                // second hit, promote
+                hot.put(key, e);
+                hotWeight += e.weight;
+                demote();
+            }
+        }
+        if (e == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return e;
+    }
+
+    private synchronized void put(long gen, Object key, Object value, int size) {
+        if (released || gen != generation || size > capacity || hot.containsKey(key)) {
+            return;
+        }
+        Entry old = probation.put(key, new Entry(value, size));
+        weight += size - (old == null ? 0 : old.weight);
+        evict(capacity);
+    }
+
+    /**
+     * Moves the least recently used protected entries back to probation
+     * while the protected segment is over its share.
+     */
+    private void demote() {
+        int max = (int) (capacity * PROTECTED_RATIO);
+        Iterator<Map.Entry<Object, Entry>> it = hot.entrySet().iterator();
+        while (hotWeight > max && it.hasNext()) {
+            Map.Entry<Object, Entry> lru = it.next();
+            it.remove();
+            hotWeight -= lru.getValue().weight;
+            probation.put(lru.getKey(), lru.getValue());
+        }
+    }
+
+    private void evict(int max) {
+        Iterator<Map.Entry<Object, Entry>> it = probation.entrySet().iterator();
+        while (weight > max && it.hasNext()) {
+            weight -= it.next().getValue().weight;
+            it.remove();
+            evictions++;
+        }
+        it = hot.entrySet().iterator();
+        while (weight > max && it.hasNext()) {
+            int w = it.next().getValue().weight;
+            weight -= w;
+            hotWeight -= w;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private synchronized void invalidate(ChangeFeed.Batch batch) {
+        generation++;
+        if (batch.reset) {
+            clear();
+            return;
+        }
+        for (ChangeFeed.Change c : batch.changes) {
+            remove(c.row.id);
+        }
+        for (Iterator<Map.Entry<Object, Entry>> it = probation.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Object, Entry> e = it.next();
+            if (e.getKey() instanceof Query) {
+                weight -= e.getValue().weight;
+                it.remove();
+            }
+        }
+        for (Iterator<Map.Entry<Object, Entry>> it = hot.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Object, Entry> e = it.next();
+            if (e.getKey() instanceof Query) {
+                weight -= e.getValue().weight;
+                hotWeight -= e.getValue().weight;
+                it.remove();
+            }
+        }
+    }
+
+    private void remove(Object key) {
+        Entry e = probation.remove(key);
+        if (e == null) {
+            e = hot.remove(key);
+            if (e != null) {
+                hotWeight -= e.weight;
+            }
+        }
+        if (e != null) {
+            weight -= e.weight;
+        }
+    }
+
+    private void clear() {
+        probation.clear();
+        hot.clear();
+        weight = 0;
+        hotWeight = 0;
+    }
+
+}
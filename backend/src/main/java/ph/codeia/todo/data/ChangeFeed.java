@@ -0,0 +1,216 @@
+package ph.codeia.todo.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ph.codeia.todo.data.TodoRepository.Todo;
+
+/**
+ * The recent changes to a table, numbered in the order they happened.
+ * <p>
+ * The last few thousand changes are kept in a ring so that a consumer can
+ * ask for everything after the last sequence number it saw and patch its
+ * copy instead of reading the whole table again. If it fell too far behind,
+ * or the table was replaced wholesale, the batch it gets is marked as a
+ * reset and it has to start over.
+ */
+public class ChangeFeed extends Trigger {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public static class Change {
+        public enum Kind { INSERTED, UPDATED, DELETED }
+
+        public final long seq;
+        public final Kind kind;
+        /**
+         * The new row, or the row that was removed.
+         */
+        public final Todo row;
+
+        Change(long seq, Kind kind, Todo row) {
+            this.seq = seq;
+            this.kind = kind;
+            this.row = row;
+        }
+    }
+
+    public static class Batch {
+        /**
+         * Oldest first.
+         */
+        public final List<Change> changes;
+        /**
+         * Pass this to {@link #since(long)} to get the next batch.
+         */
+        public final long seq;
+        /**
+         * True if some changes were missed. The consumer should read the
+         * whole table again.
+         */
+        public final boolean reset;
+
+        Batch(List<Change> changes, long seq, boolean reset) {
+            this.changes = changes;
+            this.seq = seq;
+            this.reset = reset;
+        }
+    }
+
+    public interface Listener {
+        void changed(Batch batch);
+    }
+
+    /**
+     * Delivers the changes to a listener through an executor. Changes that
+     * happen before the executor gets around to it are delivered together.
+     */
+    public class Subscription {
+        private final Executor executor;
+        private final Listener listener;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private long seq;
+
+        Subscription(long seq, Executor executor, Listener listener) {
+            this.seq = seq;
+            this.executor = executor;
+            this.listener = listener;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void signal() {
+            if (!cancelled && scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private synchronized void drain() {
+            scheduled.set(false);
+            if (cancelled) {
+                return;
+            }
+            Batch batch = since(seq);
+            if (batch.reset || !batch.changes.isEmpty()) {
+                seq = batch.seq;
+                listener.changed(batch);
+            }
+        }
+    }
+
+    private final Change[] ring;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private long seq;
+    /**
+     * Changes up to this number are no longer available.
+     */
+    private long floor;
+
+    public ChangeFeed() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ChangeFeed(int capacity) {
+        ring = new Change[capacity];
+    }
+
+    @Override
+    void inserted(Todo row) {
+        record(Change.Kind.INSERTED, row);
+    }
+
+    @Override
+    void deleted(Todo row) {
+        record(Change.Kind.DELETED, row);
+    }
+
+    @Override
+    void updated(Todo old, Todo row) {
+        record(Change.Kind.UPDATED, row);
+    }
+
+    /**
+     * O(1)
+     *
+     * @return the number of the latest change.
+     */
+    public synchronized long seq() {
+        return seq;
+    }
+
+    /**
+     * O(k)
+     *
+     * @param after The number of the last change seen.
+     * @return the k changes since then, or a reset if they are not all
+     * available anymore.
+     */
+    public synchronized Batch since(long after) {
+        if (after < floor || after > seq) {
+            return new Batch(Collections.<Change>emptyList(), seq, true);
+        }
+        List<Change> changes = new ArrayList<>((int) (seq - after));
+        for (long s = after + 1; s <= seq; s++) {
+            changes.add(ring[slot(s)]);
+        }
+        return new Batch(changes, seq, false);
+    }
+
+    /**
+     * @param since The number of the last change seen.
+     * @param executor Where the listener is called. This is called while the
+     *                 table is locked, so it should hand off to another
+     *                 thread instead of running the listener right away.
+     * @param listener Receives every change after the given number.
+     * @return a handle to stop the deliveries.
+     */
+    public Subscription subscribe(long since, Executor executor, Listener listener) {
+        Subscription sub = new Subscription(since, executor, listener);
+        subscriptions.add(sub);
+        if (since != seq()) {
+            sub.signal();
+        }
+        return sub;
+    }
+
+    /**
+     * Drops the log and tells every consumer to start over.
+     */
+    void reset() {
+        synchronized (this) {
+            seq++;
+            floor = seq;
+        }
+        signal();
+    }
+
+    private void record(Change.Kind kind, Todo row) {
+        synchronized (this) {
+            seq++;
+            ring[slot(seq)] = new Change(seq, kind, row);
+            if (seq - floor > ring.length) {
+                floor = seq - ring.length;
+            }
+        }
+        signal();
+    }
+
+    private void signal() {
+        for (Subscription sub : subscriptions) {
+            sub.signal();
+        }
+    }
+
+    private int slot(long s) {
+        return (int) (s % ring.length);
+    }
+
+}
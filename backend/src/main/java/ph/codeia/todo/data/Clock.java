@@ -0,0 +1,14 @@
+package ph.codeia.todo.data;
+
+/**
+ * The source of the current time, so that things that depend on it can be
+ * tested without waiting.
+ */
+public interface Clock {
+    Clock SYSTEM = System::currentTimeMillis;
+
+    /**
+     * @return milliseconds since the epoch.
+     */
+    long now();
+}
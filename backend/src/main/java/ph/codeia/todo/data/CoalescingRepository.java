@@ -0,0 +1,173 @@
+package ph.codeia.todo.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lets identical reads that happen at the same time share one call to the
+ * delegate.
+ * <p>
+ * The first caller of a read runs it and the ones that ask for the same
+ * thing with the same arguments before it returns wait for its result
+ * instead of running their own. Nothing is kept after the call returns;
+ * put a {@link CachingRepository} underneath for that.
+ * <p>
+ * A change to the table, seen through the {@link ChangeFeed} of the
+ * delegate, detaches the reads in flight. Callers that come after the change
+ * start a new call instead of joining one that may have read the old rows.
+ * <p>
+ * Every caller gets its own copy of a list result, same as with the
+ * delegate, so the callers can't see each other's changes to it.
+ */
+public class CoalescingRepository extends ForwardingRepository {
+
+    private interface Read<T> {
+        T run();
+    }
+
+    private final Map<List<Object>, Promise<Object>> inFlight = new HashMap<>();
+    private final ChangeFeed.Subscription subscription;
+    private long calls;
+    private long joined;
+
+    public CoalescingRepository(TodoRepository delegate) {
+        super(delegate);
+        ChangeFeed feed = delegate.changes();
+        subscription = feed.subscribe(feed.seq(), Runnable::run, batch -> detachAll());
+    }
+
+    @Override
+    public Todo oneWithId(int id) {
+        if (id <= 0) {
+            // occurrences depend on the rules, which don't go through the feed
+            return delegate.oneWithId(id);
+        }
+        return coalesce(key("oneWithId", id), () -> delegate.oneWithId(id));
+    }
+
+    @Override
+    public List<Todo> all() {
+        return copy(coalesce(key("all"), () -> delegate.all()));
+    }
+
+    @Override
+    public List<Todo> withStatus(boolean completed) {
+        return copy(coalesce(key("withStatus", completed), () -> delegate.withStatus(completed)));
+    }
+
+    @Override
+    public List<Todo> search(String query) {
+        return copy(coalesce(key("search", query), () -> delegate.search(query)));
+    }
+
+    @Override
+    public List<Todo> ordered(int from, int limit) {
+        return copy(coalesce(key("ordered", from, limit), () -> delegate.ordered(from, limit)));
+    }
+
+    @Override
+    public List<Todo> children(int id) {
+        return copy(coalesce(key("children", id), () -> delegate.children(id)));
+    }
+
+    @Override
+    public Progress progress(int id) {
+        return coalesce(key("progress", id), () -> delegate.progress(id));
+    }
+
+    /**
+     * @return the number of reads that ran on the delegate.
+     */
+    public synchronized long calls() {
+        return calls;
+    }
+
+    /**
+     * @return the number of reads that got the result of another call
+     * instead of running their own.
+     */
+    public synchronized long joined() {
+        return joined;
+    }
+
+    /**
+     * Stops listening to the delegate. Reads are not coalesced after this.
+     */
+    public void release() {
+        subscription.cancel();
+        detachAll();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T coalesce(List<Object> key, Read<T> read) {
+        Promise<Object> flight;
+        boolean leader = false;
+        synchronized (this) {
+            flight = inFlight.get(key);
+            if (flight != null) {
+                joined++;
+            } else {
+                flight = new Promise<>();
+                inFlight.put(key, flight);
+                calls++;
+                leader = true;
+            }
+        }
+        if (!leader) {
+            return (T) await(flight);
+        }
+        try {
+            T result = read.run();
+            flight.resolve(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.reject(e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                if (inFlight.get(key) == flight) {
+                    inFlight.remove(key);
+                }
+            }
+        }
+    }
+
+    private static Object await(Promise<Object> flight) {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private synchronized void detachAll() {
+        inFlight.clear();
+    }
+
+    private static List<Object> key(Object... parts) {
+        return Arrays.asList(parts);
+    }
+
+    /**
+     * O(n). Nobody writes to the shared list so the callers can copy it at
+     * the same time.
+     */
+    private static <T> List<T> copy(List<T> list) {
+        return new ArrayList<>(list);
+    }
+
+}
@@ -0,0 +1,64 @@
+package ph.codeia.todo.data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import ph.codeia.todo.data.TodoRepository.Todo;
+
+/**
+ * The rows that have a due date, sorted by it.
+ */
+class DueIndex extends Trigger {
+
+    static final Comparator<Todo> BY_DUE = (a, b) -> {
+        int byTime = Long.compare(a.due.getTime(), b.due.getTime());
+        return byTime != 0 ? byTime : Integer.compare(a.id, b.id);
+    };
+
+    private final NavigableSet<Todo> byDue = new TreeSet<>(BY_DUE);
+
+    @Override
+    void inserted(Todo row) {
+        if (row.due != null) {
+            byDue.add(row);
+        }
+    }
+
+    @Override
+    void deleted(Todo row) {
+        if (row.due != null) {
+            byDue.remove(row);
+        }
+    }
+
+    /**
+     * O(log n + k)
+     *
+     * @param from Inclusive lower bound, or null for unbounded.
+     * @param to Exclusive upper bound, or null for unbounded.
+     * @return the k rows due within the range sorted by due date.
+     */
+    List<Todo> dueBetween(Date from, Date to) {
+        long lo = from == null ? Long.MIN_VALUE : from.getTime();
+        if (to == null) {
+            return new ArrayList<>(byDue.tailSet(probe(lo), true));
+        }
+        long hi = to.getTime();
+        if (lo >= hi) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(byDue.subSet(probe(lo), true, probe(hi), false));
+    }
+
+    /**
+     * @return a row that sorts before every real row due at that time.
+     */
+    private static Todo probe(long time) {
+        return new Todo(Integer.MIN_VALUE, null, null, false, null).withDue(new Date(time));
+    }
+
+}
@@ -0,0 +1,229 @@
+package ph.codeia.todo.data;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Passes every call through to another repository. Extend this to change
+ * just a few of them.
+ * <p>
+ * A transaction is started on the delegate and the calls made inside it
+ * still go through the subclass, so a decorator sees everything.
+ */
+public abstract class ForwardingRepository implements TodoRepository.Transactional {
+
+    protected final TodoRepository delegate;
+    private final ThreadLocal<Transactional> transaction = new ThreadLocal<>();
+
+    protected ForwardingRepository(TodoRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Todo oneWithId(int id) {
+        return delegate.oneWithId(id);
+    }
+
+    @Override
+    public List<Todo> all() {
+        return delegate.all();
+    }
+
+    @Override
+    public Page page(int afterId, int limit) {
+        return delegate.page(afterId, limit);
+    }
+
+    @Override
+    public List<Todo> withStatus(boolean completed) {
+        return delegate.withStatus(completed);
+    }
+
+    @Override
+    public List<Todo> createdBetween(Date from, Date to) {
+        return delegate.createdBetween(from, to);
+    }
+
+    @Override
+    public List<Todo> createdBetween(Date from, Date to, boolean completed) {
+        return delegate.createdBetween(from, to, completed);
+    }
+
+    @Override
+    public int count(boolean completed) {
+        return delegate.count(completed);
+    }
+
+    @Override
+    public List<Todo> dueBetween(Date from, Date to) {
+        return delegate.dueBetween(from, to);
+    }
+
+    @Override
+    public List<Todo> search(String query) {
+        return delegate.search(query);
+    }
+
+    @Override
+    public List<Todo> tagged(TagFilter filter) {
+        return delegate.tagged(filter);
+    }
+
+    @Override
+    public Set<String> tags() {
+        return delegate.tags();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public List<Todo> ordered(int from, int limit) {
+        return delegate.ordered(from, limit);
+    }
+
+    @Override
+    public Todo atPosition(int position) {
+        return delegate.atPosition(position);
+    }
+
+    @Override
+    public int positionOf(int id) {
+        return delegate.positionOf(id);
+    }
+
+    @Override
+    public Todo move(int id, int position) {
+        return delegate.move(id, position);
+    }
+
+    @Override
+    public List<Todo> children(int id) {
+        return delegate.children(id);
+    }
+
+    @Override
+    public List<Todo> subtree(int id) {
+        return delegate.subtree(id);
+    }
+
+    @Override
+    public Progress progress(int id) {
+        return delegate.progress(id);
+    }
+
+    @Override
+    public List<Todo> occurrences(Date from, Date to) {
+        return delegate.occurrences(from, to);
+    }
+
+    @Override
+    public Recurrence addRecurrence(Recurrence rule) {
+        return delegate.addRecurrence(rule);
+    }
+
+    @Override
+    public List<Recurrence> recurrences() {
+        return delegate.recurrences();
+    }
+
+    @Override
+    public void deleteRecurrence(int id) {
+        delegate.deleteRecurrence(id);
+    }
+
+    @Override
+    public Statistics statistics() {
+        return delegate.statistics();
+    }
+
+    @Override
+    public ChangeFeed changes() {
+        return delegate.changes();
+    }
+
+    @Override
+    public Todo add(String title, String description, boolean completed) {
+        return delegate.add(title, description, completed);
+    }
+
+    @Override
+    public void put(Todo item) {
+        delegate.put(item);
+    }
+
+    @Override
+    public void delete(int id) {
+        delegate.delete(id);
+    }
+
+    @Override
+    public Todo update(int id, Update f) {
+        return delegate.update(id, f);
+    }
+
+    @Override
+    public boolean compareAndPut(int expectedVersion, Todo item) {
+        return delegate.compareAndPut(expectedVersion, item);
+    }
+
+    @Override
+    public void putAll(Collection<Todo> items) {
+        delegate.putAll(items);
+    }
+
+    @Override
+    public int deleteAll(Collection<Integer> ids) {
+        return delegate.deleteAll(ids);
+    }
+
+    @Override
+    public int deleteWhere(Where where) {
+        return delegate.deleteWhere(where);
+    }
+
+    @Override
+    public int updateWhere(Where where, Update f) {
+        return delegate.updateWhere(where, f);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends Transactional> T transact() {
+        if (inTransaction()) {
+            throw new UnsupportedOperationException("nested transactions");
+        }
+        transaction.set(delegate.<Transactional>transact());
+        return (T) this;
+    }
+
+    @Override
+    public void cancel() {
+        Transactional t = transaction.get();
+        if (t != null) {
+            t.cancel();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        Transactional t = transaction.get();
+        if (t != null) {
+            transaction.remove();
+            t.close();
+        }
+    }
+
+    /**
+     * @return true if the current thread started a transaction that isn't
+     * closed yet.
+     */
+    protected boolean inTransaction() {
+        return transaction.get() != null;
+    }
+
+}
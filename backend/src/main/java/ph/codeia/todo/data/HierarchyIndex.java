@@ -0,0 +1,219 @@
+package ph.codeia.todo.data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import ph.codeia.todo.data.TodoRepository.Todo;
+
+/**
+ * The parent-child links between rows and the progress of every subtree.
+ * <p>
+ * Every node knows its parent and children, and how many of its descendants
+ * there are and how many of them are done. A change to a row only has to
+ * update the counts of its ancestors, so a put, a delete or moving a whole
+ * branch is O(d) where d is the depth of the row, and reading the progress of
+ * a row is O(1).
+ * <p>
+ * Rows can be inserted before their parents, e.g. when a snapshot is read
+ * back after a branch was moved under a newer row. The parent is then kept as
+ * a placeholder that already has the counts of the children that arrived
+ * before it.
+ */
+class HierarchyIndex extends Trigger {
+
+    private static class Node {
+        int parent;
+        boolean present;
+        boolean completed;
+        int total;
+        int done;
+        NavigableSet<Integer> children;
+
+        int size() {
+            return 1 + total;
+        }
+
+        int doneWithSelf() {
+            return done + (completed ? 1 : 0);
+        }
+
+        boolean isLeaf() {
+            return children == null || children.isEmpty();
+        }
+    }
+
+    private final Map<Integer, Node> nodes = new HashMap<>();
+
+    @Override
+    void inserted(Todo row) {
+        Node node = node(row.id);
+        node.present = true;
+        node.completed = row.completed;
+        attach(row.id, node, row.parent);
+    }
+
+    @Override
+    void deleted(Todo row) {
+        Node node = nodes.get(row.id);
+        if (node == null) {
+            return;
+        }
+        detach(row.id, node);
+        node.present = false;
+        node.completed = false;
+        if (node.isLeaf()) {
+            nodes.remove(row.id);
+        }
+    }
+
+    @Override
+    void updated(Todo old, Todo row) {
+        Node node = nodes.get(row.id);
+        if (old.parent != row.parent) {
+            detach(row.id, node);
+            node.completed = row.completed;
+            attach(row.id, node, row.parent);
+        } else if (old.completed != row.completed) {
+            node.completed = row.completed;
+            int delta = row.completed ? 1 : -1;
+            for (Node p = up(node); p != null; p = up(p)) {
+                p.done += delta;
+            }
+        }
+    }
+
+    /**
+     * O(1)
+     *
+     * @param id A row id.
+     * @return the number of descendants of the row and how many of them are
+     * completed, or null if there's no such row.
+     */
+    TodoRepository.Progress progress(int id) {
+        Node node = nodes.get(id);
+        if (node == null || !node.present) {
+            return null;
+        }
+        return new TodoRepository.Progress(node.done, node.total);
+    }
+
+    /**
+     * O(c)
+     *
+     * @param id A row id.
+     * @return the ids of the direct children in ascending order.
+     */
+    List<Integer> children(int id) {
+        Node node = nodes.get(id);
+        if (node == null || node.isLeaf()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(node.children);
+    }
+
+    /**
+     * O(k)
+     *
+     * @param id A row id.
+     * @return the ids of the k descendants of the row in depth-first order,
+     * children in ascending id order.
+     */
+    List<Integer> descendants(int id) {
+        Node root = nodes.get(id);
+        if (root == null) {
+            return Collections.emptyList();
+        }
+        List<Integer> ids = new ArrayList<>(root.total);
+        Deque<Integer> stack = new ArrayDeque<>();
+        push(stack, root);
+        while (!stack.isEmpty()) {
+            int next = stack.pop();
+            ids.add(next);
+            push(stack, nodes.get(next));
+        }
+        return ids;
+    }
+
+    /**
+     * O(d)
+     *
+     * @param ancestor A row id.
+     * @param id Another row id.
+     * @return true if the second row is the first one or is under it.
+     */
+    boolean isUnder(int ancestor, int id) {
+        for (int p = id; p != 0; ) {
+            if (p == ancestor) {
+                return true;
+            }
+            Node node = nodes.get(p);
+            p = node == null ? 0 : node.parent;
+        }
+        return false;
+    }
+
+    private Node node(int id) {
+        Node node = nodes.get(id);
+        if (node == null) {
+            node = new Node();
+            nodes.put(id, node);
+        }
+        return node;
+    }
+
+    private Node up(Node node) {
+        return node.parent == 0 ? null : nodes.get(node.parent);
+    }
+
+    private void attach(int id, Node node, int parent) {
+        node.parent = parent;
+        if (parent == 0) {
+            return;
+        }
+        Node p = node(parent);
+        if (p.children == null) {
+            p.children = new TreeSet<>();
+        }
+        p.children.add(id);
+        int size = node.size();
+        int done = node.doneWithSelf();
+        for (; p != null; p = up(p)) {
+            p.total += size;
+            p.done += done;
+        }
+    }
+
+    private void detach(int id, Node node) {
+        if (node.parent == 0) {
+            return;
+        }
+        Node p = nodes.get(node.parent);
+        p.children.remove(id);
+        int size = node.size();
+        int done = node.doneWithSelf();
+        for (Node q = p; q != null; q = up(q)) {
+            q.total -= size;
+            q.done -= done;
+        }
+        if (!p.present && p.isLeaf()) {
+            nodes.remove(node.parent);
+        }
+        node.parent = 0;
+    }
+
+    private static void push(Deque<Integer> stack, Node node) {
+        if (!node.isLeaf()) {
+            for (Integer child : node.children.descendingSet()) {
+                stack.push(child);
+            }
+        }
+    }
+
+}
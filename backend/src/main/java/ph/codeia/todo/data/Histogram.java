@@ -0,0 +1,139 @@
+package ph.codeia.todo.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values in log-linear buckets, like an HDR histogram.
+ * <p>
+ * Every power of 2 is split into 32 equal buckets, so a value is off by at
+ * most about 3% no matter how large it is, and the whole range up to about
+ * 2^40 (18 minutes in nanos) fits in 1,184 counters. Recording is a few
+ * bit operations and an atomic increment, with no locks, so it is cheap
+ * enough to do on every call.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_BITS = 40;
+    /**
+     * Larger values are counted as this.
+     */
+    public static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    public static class Snapshot {
+        private final long[] counts;
+        public final long count;
+        public final long sum;
+        public final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long n = 0;
+            for (long c : counts) {
+                n += c;
+            }
+            this.count = n;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return the average of the recorded values, or 0 if there were
+         * none.
+         */
+        public long mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * O(b) where b is the number of buckets.
+         *
+         * @param p A percentage from 0 to 100.
+         * @return the highest value that is within the precision of the
+         * bucket where the p-th percentile falls, or 0 if there's nothing.
+         */
+        public long percentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, highest(i));
+                }
+            }
+            return max;
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_BITS - SUB_BITS + 2) * SUB);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * O(1)
+     *
+     * @param value A non-negative value. Negative values are counted as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(0, Math.min(value, MAX_VALUE));
+        counts.incrementAndGet(index(v));
+        sum.addAndGet(v);
+        for (long m = max.get(); v > m && !max.compareAndSet(m, v); m = max.get()) {
+            // retry
+        }
+    }
+
+    /**
+     * O(b)
+     *
+     * The counters are read one by one while the others may still be
+     * recording, so a snapshot taken during heavy use may be a little off.
+     *
+     * @return the counts so far.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, sum.get(), max.get());
+    }
+
+    /**
+     * O(b)
+     *
+     * @return the counts so far, which are then cleared. A value recorded
+     * while this is running ends up in either this snapshot or the next.
+     */
+    public Snapshot reset() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.getAndSet(i, 0);
+        }
+        return new Snapshot(copy, sum.getAndSet(0), max.getAndSet(0));
+    }
+
+    static int index(long v) {
+        int msb = 63 - Long.numberOfLeadingZeros(v);
+        if (msb < SUB_BITS) {
+            return (int) v;
+        }
+        int shift = msb - SUB_BITS;
+        return (shift + 1) * SUB + (int) (v >>> shift) - SUB;
+    }
+
+    static long highest(int index) {
+        if (index < SUB) {
+            return index;
+        }
+        int shift = index / SUB - 1;
+        long sub = index % SUB + SUB;
+        return ((sub + 1) << shift) - 1;
+    }
+
+}
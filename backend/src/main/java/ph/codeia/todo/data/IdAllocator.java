@@ -0,0 +1,103 @@
+package ph.codeia.todo.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out unique row ids in increasing order.
+ * <p>
+ * There is one counter that only goes up, so every id is greater than the
+ * ones handed out before it. Ids that were taken by some other means (e.g. a
+ * {@code put} with an explicit id) are recorded in a sparse bitmap and
+ * skipped a word at a time.
+ * <p>
+ * Not thread safe; the owner calls it while holding its own lock.
+ */
+class IdAllocator {
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    private static final int WORDS_PER_PAGE = 1 << (PAGE_SHIFT - 6);
+
+    private final Map<Integer, long[]> claimed = new HashMap<>();
+    private int counter;
+    private int maxClaimed = Integer.MIN_VALUE;
+
+    /**
+     * @param start The first id to hand out.
+     */
+    IdAllocator(int start) {
+        counter = start;
+    }
+
+    /**
+     * O(1) when nothing was claimed past the counter, O(c / 64) otherwise
+     * where c is the number of claimed ids skipped.
+     *
+     * @return an id that is greater than every id returned before and wasn't
+     * claimed.
+     */
+    int next() {
+        int id = nextUnclaimed(counter);
+        counter = id + 1;
+        return id;
+    }
+
+    /**
+     * O(1)
+     *
+     * Marks an id as taken so that it will never be returned by
+     * {@link #next()}. Non-positive ids are never handed out so they are not
+     * recorded.
+     *
+     * @param id The id that was assigned by the caller.
+     */
+    void claim(int id) {
+        if (id <= 0) {
+            return;
+        }
+        int key = id >>> PAGE_SHIFT;
+        long[] page = claimed.get(key);
+        if (page == null) {
+            page = new long[WORDS_PER_PAGE];
+            claimed.put(key, page);
+        }
+        int bit = id & PAGE_MASK;
+        page[bit >>> 6] |= 1L << bit;
+        maxClaimed = Math.max(maxClaimed, id);
+    }
+
+    /**
+     * O(1)
+     *
+     * @return an id greater than every id handed out so far. Good enough as
+     * the starting point of a new allocator restored from a snapshot.
+     */
+    int watermark() {
+        return counter;
+    }
+
+    /**
+     * O(c / 64) for c claimed ids in a row, O(1) when nothing was claimed
+     * from here on.
+     *
+     * @return the first unclaimed id that is not less than the argument.
+     */
+    private int nextUnclaimed(int from) {
+        int id = from;
+        while (id <= maxClaimed) {
+            long[] page = claimed.get(id >>> PAGE_SHIFT);
+            if (page == null) {
+                return id;
+            }
+            int bit = id & PAGE_MASK;
+            long free = ~page[bit >>> 6] >>> (bit & 63);
+            if (free != 0) {
+                return id + Long.numberOfTrailingZeros(free);
+            }
+            id += 64 - (bit & 63);
+        }
+        return id;
+    }
+
+}
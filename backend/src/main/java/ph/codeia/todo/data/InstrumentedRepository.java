@@ -0,0 +1,336 @@
+package ph.codeia.todo.data;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the calls to another repository and how long they take.
+ * <p>
+ * Every method is recorded under its own name in a {@link Histogram} of
+ * nanos, along with the bytes the backend wrote during the call if it can
+ * tell. Recording doesn't lock anything. A transaction is recorded as
+ * "commit" when it is closed, which is where a file-backed repository does
+ * its writing. Closing without a transaction isn't recorded.
+ */
+public class InstrumentedRepository extends ForwardingRepository {
+
+    public interface Ticker {
+        Ticker SYSTEM = System::nanoTime;
+
+        long nanos();
+    }
+
+    /**
+     * The running total of the bytes written by a backend on the calling
+     * thread. A total across all threads would charge every call for the
+     * writes made by other threads while it was running.
+     */
+    public interface Bytes {
+        Bytes NONE = () -> 0;
+
+        long written();
+    }
+
+    public static class Stats {
+        public final String operation;
+        public final Histogram.Snapshot latency;
+        public final long bytesWritten;
+
+        Stats(String operation, Histogram.Snapshot latency, long bytesWritten) {
+            this.operation = operation;
+            this.latency = latency;
+            this.bytesWritten = bytesWritten;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s: n=%d mean=%dns p50=%dns p99=%dns max=%dns written=%dB",
+                    operation, latency.count, latency.mean(),
+                    latency.percentile(50), latency.percentile(99), latency.max,
+                    bytesWritten);
+        }
+    }
+
+    private interface Call<T> {
+        T run();
+    }
+
+    private static class Meter {
+        final Histogram latency = new Histogram();
+        final AtomicLong bytes = new AtomicLong();
+    }
+
+    private final ConcurrentMap<String, Meter> meters = new ConcurrentHashMap<>();
+    private final Ticker ticker;
+    private final Bytes bytes;
+
+    public InstrumentedRepository(TodoRepository delegate) {
+        this(delegate, Bytes.NONE);
+    }
+
+    /**
+     * @param delegate The repository to measure.
+     * @param bytes The byte counter of the backend, e.g.
+     *              {@link TodoSerialized#bytesWrittenByThisThread()}.
+     */
+    public InstrumentedRepository(TodoRepository delegate, Bytes bytes) {
+        this(delegate, bytes, Ticker.SYSTEM);
+    }
+
+    InstrumentedRepository(TodoRepository delegate, Bytes bytes, Ticker ticker) {
+        super(delegate);
+        this.bytes = bytes;
+        this.ticker = ticker;
+    }
+
+    @Override
+    public Todo oneWithId(int id) {
+        return timed("oneWithId", () -> delegate.oneWithId(id));
+    }
+
+    @Override
+    public List<Todo> all() {
+        return timed("all", () -> delegate.all());
+    }
+
+    @Override
+    public Page page(int afterId, int limit) {
+        return timed("page", () -> delegate.page(afterId, limit));
+    }
+
+    @Override
+    public List<Todo> withStatus(boolean completed) {
+        return timed("withStatus", () -> delegate.withStatus(completed));
+    }
+
+    @Override
+    public List<Todo> createdBetween(Date from, Date to) {
+        return timed("createdBetween", () -> delegate.createdBetween(from, to));
+    }
+
+    @Override
+    public List<Todo> createdBetween(Date from, Date to, boolean completed) {
+        return timed("createdBetween", () -> delegate.createdBetween(from, to, completed));
+    }
+
+    @Override
+    public int count(boolean completed) {
+        return timed("count", () -> delegate.count(completed));
+    }
+
+    @Override
+    public List<Todo> dueBetween(Date from, Date to) {
+        return timed("dueBetween", () -> delegate.dueBetween(from, to));
+    }
+
+    @Override
+    public List<Todo> search(String query) {
+        return timed("search", () -> delegate.search(query));
+    }
+
+    @Override
+    public List<Todo> tagged(TagFilter filter) {
+        return timed("tagged", () -> delegate.tagged(filter));
+    }
+
+    @Override
+    public Set<String> tags() {
+        return timed("tags", () -> delegate.tags());
+    }
+
+    @Override
+    public int size() {
+        return timed("size", () -> delegate.size());
+    }
+
+    @Override
+    public List<Todo> ordered(int from, int limit) {
+        return timed("ordered", () -> delegate.ordered(from, limit));
+    }
+
+    @Override
+    public Todo atPosition(int position) {
+        return timed("atPosition", () -> delegate.atPosition(position));
+    }
+
+    @Override
+    public int positionOf(int id) {
+        return timed("positionOf", () -> delegate.positionOf(id));
+    }
+
+    @Override
+    public Todo move(int id, int position) {
+        return timed("move", () -> delegate.move(id, position));
+    }
+
+    @Override
+    public List<Todo> children(int id) {
+        return timed("children", () -> delegate.children(id));
+    }
+
+    @Override
+    public List<Todo> subtree(int id) {
+        return timed("subtree", () -> delegate.subtree(id));
+    }
+
+    @Override
+    public Progress progress(int id) {
+        return timed("progress", () -> delegate.progress(id));
+    }
+
+    @Override
+    public List<Todo> occurrences(Date from, Date to) {
+        return timed("occurrences", () -> delegate.occurrences(from, to));
+    }
+
+    @Override
+    public Recurrence addRecurrence(Recurrence rule) {
+        return timed("addRecurrence", () -> delegate.addRecurrence(rule));
+    }
+
+    @Override
+    public List<Recurrence> recurrences() {
+        return timed("recurrences", () -> delegate.recurrences());
+    }
+
+    @Override
+    public void deleteRecurrence(int id) {
+        timed("deleteRecurrence", () -> delegate.deleteRecurrence(id));
+    }
+
+    @Override
+    public Statistics statistics() {
+        return timed("statistics", () -> delegate.statistics());
+    }
+
+    @Override
+    public Todo add(String title, String description, boolean completed) {
+        return timed("add", () -> delegate.add(title, description, completed));
+    }
+
+    @Override
+    public void put(Todo item) {
+        timed("put", () -> delegate.put(item));
+    }
+
+    @Override
+    public void delete(int id) {
+        timed("delete", () -> delegate.delete(id));
+    }
+
+    @Override
+    public Todo update(int id, Update f) {
+        return timed("update", () -> delegate.update(id, f));
+    }
+
+    @Override
+    public boolean compareAndPut(int expectedVersion, Todo item) {
+        return timed("compareAndPut", () -> delegate.compareAndPut(expectedVersion, item));
+    }
+
+    @Override
+    public void putAll(Collection<Todo> items) {
+        timed("putAll", () -> delegate.putAll(items));
+    }
+
+    @Override
+    public int deleteAll(Collection<Integer> ids) {
+        return timed("deleteAll", () -> delegate.deleteAll(ids));
+    }
+
+    @Override
+    public int deleteWhere(Where where) {
+        return timed("deleteWhere", () -> delegate.deleteWhere(where));
+    }
+
+    @Override
+    public int updateWhere(Where where, Update f) {
+        return timed("updateWhere", () -> delegate.updateWhere(where, f));
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (!inTransaction()) {
+            super.close();
+            return;
+        }
+        long t = ticker.nanos();
+        long b = bytes.written();
+        try {
+            super.close();
+        } finally {
+            record("commit", t, b);
+        }
+    }
+
+    /**
+     * O(m) where m is the number of methods called so far.
+     *
+     * @return the stats of every method that was called, by name.
+     */
+    public Map<String, Stats> snapshot() {
+        Map<String, Stats> stats = new TreeMap<>();
+        for (Map.Entry<String, Meter> e : meters.entrySet()) {
+            Meter m = e.getValue();
+            stats.put(e.getKey(), new Stats(e.getKey(), m.latency.snapshot(), m.bytes.get()));
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * O(m)
+     *
+     * @return the stats so far, which are then cleared.
+     */
+    public Map<String, Stats> reset() {
+        Map<String, Stats> stats = new TreeMap<>();
+        for (Map.Entry<String, Meter> e : meters.entrySet()) {
+            Meter m = e.getValue();
+            stats.put(e.getKey(), new Stats(e.getKey(), m.latency.reset(), m.bytes.getAndSet(0)));
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    private <T> T timed(String operation, Call<T> call) {
+        long t = ticker.nanos();
+        long b = bytes.written();
+        try {
+            return call.run();
+        } finally {
+            record(operation, t, b);
+        }
+    }
+
+    private void timed(String operation, Runnable call) {
+        timed(operation, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    private void record(String operation, long startNanos, long startBytes) {
+        Meter m = meters.get(operation);
+        if (m == null) {
+            Meter fresh = new Meter();
+            m = meters.putIfAbsent(operation, fresh);
+            if (m == null) {
+                m = fresh;
+            }
+        }
+        m.latency.record(ticker.nanos() - startNanos);
+        long written = bytes.written() - startBytes;
+        if (written > 0) {
+            m.bytes.addAndGet(written);
+        }
+    }
+
+}
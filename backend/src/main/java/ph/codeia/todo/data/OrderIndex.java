@@ -0,0 +1,228 @@
+package ph.codeia.todo.data;
+
+import java.util.List;
+import java.util.Random;
+
+import ph.codeia.todo.data.TodoRepository.Todo;
+
+/**
+ * The rows in display order, i.e. sorted by rank and then by id.
+ * <p>
+ * This is a treap where every node knows the size of its subtree, so that
+ * finding the row at some position and the position of some row are both
+ * O(log n) on average, as are inserts and deletes. The ranks themselves are
+ * assigned by the table; this only sorts them.
+ */
+class OrderIndex extends Trigger {
+
+    private static class Node {
+        final long rank;
+        final int id;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(long rank, int id, int priority) {
+            this.rank = rank;
+            this.id = id;
+            this.priority = priority;
+        }
+    }
+
+    private final Random random = new Random();
+    private Node root;
+
+    @Override
+    void inserted(Todo row) {
+        Node[] parts = split(root, row.rank, row.id);
+        root = merge(merge(parts[0], new Node(row.rank, row.id, random.nextInt())), parts[1]);
+    }
+
+    @Override
+    void deleted(Todo row) {
+        root = remove(root, row.rank, row.id);
+    }
+
+    @Override
+    void updated(Todo old, Todo row) {
+        if (old.rank != row.rank) {
+            super.updated(old, row);
+        }
+    }
+
+    /**
+     * O(1)
+     */
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param position 0-based, less than {@link #size()}.
+     * @return the id of the row at that position.
+     */
+    int idAt(int position) {
+        return nodeAt(position).id;
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param position 0-based, less than {@link #size()}.
+     * @return the rank of the row at that position.
+     */
+    long rankAt(int position) {
+        return nodeAt(position).rank;
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param row A row in the index.
+     * @return the number of rows before it.
+     */
+    int positionOf(Todo row) {
+        int before = 0;
+        Node node = root;
+        while (node != null) {
+            int c = compare(row.rank, row.id, node);
+            if (c == 0) {
+                return before + size(node.left);
+            }
+            if (c < 0) {
+                node = node.left;
+            } else {
+                before += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return before;
+    }
+
+    /**
+     * O(log n + k)
+     *
+     * @param from The position of the first row.
+     * @param limit The max number of ids k to collect.
+     * @param ids Where the ids are added, in order.
+     */
+    void collect(int from, int limit, List<Integer> ids) {
+        collect(root, from, from + limit, 0, ids);
+    }
+
+    /**
+     * @return the largest rank in use, or 0 if empty.
+     */
+    long lastRank() {
+        Node node = root;
+        if (node == null) {
+            return 0;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.rank;
+    }
+
+    private Node nodeAt(int position) {
+        Node node = root;
+        while (node != null) {
+            int left = size(node.left);
+            if (position < left) {
+                node = node.left;
+            } else if (position == left) {
+                return node;
+            } else {
+                position -= left + 1;
+                node = node.right;
+            }
+        }
+        throw new IndexOutOfBoundsException("no row at " + position);
+    }
+
+    private static void collect(Node node, int from, int to, int offset, List<Integer> ids) {
+        if (node == null || from >= to) {
+            return;
+        }
+        int here = offset + size(node.left);
+        if (from < here) {
+            collect(node.left, from, to, offset, ids);
+        }
+        if (from <= here && here < to) {
+            ids.add(node.id);
+        }
+        if (here + 1 < to) {
+            collect(node.right, from, to, here + 1, ids);
+        }
+    }
+
+    /**
+     * @return the nodes before the key and the nodes at or after it.
+     */
+    private static Node[] split(Node node, long rank, int id) {
+        if (node == null) {
+            return new Node[2];
+        }
+        if (compare(rank, id, node) <= 0) {
+            Node[] parts = split(node.left, rank, id);
+            node.left = parts[1];
+            parts[1] = update(node);
+            return parts;
+        } else {
+            Node[] parts = split(node.right, rank, id);
+            node.right = parts[0];
+            parts[0] = update(node);
+            return parts;
+        }
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return update(left);
+        } else {
+            right.left = merge(left, right.left);
+            return update(right);
+        }
+    }
+
+    private static Node remove(Node node, long rank, int id) {
+        if (node == null) {
+            return null;
+        }
+        int c = compare(rank, id, node);
+        if (c == 0) {
+            return merge(node.left, node.right);
+        }
+        if (c < 0) {
+            node.left = remove(node.left, rank, id);
+        } else {
+            node.right = remove(node.right, rank, id);
+        }
+        return update(node);
+    }
+
+    private static Node update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int compare(long rank, int id, Node node) {
+        int byRank = Long.compare(rank, node.rank);
+        return byRank != 0 ? byRank : Integer.compare(id, node.id);
+    }
+
+}
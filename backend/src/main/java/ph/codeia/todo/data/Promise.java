@@ -0,0 +1,199 @@
+package ph.codeia.todo.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A value that will be available later.
+ * <p>
+ * Unlike a plain future, the next step can be attached with
+ * {@link #map(Fn)} or {@link #then(Fn)} instead of waiting for the value in
+ * some thread. The steps run in the thread that completes the promise, or
+ * right away if it is already done, so they should be short.
+ *
+ * @param <T> The type of the value.
+ */
+public class Promise<T> implements Future<T> {
+
+    public interface Fn<T, R> {
+        R apply(T value) throws Exception;
+    }
+
+    private boolean done;
+    private T value;
+    private Throwable error;
+    private List<Runnable> callbacks = new ArrayList<>();
+
+    public static <T> Promise<T> of(T value) {
+        Promise<T> p = new Promise<>();
+        p.resolve(value);
+        return p;
+    }
+
+    public static <T> Promise<T> failed(Throwable error) {
+        Promise<T> p = new Promise<>();
+        p.reject(error);
+        return p;
+    }
+
+    /**
+     * @param value The result.
+     * @return false if this was already done, in which case nothing changes.
+     */
+    public boolean resolve(T value) {
+        return settle(value, null);
+    }
+
+    /**
+     * @param error The reason there is no result.
+     * @return false if this was already done, in which case nothing changes.
+     */
+    public boolean reject(Throwable error) {
+        return settle(null, error);
+    }
+
+    /**
+     * Runs the block once this is done, whether it succeeded or not.
+     *
+     * @param block Called exactly once.
+     */
+    public void whenDone(Runnable block) {
+        synchronized (this) {
+            if (!done) {
+                callbacks.add(block);
+                return;
+            }
+        }
+        block.run();
+    }
+
+    /**
+     * @param f Computes the next value from this one. Not called if this
+     *          failed.
+     * @param <R> The type of the next value.
+     * @return the result of f, or the failure of this or of f.
+     */
+    public <R> Promise<R> map(Fn<? super T, ? extends R> f) {
+        Promise<R> next = new Promise<>();
+        whenDone(() -> {
+            if (error != null) {
+                next.reject(error);
+                return;
+            }
+            try {
+                next.resolve(f.apply(value));
+            } catch (Exception e) {
+                next.reject(e);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * @param f Starts the next step from the value of this one. Not called
+     *          if this failed.
+     * @param <R> The type of the next value.
+     * @return the result of the promise returned by f, or the failure of
+     * this, f or that promise.
+     */
+    public <R> Promise<R> then(Fn<? super T, Promise<R>> f) {
+        Promise<R> next = new Promise<>();
+        whenDone(() -> {
+            if (error != null) {
+                next.reject(error);
+                return;
+            }
+            Promise<R> p;
+            try {
+                p = f.apply(value);
+            } catch (Exception e) {
+                next.reject(e);
+                return;
+            }
+            p.whenDone(() -> {
+                if (p.error != null) {
+                    next.reject(p.error);
+                } else {
+                    next.resolve(p.value);
+                }
+            });
+        });
+        return next;
+    }
+
+    /**
+     * Fails this with a {@link CancellationException} if it's not done yet.
+     * The work that would have completed this is not interrupted.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return reject(new CancellationException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return error instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (error instanceof CancellationException) {
+            throw (CancellationException) error;
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return value;
+    }
+
+    private boolean settle(T value, Throwable error) {
+        List<Runnable> pending;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            this.value = value;
+            this.error = error;
+            pending = callbacks;
+            callbacks = null;
+            notifyAll();
+        }
+        for (Runnable block : pending) {
+            block.run();
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,312 @@
+package ph.codeia.todo.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ph.codeia.todo.data.TodoRepository.Todo;
+
+/**
+ * Tells a listener when the active rows with due dates become due.
+ * <p>
+ * The pending reminders are kept in a hierarchical timing wheel: six levels
+ * of 64 slots each, where a slot at level k spans 64^k ticks. A reminder goes
+ * into the lowest level whose range covers it and moves down a level every
+ * time the wheel above it turns to its slot, until it lands in level 0 and
+ * fires. Scheduling and cancelling are O(1), and advancing the clock only
+ * visits the slots that have something in them, so a long sleep doesn't cost
+ * a tick-by-tick walk.
+ * <p>
+ * Nothing runs on its own. Call {@link #advance()} at the time returned by
+ * {@link #nextWakeup()}, e.g. from an alarm or a handler. Everything that
+ * became due since the last call is passed to the listener in one batch.
+ * <p>
+ * Attach this to a repository to keep it in sync with the rows; see
+ * {@link TodoInMemory#attach(Reminders)}.
+ */
+public class Reminders {
+
+    public interface Listener {
+        /**
+         * Called outside of any lock.
+         *
+         * @param rows The rows that became due, in no particular order.
+         */
+        void due(List<Todo> rows);
+    }
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+    private static final int READY = -1;
+
+    private static class Entry {
+        Todo row;
+        long deadline;
+        int level;
+        int slot;
+        Entry prev;
+        Entry next;
+    }
+
+    private final Clock clock;
+    private final long tick;
+    private final Listener listener;
+    private final Entry[][] wheels = new Entry[LEVELS][SLOTS];
+    private final long[] occupied = new long[LEVELS];
+    private final Map<Integer, Entry> pending = new HashMap<>();
+    private Entry ready;
+    private long current;
+
+    /**
+     * Keeps the wheel in sync with the table it is attached to.
+     */
+    final Trigger feed = new Trigger() {
+        @Override
+        void inserted(Todo row) {
+            schedule(row);
+        }
+
+        @Override
+        void deleted(Todo row) {
+            cancel(row.id);
+        }
+
+        @Override
+        void updated(Todo old, Todo row) {
+            boolean dueChanged = old.due == null ? row.due != null : !old.due.equals(row.due);
+            if (dueChanged || old.completed != row.completed || isPending(row.id)) {
+                schedule(row);
+            }
+        }
+    };
+
+    /**
+     * @param clock The source of the current time.
+     * @param tickMillis The resolution of the wheel. Reminders fire at the
+     *                   first tick at or after the due date.
+     * @param listener Receives the rows that became due.
+     */
+    public Reminders(Clock clock, long tickMillis, Listener listener) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        this.clock = clock;
+        this.tick = tickMillis;
+        this.listener = listener;
+        current = clock.now() / tickMillis;
+    }
+
+    /**
+     * O(1)
+     *
+     * Replaces the pending reminder for the row if there is one. Completed
+     * rows and rows without a due date are just cancelled. A row that is
+     * already due fires on the next {@link #advance()}.
+     *
+     * @param row The row to remind about.
+     */
+    public synchronized void schedule(Todo row) {
+        cancel(row.id);
+        if (row.due == null || row.completed) {
+            return;
+        }
+        Entry e = new Entry();
+        e.row = row;
+        long due = row.due.getTime();
+        e.deadline = due / tick + (due % tick > 0 ? 1 : 0);
+        pending.put(row.id, e);
+        place(e);
+    }
+
+    /**
+     * O(1)
+     *
+     * @param id The row id.
+     */
+    public synchronized void cancel(int id) {
+        Entry e = pending.remove(id);
+        if (e != null) {
+            unlink(e);
+        }
+    }
+
+    /**
+     * O(1)
+     *
+     * @param id The row id.
+     * @return true if there's a reminder for the row that hasn't fired yet.
+     */
+    public synchronized boolean isPending(int id) {
+        return pending.containsKey(id);
+    }
+
+    /**
+     * O(1)
+     *
+     * @return the number of reminders that haven't fired yet.
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * O(1)
+     *
+     * @return the time in millis when {@link #advance()} should be called
+     * next, or {@link Long#MAX_VALUE} if there's nothing pending. This may
+     * be earlier than the next reminder because reminders far in the future
+     * need to be moved down the wheel first.
+     */
+    public synchronized long nextWakeup() {
+        if (ready != null) {
+            return current * tick;
+        }
+        long next = nextTick();
+        return next == Long.MAX_VALUE ? next : next * tick;
+    }
+
+    /**
+     * O(s + k) where s is the number of non-empty slots passed and k is the
+     * number of reminders moved or fired.
+     *
+     * Fires everything that is due at the current time.
+     *
+     * @return the number of rows passed to the listener.
+     */
+    public int advance() {
+        List<Todo> fired = new ArrayList<>();
+        synchronized (this) {
+            long target = clock.now() / tick;
+            for (long t = nextTick(); t <= target; t = nextTick()) {
+                current = t;
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((t & ((1L << (BITS * level)) - 1)) == 0) {
+                        int slot = (int) (t >>> (BITS * level)) & MASK;
+                        Entry e = take(level, slot);
+                        while (e != null) {
+                            Entry next = e.next;
+                            place(e);
+                            e = next;
+                        }
+                    }
+                }
+                drain(take(0, (int) t & MASK), fired);
+            }
+            // includes the ones that were due exactly when they moved down
+            drain(ready, fired);
+            ready = null;
+            current = Math.max(current, target);
+        }
+        if (!fired.isEmpty()) {
+            listener.due(fired);
+        }
+        return fired.size();
+    }
+
+    /**
+     * Drops everything pending.
+     */
+    synchronized void clear() {
+        pending.clear();
+        ready = null;
+        for (int level = 0; level < LEVELS; level++) {
+            occupied[level] = 0;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheels[level][slot] = null;
+            }
+        }
+    }
+
+    /**
+     * @return the current time according to the clock.
+     */
+    long now() {
+        return clock.now();
+    }
+
+    private void place(Entry e) {
+        long delta = e.deadline - current;
+        if (delta <= 0) {
+            e.level = READY;
+            push(e);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        long at = Math.min(e.deadline, current + (1L << (BITS * LEVELS)) - 1);
+        e.level = level;
+        e.slot = (int) (at >>> (BITS * level)) & MASK;
+        push(e);
+    }
+
+    private void push(Entry e) {
+        e.prev = null;
+        if (e.level == READY) {
+            e.next = ready;
+            ready = e;
+        } else {
+            e.next = wheels[e.level][e.slot];
+            wheels[e.level][e.slot] = e;
+            occupied[e.level] |= 1L << e.slot;
+        }
+        if (e.next != null) {
+            e.next.prev = e;
+        }
+    }
+
+    private void unlink(Entry e) {
+        if (e.next != null) {
+            e.next.prev = e.prev;
+        }
+        if (e.prev != null) {
+            e.prev.next = e.next;
+        } else if (e.level == READY) {
+            ready = e.next;
+        } else {
+            wheels[e.level][e.slot] = e.next;
+            if (e.next == null) {
+                occupied[e.level] &= ~(1L << e.slot);
+            }
+        }
+    }
+
+    private Entry take(int level, int slot) {
+        Entry head = wheels[level][slot];
+        wheels[level][slot] = null;
+        occupied[level] &= ~(1L << slot);
+        return head;
+    }
+
+    private void drain(Entry e, List<Todo> fired) {
+        for (; e != null; e = e.next) {
+            pending.remove(e.row.id);
+            fired.add(e.row);
+        }
+    }
+
+    /**
+     * @return the earliest tick after the current one at which a non-empty
+     * slot fires or moves down, or {@link Long#MAX_VALUE} if all are empty.
+     */
+    private long nextTick() {
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            long mask = occupied[level];
+            if (mask == 0) {
+                continue;
+            }
+            int shift = BITS * level;
+            long base = current >>> shift;
+            int from = (int) (base + 1) & MASK;
+            int d = 1 + Long.numberOfTrailingZeros(Long.rotateRight(mask, from));
+            next = Math.min(next, (base + d) << shift);
+        }
+        return next;
+    }
+
+}
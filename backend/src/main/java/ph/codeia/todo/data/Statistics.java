@@ -0,0 +1,252 @@
+package ph.codeia.todo.data;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+import ph.codeia.todo.data.TodoRepository.Todo;
+
+/**
+ * Running counts of completed rows per day, week and month, and the time it
+ * took to complete them.
+ * <p>
+ * Every period has a fixed-size ring of buckets that is reused as time moves
+ * on, so the whole thing takes a few KB no matter how long the history is.
+ * Each completion touches one bucket in each ring and a query only reads the
+ * buckets it asks for. The buckets follow the local calendar of the time zone
+ * the stats were started in. Weeks start on Monday.
+ * <p>
+ * The counts are history: deleting a completed row doesn't take it back, but
+ * marking it active again does.
+ */
+public class Statistics extends Trigger implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Period {
+        DAY(120), WEEK(104), MONTH(120);
+
+        /**
+         * How many of these periods are remembered.
+         */
+        public final int history;
+
+        Period(int history) {
+            this.history = history;
+        }
+    }
+
+    private static final long DAY_MILLIS = 86_400_000L;
+
+    /**
+     * Buckets keyed by the period number since the epoch. A slot is reset
+     * when a newer period is written to it; writes to periods older than
+     * what's in the slot are dropped.
+     */
+    private static class Ring implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final long[] keys;
+        final int[] completed;
+        final long[] millis;
+
+        Ring(int size) {
+            keys = new long[size];
+            completed = new int[size];
+            millis = new long[size];
+            Arrays.fill(keys, Long.MIN_VALUE);
+        }
+
+        Ring(Ring other) {
+            keys = other.keys.clone();
+            completed = other.completed.clone();
+            millis = other.millis.clone();
+        }
+
+        void add(long key, int count, long duration) {
+            int i = slot(key);
+            if (keys[i] != key) {
+                if (key < keys[i]) {
+                    return;
+                }
+                keys[i] = key;
+                completed[i] = 0;
+                millis[i] = 0;
+            }
+            completed[i] += count;
+            millis[i] += duration;
+        }
+
+        int slot(long key) {
+            int i = (int) (key % keys.length);
+            return i < 0 ? i + keys.length : i;
+        }
+    }
+
+    private final TimeZone zone;
+    private final Ring days;
+    private final Ring weeks;
+    private final Ring months;
+    private long total;
+    private long totalMillis;
+
+    public Statistics() {
+        this(TimeZone.getDefault());
+    }
+
+    public Statistics(TimeZone zone) {
+        this.zone = zone;
+        days = new Ring(Period.DAY.history);
+        weeks = new Ring(Period.WEEK.history);
+        months = new Ring(Period.MONTH.history);
+    }
+
+    private Statistics(Statistics other) {
+        zone = other.zone;
+        days = new Ring(other.days);
+        weeks = new Ring(other.weeks);
+        months = new Ring(other.months);
+        total = other.total;
+        totalMillis = other.totalMillis;
+    }
+
+    @Override
+    void inserted(Todo row) {
+        if (row.completed) {
+            count(row, 1);
+        }
+    }
+
+    @Override
+    void deleted(Todo row) {
+    }
+
+    @Override
+    void updated(Todo old, Todo row) {
+        if (old.completed && !row.completed) {
+            count(old, -1);
+        } else if (!old.completed && row.completed) {
+            count(row, 1);
+        }
+    }
+
+    /**
+     * O(p)
+     *
+     * @param period The length of the buckets.
+     * @param from A time within the first bucket.
+     * @param count The number of buckets p.
+     * @return the number of rows completed in each bucket. Buckets that are
+     * too old to remember are 0.
+     */
+    public int[] completed(Period period, Date from, int count) {
+        Ring ring = ring(period);
+        long first = key(period, from.getTime());
+        int[] counts = new int[count];
+        for (int i = 0; i < count; i++) {
+            int slot = ring.slot(first + i);
+            if (ring.keys[slot] == first + i) {
+                counts[i] = ring.completed[slot];
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * O(p)
+     *
+     * @param period The length of the buckets.
+     * @param from A time within the first bucket.
+     * @param count The number of buckets p.
+     * @return the mean time in millis from creation to completion of the
+     * rows completed within the buckets, or 0 if there were none.
+     */
+    public long averageTimeToCompletion(Period period, Date from, int count) {
+        Ring ring = ring(period);
+        long first = key(period, from.getTime());
+        long n = 0;
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = ring.slot(first + i);
+            if (ring.keys[slot] == first + i) {
+                n += ring.completed[slot];
+                sum += ring.millis[slot];
+            }
+        }
+        return n == 0 ? 0 : sum / n;
+    }
+
+    /**
+     * O(1)
+     *
+     * @return the mean time in millis from creation to completion of every
+     * row ever completed, or 0 if there were none.
+     */
+    public long averageTimeToCompletion() {
+        return total == 0 ? 0 : totalMillis / total;
+    }
+
+    /**
+     * O(1)
+     *
+     * @return the number of rows ever completed.
+     */
+    public long totalCompleted() {
+        return total;
+    }
+
+    /**
+     * O(1) since the rings have fixed sizes.
+     *
+     * @return a copy that won't see later changes.
+     */
+    Statistics copy() {
+        return new Statistics(this);
+    }
+
+    private void count(Todo row, int sign) {
+        if (row.completedAt == null) {
+            return;
+        }
+        long at = row.completedAt.getTime();
+        long duration = row.created == null ? 0 : Math.max(0, at - row.created.getTime());
+        days.add(key(Period.DAY, at), sign, sign * duration);
+        weeks.add(key(Period.WEEK, at), sign, sign * duration);
+        months.add(key(Period.MONTH, at), sign, sign * duration);
+        total += sign;
+        totalMillis += sign * duration;
+    }
+
+    private Ring ring(Period period) {
+        switch (period) {
+            case DAY:
+                return days;
+            case WEEK:
+                return weeks;
+            default:
+                return months;
+        }
+    }
+
+    private long key(Period period, long time) {
+        long day = floorDiv(time + zone.getOffset(time), DAY_MILLIS);
+        switch (period) {
+            case DAY:
+                return day;
+            case WEEK:
+                // the epoch was a thursday
+                return floorDiv(day + 3, 7);
+            default:
+                Calendar c = Calendar.getInstance(zone);
+                c.setTimeInMillis(time);
+                return c.get(Calendar.YEAR) * 12L + c.get(Calendar.MONTH);
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+}
@@ -0,0 +1,134 @@
+package ph.codeia.todo.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import ph.codeia.todo.data.TodoRepository.Todo;
+
+/**
+ * Secondary indexes over the completion status and the creation date.
+ * <p>
+ * The rows are split by status and each half is kept sorted by id and by
+ * creation date, so the queries only ever touch the rows that match and the
+ * counts are just the sizes of the halves.
+ */
+class StatusIndex extends Trigger {
+
+    private static final Comparator<Todo> BY_CREATED = (a, b) -> {
+        int byTime = Long.compare(time(a.created, Long.MIN_VALUE), time(b.created, Long.MIN_VALUE));
+        return byTime != 0 ? byTime : Integer.compare(a.id, b.id);
+    };
+
+    private static class Partition {
+        final NavigableMap<Integer, Todo> byId = new TreeMap<>();
+        final NavigableSet<Todo> byCreated = new TreeSet<>(BY_CREATED);
+    }
+
+    private final Partition completed = new Partition();
+    private final Partition active = new Partition();
+
+    @Override
+    void inserted(Todo row) {
+        Partition p = of(row.completed);
+        p.byId.put(row.id, row);
+        p.byCreated.add(row);
+    }
+
+    @Override
+    void deleted(Todo row) {
+        Partition p = of(row.completed);
+        p.byId.remove(row.id);
+        p.byCreated.remove(row);
+    }
+
+    /**
+     * O(1)
+     *
+     * @param isCompleted The status to count.
+     * @return the number of rows with that status.
+     */
+    int count(boolean isCompleted) {
+        return of(isCompleted).byId.size();
+    }
+
+    /**
+     * O(k)
+     *
+     * @param isCompleted The status to match.
+     * @return the rows with that status sorted by id.
+     */
+    List<Todo> withStatus(boolean isCompleted) {
+        return new ArrayList<>(of(isCompleted).byId.values());
+    }
+
+    /**
+     * O(log n + k)
+     *
+     * @param from Inclusive lower bound, or null for unbounded.
+     * @param to Exclusive upper bound, or null for unbounded.
+     * @param isCompleted The status to match.
+     * @return the matching rows sorted by creation date.
+     */
+    List<Todo> createdBetween(Date from, Date to, boolean isCompleted) {
+        return new ArrayList<>(range(of(isCompleted), from, to));
+    }
+
+    /**
+     * O(log n + k)
+     *
+     * @param from Inclusive lower bound, or null for unbounded.
+     * @param to Exclusive upper bound, or null for unbounded.
+     * @return the matching rows of either status sorted by creation date.
+     */
+    List<Todo> createdBetween(Date from, Date to) {
+        List<Todo> rows = new ArrayList<>();
+        Iterator<Todo> xs = range(completed, from, to).iterator();
+        Iterator<Todo> ys = range(active, from, to).iterator();
+        Todo x = xs.hasNext() ? xs.next() : null;
+        Todo y = ys.hasNext() ? ys.next() : null;
+        while (x != null || y != null) {
+            if (y == null || x != null && BY_CREATED.compare(x, y) < 0) {
+                rows.add(x);
+                x = xs.hasNext() ? xs.next() : null;
+            } else {
+                rows.add(y);
+                y = ys.hasNext() ? ys.next() : null;
+            }
+        }
+        return rows;
+    }
+
+    private Partition of(boolean isCompleted) {
+        return isCompleted ? completed : active;
+    }
+
+    private static Collection<Todo> range(Partition p, Date from, Date to) {
+        long lo = time(from, Long.MIN_VALUE);
+        long hi = time(to, Long.MAX_VALUE);
+        if (lo >= hi) {
+            return Collections.emptySet();
+        }
+        return p.byCreated.subSet(probe(lo), true, probe(hi), false);
+    }
+
+    /**
+     * @return a row that sorts before every real row created at that time.
+     */
+    private static Todo probe(long time) {
+        return new Todo(Integer.MIN_VALUE, null, null, false, new Date(time));
+    }
+
+    private static long time(Date date, long orElse) {
+        return date == null ? orElse : date.getTime();
+    }
+
+}
@@ -0,0 +1,120 @@
+package ph.codeia.todo.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import ph.codeia.todo.data.TodoRepository.TagFilter;
+import ph.codeia.todo.data.TodoRepository.Todo;
+
+/**
+ * A bitmap of row ids for every tag in use, plus bitmaps of all rows and the
+ * completed rows so that any combination of tags and status can be answered
+ * with set operations on the bitmaps alone.
+ */
+class TagIndex extends Trigger {
+
+    private final Map<String, Bitmap> byTag = new HashMap<>();
+    private final Bitmap all = new Bitmap();
+    private final Bitmap completed = new Bitmap();
+
+    @Override
+    void inserted(Todo row) {
+        all.add(row.id);
+        if (row.completed) {
+            completed.add(row.id);
+        }
+        for (String tag : row.tags) {
+            Bitmap ids = byTag.get(tag);
+            if (ids == null) {
+                ids = new Bitmap();
+                byTag.put(tag, ids);
+            }
+            ids.add(row.id);
+        }
+    }
+
+    @Override
+    void deleted(Todo row) {
+        all.remove(row.id);
+        completed.remove(row.id);
+        for (String tag : row.tags) {
+            Bitmap ids = byTag.get(tag);
+            if (ids != null) {
+                ids.remove(row.id);
+                if (ids.isEmpty()) {
+                    byTag.remove(tag);
+                }
+            }
+        }
+    }
+
+    @Override
+    void updated(Todo old, Todo row) {
+        if (old.completed != row.completed || !old.tags.equals(row.tags)) {
+            super.updated(old, row);
+        }
+    }
+
+    @Override
+    void loaded() {
+        all.optimize();
+        completed.optimize();
+        for (Bitmap ids : byTag.values()) {
+            ids.optimize();
+        }
+    }
+
+    /**
+     * Proportional to the number of containers in the bitmaps involved, not
+     * the number of rows.
+     *
+     * @param filter The tags and statuses to match.
+     * @return the matching row ids in ascending order.
+     */
+    int[] query(TagFilter filter) {
+        Bitmap result = null;
+        for (String tag : filter.allOf) {
+            Bitmap ids = byTag.get(tag);
+            if (ids == null) {
+                return new int[0];
+            }
+            result = result == null ? ids : result.and(ids);
+        }
+        if (result == null) {
+            result = all;
+        }
+        if (!filter.anyOf.isEmpty()) {
+            Bitmap union = new Bitmap();
+            for (String tag : filter.anyOf) {
+                Bitmap ids = byTag.get(tag);
+                if (ids != null) {
+                    union = union.or(ids);
+                }
+            }
+            result = result.and(union);
+        }
+        for (String tag : filter.noneOf) {
+            Bitmap ids = byTag.get(tag);
+            if (ids != null) {
+                result = result.andNot(ids);
+            }
+        }
+        if (!filter.includeCompleted) {
+            result = result.andNot(completed);
+        }
+        if (!filter.includeActive) {
+            result = result.and(completed);
+        }
+        return result.toArray();
+    }
+
+    /**
+     * @return every tag attached to at least one row, sorted.
+     */
+    Set<String> tags() {
+        return new TreeSet<>(byTag.keySet());
+    }
+
+}
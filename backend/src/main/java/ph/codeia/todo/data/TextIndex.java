@@ -0,0 +1,313 @@
+package ph.codeia.todo.data;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import ph.codeia.todo.data.TodoRepository.Todo;
+
+/**
+ * An inverted index of the words in the titles and descriptions.
+ * <p>
+ * Words are runs of letters and digits, lowercased. Every word maps to a
+ * sorted list of the ids of the rows containing it. A query matches the rows
+ * that have all of its words, with the last word treated as a prefix so that
+ * the results can be updated while the user types.
+ */
+class TextIndex extends Trigger implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A growable sorted array of row ids.
+     */
+    static class Postings implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private transient int[] ids = new int[2];
+        private transient int size;
+
+        /**
+         * O(1) if the id is greater than all the others, O(k) otherwise.
+         */
+        void add(int id) {
+            int i = Arrays.binarySearch(ids, 0, size, id);
+            if (i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, i, ids, i + 1, size - i);
+            ids[i] = id;
+            size++;
+        }
+
+        /**
+         * O(k)
+         */
+        void remove(int id) {
+            int i = Arrays.binarySearch(ids, 0, size, id);
+            if (i >= 0) {
+                System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+                size--;
+            }
+        }
+
+        /**
+         * O(log k)
+         */
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(int i) {
+            return ids[i];
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(ids[i]);
+            }
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException {
+            size = in.readInt();
+            ids = new int[Math.max(2, size)];
+            for (int i = 0; i < size; i++) {
+                ids[i] = in.readInt();
+            }
+        }
+    }
+
+    private final TreeMap<String, Postings> words = new TreeMap<>();
+
+    /**
+     * O(w log n) where w is the number of words in the row.
+     */
+    @Override
+    void inserted(Todo row) {
+        for (String word : words(row)) {
+            Postings postings = words.get(word);
+            if (postings == null) {
+                postings = new Postings();
+                words.put(word, postings);
+            }
+            postings.add(row.id);
+        }
+    }
+
+    /**
+     * O(w log n) where w is the number of words in the row.
+     */
+    @Override
+    void deleted(Todo row) {
+        for (String word : words(row)) {
+            Postings postings = words.get(word);
+            if (postings != null) {
+                postings.remove(row.id);
+                if (postings.size() == 0) {
+                    words.remove(word);
+                }
+            }
+        }
+    }
+
+    @Override
+    void updated(Todo old, Todo row) {
+        if (!eq(old.title, row.title) || !eq(old.description, row.description)) {
+            super.updated(old, row);
+        }
+    }
+
+    /**
+     * O(t log w + c t log k + min(c m log k, p log m)) where t is the number
+     * of words in the query, w is the number of words in the index, c is
+     * the size of the smallest posting list among the complete words, k is
+     * the size of the largest posting list, m is the number of words that
+     * start with the last one and p is the total size of their posting
+     * lists.
+     * <p>
+     * The rows having all the complete words are found first. Then either
+     * each of them is looked up in the prefix matches, or the prefix matches
+     * are merged once and intersected with them, whichever is cheaper. A
+     * query of one or two letters and nothing else can match most of the
+     * words, so it costs about as much as reading the whole index.
+     *
+     * @param query Some words. The last one may be incomplete.
+     * @return the ids of the matching rows in ascending order.
+     */
+    List<Integer> search(String query) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Postings> exact = new ArrayList<>();
+        for (String term : terms.subList(0, terms.size() - 1)) {
+            Postings postings = words.get(term);
+            if (postings == null) {
+                return Collections.emptyList();
+            }
+            exact.add(postings);
+        }
+        String prefix = terms.get(terms.size() - 1);
+        Collection<Postings> completions =
+                words.subMap(prefix, prefix + Character.MAX_VALUE).values();
+        if (completions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int total = 0;
+        for (Postings postings : completions) {
+            total += postings.size();
+        }
+        if (exact.isEmpty()) {
+            return union(completions, total);
+        }
+        Postings smallest = exact.get(0);
+        for (Postings postings : exact) {
+            if (postings.size() < smallest.size()) {
+                smallest = postings;
+            }
+        }
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < smallest.size(); i++) {
+            int id = smallest.get(i);
+            if (inAll(exact, id)) {
+                candidates.add(id);
+            }
+        }
+        if ((long) candidates.size() * completions.size() < total) {
+            List<Integer> ids = new ArrayList<>();
+            for (int id : candidates) {
+                if (inAny(completions, id)) {
+                    ids.add(id);
+                }
+            }
+            return ids;
+        }
+        return intersection(candidates, union(completions, total));
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            boolean inWord = i < n && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start == -1) {
+                start = i;
+            } else if (!inWord && start != -1) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static Set<String> words(Todo row) {
+        Set<String> words = new LinkedHashSet<>(tokenize(row.title));
+        words.addAll(tokenize(row.description));
+        return words;
+    }
+
+    private static boolean inAll(List<Postings> lists, int id) {
+        for (Postings postings : lists) {
+            if (!postings.contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean inAny(Collection<Postings> lists, int id) {
+        for (Postings postings : lists) {
+            if (postings.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * O(p log m) for m lists with p ids in total.
+     *
+     * @return the ids in any of the lists in ascending order, once each.
+     */
+    private static List<Integer> union(Collection<Postings> lists, int total) {
+        PriorityQueue<int[]> heads = new PriorityQueue<>(lists.size(), new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+            }
+        });
+        List<Postings> sources = new ArrayList<>(lists);
+        for (int s = 0; s < sources.size(); s++) {
+            if (sources.get(s).size() > 0) {
+                heads.add(new int[] {sources.get(s).get(0), s, 0});
+            }
+        }
+        List<Integer> ids = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            // id, source, position
+            int[] head = heads.poll();
+            if (ids.isEmpty() || ids.get(ids.size() - 1) != head[0]) {
+                ids.add(head[0]);
+            }
+            Postings source = sources.get(head[1]);
+            if (++head[2] < source.size()) {
+                head[0] = source.get(head[2]);
+                heads.add(head);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * O(a + b)
+     *
+     * @return the ids in both sorted lists.
+     */
+    private static List<Integer> intersection(List<Integer> a, List<Integer> b) {
+        List<Integer> ids = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            int x = a.get(i);
+            int y = b.get(j);
+            if (x < y) {
+                i++;
+            } else if (x > y) {
+                j++;
+            } else {
+                ids.add(x);
+                i++;
+                j++;
+            }
+        }
+        return ids;
+    }
+
+    private static boolean eq(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
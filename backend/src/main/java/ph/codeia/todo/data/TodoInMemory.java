@@ -1,13 +1,21 @@
 package ph.codeia.todo.data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -16,23 +24,102 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class TodoInMemory implements TodoRepository.Transactional, Serializable {
     private static final long serialVersionUID = 1L;
 
-    private final AtomicInteger counter = new AtomicInteger(1);
-    private final List<Todo> data = new ArrayList<>();
-    private final Map<Integer, Integer> byId = new TreeMap<>();
-    private final Queue<Integer> holes = new ArrayDeque<>();
+    /**
+     * The fields written to snapshots. The counter is the next id to assign
+     * and is kept in an atomic int so that older snapshots can be read. The
+     * full-text index is saved too because it is slower to rebuild than to
+     * read back; the other indexes are rebuilt from the rows. The recurrence
+     * rules are saved but not their occurrences, except the ones that were
+     * saved as rows, and the last rule id so that the ids of deleted rules
+     * are never reused. The statistics are saved because they remember rows
+     * that have since been deleted.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("counter", AtomicInteger.class),
+            new ObjectStreamField("data", List.class),
+            new ObjectStreamField("text", TextIndex.class),
+            new ObjectStreamField("rules", List.class),
+            new ObjectStreamField("lastRule", int.class),
+            new ObjectStreamField("stats", Statistics.class),
+    };
+
+    /**
+     * Compaction starts when at least this fraction of the slots are holes.
+     */
+    private static final float MAX_HOLE_RATIO = 0.25f;
+
+    /**
+     * Not worth moving things around for a handful of holes.
+     */
+    private static final int MIN_HOLES = 32;
+
+    /**
+     * The max number of rows relocated by a single mutation.
+     */
+    private static final int COMPACTION_STEP = 16;
+
+    /**
+     * The distance between the ranks of consecutive rows when they are
+     * appended or spread out. Leaves room for 32 moves into the same spot
+     * before the neighbors need new ranks.
+     */
+    private static final long RANK_GAP = 1L << 32;
+
+    /**
+     * Spreading stops widening the window once the rows in it can be this
+     * far apart.
+     */
+    private static final long MIN_SPREAD = 1L << 16;
+
+    private transient IdAllocator ids;
+    private transient List<Todo> data;
+    private transient NavigableMap<Integer, Integer> byId;
+    private transient NavigableSet<Integer> holes;
+    private transient boolean compacting;
+    private transient StatusIndex status;
+    private transient TextIndex text;
+    private transient TagIndex tags;
+    private transient OrderIndex order;
+    private transient HierarchyIndex hierarchy;
+    private transient DueIndex due;
+    private transient NavigableMap<Integer, Recurrence> rules;
+    private transient int lastRule;
+    private transient Statistics stats;
+    private transient ChangeFeed feed;
+    private transient Clock clock;
+    private transient List<Trigger> triggers;
+
+    public TodoInMemory() {
+        this(Clock.SYSTEM);
+    }
+
+    /**
+     * @param clock Used for the creation and completion times.
+     */
+    public TodoInMemory(Clock clock) {
+        this.clock = clock;
+        clear(1);
+    }
 
     /**
      * O(log n)
      *
+     * Negative ids are occurrences of recurrence rules. They are generated
+     * if they haven't been saved yet.
+     *
      * @param id The row id.
      * @return null if absent.
      */
     @Override
-    public Todo oneWithId(int id) {
-        if (byId.containsKey(id)) {
-            return data.get(byId.get(id));
+    public synchronized Todo oneWithId(int id) {
+        Todo row = stored(id);
+        if (row == null && id < 0) {
+            Recurrence rule = rules.get(Recurrence.ruleOf(id));
+            if (rule != null) {
+                row = rule.occurrence(Recurrence.indexOf(id));
+            }
         }
-        return null;
+        return row;
     }
 
     /**
@@ -41,7 +128,7 @@ public class TodoInMemory implements TodoRepository.Transactional, Serializable
      * @return all items sorted by id.
      */
     @Override
-    public List<Todo> all() {
+    public synchronized List<Todo> all() {
         List<Todo> items = new ArrayList<>();
         for (int index : byId.values()) {
             items.add(data.get(index));
@@ -49,19 +136,386 @@ public class TodoInMemory implements TodoRepository.Transactional, Serializable
         return items;
     }
 
+    /**
+     * O(log n + k)
+     *
+     * @param afterId Exclusive lower bound of the ids in the page.
+     * @param limit The max number of rows k to return.
+     * @return the next k rows after the id.
+     */
+    @Override
+    public synchronized Page page(int afterId, int limit) {
+        List<Todo> items = new ArrayList<>(Math.min(limit, byId.size()));
+        Iterator<Integer> it = byId.tailMap(afterId, false).values().iterator();
+        int cursor = afterId;
+        while (items.size() < limit && it.hasNext()) {
+            Todo row = data.get(it.next());
+            items.add(row);
+            cursor = row.id;
+        }
+        return new Page(items, cursor, it.hasNext());
+    }
+
+    /**
+     * O(k)
+     *
+     * @param completed The status to match.
+     * @return the k rows with the status sorted by id.
+     */
+    @Override
+    public synchronized List<Todo> withStatus(boolean completed) {
+        return status.withStatus(completed);
+    }
+
+    /**
+     * O(log n + k)
+     *
+     * @param from Inclusive lower bound, or null for unbounded.
+     * @param to Exclusive upper bound, or null for unbounded.
+     * @return the k rows created in the range sorted by creation date.
+     */
+    @Override
+    public synchronized List<Todo> createdBetween(Date from, Date to) {
+        return status.createdBetween(from, to);
+    }
+
+    /**
+     * O(log n + k)
+     *
+     * @param from Inclusive lower bound, or null for unbounded.
+     * @param to Exclusive upper bound, or null for unbounded.
+     * @param completed The status to match.
+     * @return the k rows created in the range with the status sorted by
+     * creation date.
+     */
+    @Override
+    public synchronized List<Todo> createdBetween(Date from, Date to, boolean completed) {
+        return status.createdBetween(from, to, completed);
+    }
+
+    /**
+     * O(1)
+     *
+     * @param completed The status to count.
+     * @return the number of rows with the status.
+     */
+    @Override
+    public synchronized int count(boolean completed) {
+        return status.count(completed);
+    }
+
+    /**
+     * O(log n + k)
+     *
+     * @param from Inclusive lower bound, or null for unbounded.
+     * @param to Exclusive upper bound, or null for unbounded.
+     * @return the k rows due in the range sorted by due date.
+     */
+    @Override
+    public synchronized List<Todo> dueBetween(Date from, Date to) {
+        return due.dueBetween(from, to);
+    }
+
+    /**
+     * O(k log n)
+     *
+     * @param query Words to look for in the titles and descriptions. The last
+     *              word is treated as a prefix.
+     * @return the k rows containing every word, sorted by id.
+     */
+    @Override
+    public synchronized List<Todo> search(String query) {
+        List<Todo> items = new ArrayList<>();
+        for (int id : text.search(query)) {
+            items.add(data.get(byId.get(id)));
+        }
+        return items;
+    }
+
+    /**
+     * O(c + k log n) where c is the number of bitmap containers touched.
+     *
+     * @param filter The tags and statuses to match.
+     * @return the k matching rows sorted by id.
+     */
+    @Override
+    public synchronized List<Todo> tagged(TagFilter filter) {
+        int[] ids = tags.query(filter);
+        List<Todo> items = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            items.add(data.get(byId.get(id)));
+        }
+        return items;
+    }
+
+    /**
+     * O(t log t)
+     *
+     * @return all tags in use, sorted.
+     */
+    @Override
+    public synchronized Set<String> tags() {
+        return tags.tags();
+    }
+
+    /**
+     * O(1)
+     *
+     * @return the number of rows.
+     */
+    @Override
+    public synchronized int size() {
+        return order.size();
+    }
+
+    /**
+     * O(log n + k log n)
+     *
+     * @param from The position of the first row.
+     * @param limit The max number of rows k to return.
+     * @return the k rows starting at the position, in display order.
+     */
+    @Override
+    public synchronized List<Todo> ordered(int from, int limit) {
+        List<Integer> ids = new ArrayList<>(Math.max(0, Math.min(limit, order.size() - from)));
+        order.collect(Math.max(0, from), limit, ids);
+        List<Todo> items = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            items.add(data.get(byId.get(id)));
+        }
+        return items;
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param position 0-based position in display order.
+     * @return null if out of range.
+     */
+    @Override
+    public synchronized Todo atPosition(int position) {
+        if (position < 0 || position >= order.size()) {
+            return null;
+        }
+        return stored(order.idAt(position));
+    }
+
     /**
      * O(log n)
      *
+     * @param id The row id.
+     * @return -1 if absent.
+     */
+    @Override
+    public synchronized int positionOf(int id) {
+        Todo row = stored(id);
+        return row == null ? -1 : order.positionOf(row);
+    }
+
+    /**
+     * O(log n) unless there's no room between the new neighbors, then
+     * O(w log n) where w is the number of neighbors that had to be moved
+     * apart. The window doubles until the rows in it can be at least
+     * {@link #MIN_SPREAD} apart, so this is rare and w stays small.
+     *
+     * @param id The row to move.
+     * @param position The new position, clamped.
+     * @return the saved row or null if absent.
+     */
+    @Override
+    public synchronized Todo move(int id, int position) {
+        Todo row = stored(id);
+        if (row == null) {
+            return null;
+        }
+        int last = order.size() - 1;
+        int from = order.positionOf(row);
+        int to = Math.max(0, Math.min(position, last));
+        if (from == to) {
+            return row;
+        }
+        // the neighbors are looked up as if the row were already removed
+        long lo = to == 0 ? 0 : rankWithout(from, to - 1);
+        long hi = to == last ? Long.MAX_VALUE : rankWithout(from, to);
+        if (to == last && lo <= Long.MAX_VALUE - RANK_GAP) {
+            return save(row.withRank(lo + RANK_GAP));
+        }
+        if (hi - lo > 1) {
+            return save(row.withRank(lo + (hi - lo) / 2));
+        }
+        return spread(row, from, to);
+    }
+
+    /**
+     * O(c log n)
+     *
+     * @param id The parent row.
+     * @return the c children of the row sorted by id.
+     */
+    @Override
+    public synchronized List<Todo> children(int id) {
+        return rows(hierarchy.children(id));
+    }
+
+    /**
+     * O(k log n)
+     *
+     * @param id The root of the subtree.
+     * @return the k rows under the row in depth-first order.
+     */
+    @Override
+    public synchronized List<Todo> subtree(int id) {
+        return rows(hierarchy.descendants(id));
+    }
+
+    /**
+     * O(1)
+     *
+     * The counts are kept up to date by every mutation, so this never walks
+     * the subtree.
+     *
+     * @param id The parent row.
+     * @return null if absent.
+     */
+    @Override
+    public synchronized Progress progress(int id) {
+        return hierarchy.progress(id);
+    }
+
+    /**
+     * O(r + k log n) where r is the number of rules and k is the number of
+     * occurrences in the window. Nothing is stored for the occurrences that
+     * were never saved, so this doesn't get slower as time passes.
+     *
+     * @param from Inclusive lower bound of the due dates.
+     * @param to Exclusive upper bound of the due dates.
+     * @return the k occurrences sorted by due date. Saved occurrences whose
+     * due dates were cleared are left out.
+     */
+    @Override
+    public synchronized List<Todo> occurrences(Date from, Date to) {
+        List<Todo> items = new ArrayList<>();
+        for (Recurrence rule : rules.values()) {
+            for (int n = rule.firstFrom(from); ; n++) {
+                Date due = rule.nth(n);
+                if (due == null || !due.before(to)) {
+                    break;
+                }
+                Todo row = stored(rule.occurrenceId(n));
+                if (row == null) {
+                    items.add(rule.occurrence(n));
+                } else if (row.due != null) {
+                    items.add(row);
+                }
+            }
+        }
+        Collections.sort(items, DueIndex.BY_DUE);
+        return items;
+    }
+
+    /**
+     * O(log r)
+     *
+     * Rule ids are never reused, even after the rule is deleted, so that an
+     * occurrence id always means the same rule.
+     *
+     * @param rule The rule to save.
+     * @return the saved rule with the next rule id.
+     */
+    @Override
+    public synchronized Recurrence addRecurrence(Recurrence rule) {
+        if (lastRule >= Recurrence.MAX_ID) {
+            throw new IllegalStateException("too many recurrence rules");
+        }
+        Recurrence saved = rule.withId(++lastRule);
+        rules.put(saved.id, saved);
+        return saved;
+    }
+
+    /**
+     * O(r)
+     *
+     * @return all rules sorted by id.
+     */
+    @Override
+    public synchronized List<Recurrence> recurrences() {
+        return new ArrayList<>(rules.values());
+    }
+
+    /**
+     * O(log r + k log n) where k is the number of saved occurrences.
+     *
+     * The occurrences that were saved as rows are deleted with the rule.
+     *
+     * @param id The rule id.
+     */
+    @Override
+    public synchronized void deleteRecurrence(int id) {
+        if (rules.remove(id) == null) {
+            return;
+        }
+        int last = -(id << 16 | (Recurrence.MAX_OCCURRENCES - 1));
+        int first = -(id << 16);
+        for (int occurrence : new ArrayList<>(byId.subMap(last, true, first, true).keySet())) {
+            remove(occurrence);
+        }
+    }
+
+    /**
+     * O(1)
+     *
+     * @return the log of changes to this table.
+     */
+    @Override
+    public ChangeFeed changes() {
+        return feed;
+    }
+
+    /**
+     * Makes an existing feed follow this table instead of the one it was
+     * created with, e.g. when the table is read back from a file.
+     *
+     * @param feed The feed to use from now on.
+     */
+    synchronized void useFeed(ChangeFeed feed) {
+        triggers.set(triggers.indexOf(this.feed), feed);
+        this.feed = feed;
+    }
+
+    /**
+     * O(1)
+     *
+     * @return a copy of the statistics as of now.
+     */
+    @Override
+    public synchronized Statistics statistics() {
+        return stats.copy();
+    }
+
+    /**
+     * O(log n)
+     *
+     * The id is assigned under the same lock that inserts the row, so ids
+     * go up in the order the rows were added and a {@link #page(int, int)}
+     * cursor never skips a row added after it was returned. Ids that were
+     * claimed by a {@link #put(Todo)} are skipped by the allocator without
+     * looking at the index. The lock is needed for the indexes anyway; the
+     * allocator only makes the id itself O(1).
+     *
      * @param title
      * @param description
      * @param completed
      * @return a tuple with an auto-assigned id guaranteed to be unique.
      */
     @Override
-    public synchronized Todo add(String title, String description, boolean completed) {
-        Todo item = new Todo(nextId(), title, description, completed, new Date());
-        add(item);
-        return item;
+    public Todo add(String title, String description, boolean completed) {
+        Date now = new Date(clock.now());
+        synchronized (this) {
+            int id = ids.next();
+            Todo item = new Todo(id, title, description, completed, now, null, completed ? now : null, null, 0, nextRank(), 1);
+            add(item);
+            return item;
+        }
     }
 
     /**
@@ -71,26 +525,170 @@ public class TodoInMemory implements TodoRepository.Transactional, Serializable
      */
     @Override
     public synchronized void put(Todo item) {
-        if (byId.containsKey(item.id)) {
-            data.set(byId.get(item.id), item);
-        } else {
-            add(item);
-        }
+        save(item);
     }
 
     /**
-     * O(log n)
+     * O(log n) plus O(d) for each of the c children of the row, which are
+     * moved up to the parent of the row instead of being deleted with it.
      *
      * @param id
      */
     @Override
     public synchronized void delete(int id) {
-        if (byId.containsKey(id)) {
-            data.set(byId.get(id), null);
-            holes.add(byId.remove(id));
+        remove(id);
+    }
+
+    /**
+     * O(log n) per attempt
+     *
+     * Only the version check and the write happen inside the lock, so a slow
+     * function doesn't hold up everyone else.
+     *
+     * @param id The row to update.
+     * @param f Computes the new row from the current one.
+     * @return the saved row or null if absent.
+     */
+    @Override
+    public Todo update(int id, Update f) {
+        while (true) {
+            Todo current = oneWithId(id);
+            if (current == null) {
+                return null;
+            }
+            Todo next = f.apply(current);
+            if (next == current) {
+                return current;
+            }
+            if (next.id != id) {
+                throw new IllegalArgumentException("cannot change the id of #" + id);
+            }
+            synchronized (this) {
+                Todo latest = oneWithId(id);
+                if (latest == null) {
+                    return null;
+                }
+                if (latest.version == current.version) {
+                    return save(next);
+                }
+            }
         }
     }
 
+    /**
+     * O(log n)
+     *
+     * @param expectedVersion 0 if the row should be absent.
+     * @param item The tuple to save.
+     * @return false if the stored version doesn't match.
+     */
+    @Override
+    public synchronized boolean compareAndPut(int expectedVersion, Todo item) {
+        Todo current = oneWithId(item.id);
+        int actual = current == null ? 0 : current.version;
+        if (actual != expectedVersion) {
+            return false;
+        }
+        save(item);
+        return true;
+    }
+
+    /**
+     * O(k log n)
+     *
+     * @param items The k tuples to save.
+     */
+    @Override
+    public synchronized void putAll(Collection<Todo> items) {
+        for (Todo item : items) {
+            save(item);
+        }
+    }
+
+    /**
+     * O(k log n) plus the cost of moving up the children of each row.
+     *
+     * @param ids The k rows to delete.
+     * @return the number of rows deleted.
+     */
+    @Override
+    public synchronized int deleteAll(Collection<Integer> ids) {
+        int count = 0;
+        for (int id : ids) {
+            if (remove(id)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * O(n + k log n) where k is the number of matching rows.
+     *
+     * @param where Selects the rows to delete.
+     * @return k
+     */
+    @Override
+    public synchronized int deleteWhere(Where where) {
+        return deleteAll(idsOf(matching(where)));
+    }
+
+    /**
+     * O(n + k log n) where k is the number of matching rows.
+     *
+     * @param where Selects the rows to update.
+     * @param f Computes the new row from the current one.
+     * @return the number of rows that were changed.
+     */
+    @Override
+    public synchronized int updateWhere(Where where, Update f) {
+        List<Todo> rows = matching(where);
+        List<Todo> changed = new ArrayList<>(rows.size());
+        for (Todo current : rows) {
+            Todo next = f.apply(current);
+            if (next == current) {
+                continue;
+            }
+            if (next.id != current.id) {
+                throw new IllegalArgumentException("cannot change the id of #" + current.id);
+            }
+            changed.add(next);
+        }
+        // nothing is saved if f throws
+        putAll(changed);
+        return changed.size();
+    }
+
+    /**
+     * O(k) where k is the number of rows due from now on.
+     *
+     * Schedules every active row that isn't due yet and keeps the reminders
+     * in sync with all later changes. Rows that are already overdue are left
+     * alone until they are changed. Any previous schedule in the reminders
+     * is dropped.
+     *
+     * @param reminders The wheel to feed.
+     */
+    public synchronized void attach(Reminders reminders) {
+        reminders.clear();
+        for (Todo row : due.dueBetween(new Date(reminders.now()), null)) {
+            reminders.schedule(row);
+        }
+        if (!triggers.contains(reminders.feed)) {
+            triggers.add(reminders.feed);
+        }
+    }
+
+    /**
+     * O(1)
+     *
+     * @param reminders The wheel to stop feeding. Its pending reminders are
+     *                  left as they are.
+     */
+    public synchronized void detach(Reminders reminders) {
+        triggers.remove(reminders.feed);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public TodoInMemory transact() {
@@ -106,6 +704,93 @@ public class TodoInMemory implements TodoRepository.Transactional, Serializable
     public void close() {
     }
 
+    /**
+     * O(k log n)
+     *
+     * Moves up to k rows from the end of the table into the lowest holes and
+     * drops the empty slots at the end. The backing list is trimmed when the
+     * last hole is filled. This is called in small steps by the mutators when
+     * there are too many holes, so you only need to call this directly if you
+     * want to compact eagerly, e.g. when the app is idle.
+     *
+     * @param maxMoves The max number of rows to relocate.
+     * @return true if there are still holes left to fill.
+     */
+    public synchronized boolean compact(int maxMoves) {
+        trimTail();
+        for (int moves = 0; moves < maxMoves && !holes.isEmpty(); moves++) {
+            int from = data.size() - 1;
+            int to = holes.pollFirst();
+            Todo row = data.get(from);
+            data.set(to, row);
+            byId.put(row.id, to);
+            data.remove(from);
+            trimTail();
+        }
+        if (holes.isEmpty()) {
+            if (data instanceof ArrayList) {
+                ((ArrayList<Todo>) data).trimToSize();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * O(1)
+     *
+     * @return the number of slots in the backing list, including holes.
+     */
+    synchronized int slots() {
+        return data.size();
+    }
+
+    /**
+     * O(log n)
+     *
+     * A row without a rank keeps the rank of the row it replaces, or goes to
+     * the end if it is new. The completion time is set when the row is
+     * saved as completed and cleared when it is saved as active.
+     * <p>
+     * Moving a row under another one is O(d) where d is the depth of the
+     * new parent.
+     *
+     * @param item The tuple to save.
+     * @return the stored copy of the item, stamped with the next version.
+     */
+    private synchronized Todo save(Todo item) {
+        if (item.parent != 0) {
+            if (!byId.containsKey(item.parent)) {
+                throw new IllegalArgumentException("no such parent: #" + item.parent);
+            }
+            if (hierarchy.isUnder(item.id, item.parent)) {
+                throw new IllegalArgumentException(
+                        "cannot put #" + item.id + " under its own subtree");
+            }
+        }
+        if (!item.completed && item.completedAt != null) {
+            item = item.withCompletedAt(null);
+        } else if (item.completed && item.completedAt == null) {
+            item = item.withCompletedAt(new Date(clock.now()));
+        }
+        Todo row;
+        if (byId.containsKey(item.id)) {
+            int i = byId.get(item.id);
+            Todo old = data.get(i);
+            row = item.withRank(item.rank > 0 ? item.rank : old.rank)
+                    .withVersion(old.version + 1);
+            data.set(i, row);
+            for (Trigger t : triggers) {
+                t.updated(old, row);
+            }
+        } else {
+            ids.claim(item.id);
+            row = item.withRank(item.rank > 0 ? item.rank : nextRank()).withVersion(1);
+            add(row);
+        }
+        return row;
+    }
+
     /**
      * O(log n)
      *
@@ -115,39 +800,311 @@ public class TodoInMemory implements TodoRepository.Transactional, Serializable
         int i = nextIndex();
         byId.put(item.id, i);
         data.set(i, item);
+        for (Trigger t : triggers) {
+            t.inserted(item);
+        }
+        maybeCompact();
     }
 
     /**
-     * O(1)
+     * O(log n) plus O(d) for each of the c children of the row.
+     *
+     * @param id The row id.
+     * @return false if there was no such row.
+     */
+    private synchronized boolean remove(int id) {
+        if (!byId.containsKey(id)) {
+            return false;
+        }
+        int parent = data.get(byId.get(id)).parent;
+        for (int child : hierarchy.children(id)) {
+            save(stored(child).withParent(parent));
+        }
+        int i = byId.remove(id);
+        Todo row = data.set(i, null);
+        holes.add(i);
+        for (Trigger t : triggers) {
+            t.deleted(row);
+        }
+        maybeCompact();
+        return true;
+    }
+
+    /**
+     * O(n)
+     *
+     * @param where The condition.
+     * @return the matching rows sorted by id.
+     */
+    private List<Todo> matching(Where where) {
+        List<Todo> rows = new ArrayList<>();
+        for (int i : byId.values()) {
+            Todo row = data.get(i);
+            if (where.matches(row)) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static List<Integer> idsOf(List<Todo> rows) {
+        List<Integer> ids = new ArrayList<>(rows.size());
+        for (Todo row : rows) {
+            ids.add(row.id);
+        }
+        return ids;
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param id The row id.
+     * @return the saved row or null.
+     */
+    private Todo stored(int id) {
+        Integer i = byId.get(id);
+        return i == null ? null : data.get(i);
+    }
+
+    /**
+     * O(k log n)
+     *
+     * @param ids Some row ids that exist.
+     * @return the rows in the same order.
+     */
+    private List<Todo> rows(List<Integer> ids) {
+        List<Todo> items = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            items.add(data.get(byId.get(id)));
+        }
+        return items;
+    }
+
+    /**
+     * O(log n)
+     *
+     * @return a rank after every row.
+     */
+    private synchronized long nextRank() {
+        long last = order.lastRank();
+        if (last > Long.MAX_VALUE - RANK_GAP) {
+            Todo row = stored(order.idAt(order.size() - 1));
+            spread(row, order.size() - 1, order.size() - 1);
+            last = order.lastRank();
+        }
+        return last + RANK_GAP;
+    }
+
+    /**
+     * @param skip The position of a row to pretend is not there.
+     * @param position A position in the table without that row.
+     * @return the rank of the row at that position.
+     */
+    private long rankWithout(int skip, int position) {
+        return order.rankAt(position < skip ? position : position + 1);
+    }
+
+    /**
+     * O(w log n)
+     *
+     * Gives new evenly-spaced ranks to the row and its w nearest neighbors
+     * once the row is placed at its new position. The window grows until the
+     * ranks can be far enough apart or it covers the whole table. The last
+     * row is kept at least a gap away from the max rank so that rows can
+     * still be appended.
+     *
+     * @param row The row to move.
+     * @param from Its current position.
+     * @param to Its new position.
+     * @return the saved row.
+     */
+    private Todo spread(Todo row, int from, int to) {
+        int others = order.size() - 1;
+        for (int width = 4; ; width *= 2) {
+            int a = Math.max(0, to - width);
+            int b = Math.min(others, to + width);
+            long lo = a == 0 ? 0 : rankWithout(from, a - 1);
+            long hi = b == others ? Long.MAX_VALUE - RANK_GAP : rankWithout(from, b);
+            int count = b - a + 1;
+            long step = (hi - lo) / (count + 1);
+            if (step < MIN_SPREAD && (a > 0 || b < others)) {
+                continue;
+            }
+            List<Integer> window = new ArrayList<>(count + 1);
+            order.collect(a < from ? a : a + 1, count, window);
+            window.remove((Integer) row.id);
+            while (window.size() > count - 1) {
+                window.remove(window.size() - 1);
+            }
+            window.add(to - a, row.id);
+            Todo moved = row;
+            long rank = lo;
+            for (int id : window) {
+                rank += step;
+                Todo e = stored(id);
+                if (e.rank != rank) {
+                    e = save(e.withRank(rank));
+                }
+                if (id == row.id) {
+                    moved = e;
+                }
+            }
+            return moved;
+        }
+    }
+
+    /**
+     * O(log n)
      *
      * @return the smallest index available in the list.
      */
     private synchronized int nextIndex() {
         if (!holes.isEmpty()) {
-            return holes.remove();
+            return holes.pollFirst();
         }
         data.add(null);
         return data.size() - 1;
     }
 
     /**
-     * O(log n)
+     * O(log n) amortized
      *
-     * This is used by {@link #add(String, String, boolean)} and since
-     * {@link #add(Todo)} (which it calls eventually) is O(log n) anyway, might
-     * as well make the id generation O(log n). This would make it ok to put
-     * entities with any id that isn't already taken.
+     * Starts compacting when the hole ratio goes above the threshold and
+     * keeps going a few rows at a time until all holes are filled, so no
+     * single mutation pays for the whole thing.
+     */
+    private void maybeCompact() {
+        if (!compacting) {
+            int n = holes.size();
+            compacting = n >= MIN_HOLES && n > data.size() * MAX_HOLE_RATIO;
+        }
+        if (compacting) {
+            compacting = compact(COMPACTION_STEP);
+        }
+    }
+
+    /**
+     * O(k log n) where k is the number of trailing holes.
+     */
+    private void trimTail() {
+        for (int last = data.size() - 1; last >= 0 && data.get(last) == null; last--) {
+            data.remove(last);
+            holes.remove(last);
+        }
+    }
+
+    /**
+     * Resets every field that isn't saved in a snapshot.
      *
-     * @return an id guaranteed to be unique.
+     * @param firstId The first id to be handed out by the allocator.
      */
-    private int nextId() {
-        int id;
-        synchronized (byId) {
-            do {
-                id = counter.getAndIncrement();
-            } while (byId.containsKey(id));
+    private void clear(int firstId) {
+        ids = new IdAllocator(firstId);
+        data = new ArrayList<>();
+        byId = new TreeMap<>();
+        holes = new TreeSet<>();
+        compacting = false;
+        status = new StatusIndex();
+        text = new TextIndex();
+        tags = new TagIndex();
+        order = new OrderIndex();
+        hierarchy = new HierarchyIndex();
+        due = new DueIndex();
+        rules = new TreeMap<>();
+        lastRule = 0;
+        stats = new Statistics();
+        feed = new ChangeFeed();
+        triggers = new ArrayList<>();
+        triggers.add(status);
+        triggers.add(text);
+        triggers.add(tags);
+        triggers.add(order);
+        triggers.add(hierarchy);
+        triggers.add(due);
+        triggers.add(stats);
+        triggers.add(feed);
+    }
+
+    /**
+     * Writes the live rows only. The holes and the id index are not saved;
+     * they are rebuilt when read back.
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("counter", new AtomicInteger(ids.watermark()));
+        fields.put("data", all());
+        fields.put("text", text);
+        fields.put("rules", new ArrayList<>(rules.values()));
+        fields.put("lastRule", lastRule);
+        fields.put("stats", stats);
+        out.writeFields();
+    }
+
+    /**
+     * Older snapshots might still have null slots and the index fields in
+     * them. The extra fields are ignored and the nulls are dropped. Rows that
+     * were put with ids beyond the counter are claimed again so the allocator
+     * skips them. Rows saved before versioning was added get version 1 so that
+     * a version of 0 still means absent. Rows without a rank are put at the
+     * end in id order. The text index and the statistics are rebuilt if the
+     * snapshot doesn't have them.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        AtomicInteger counter = (AtomicInteger) fields.get("counter", null);
+        List<Todo> rows = (List<Todo>) fields.get("data", null);
+        TextIndex savedText = (TextIndex) fields.get("text", null);
+        List<Recurrence> savedRules = (List<Recurrence>) fields.get("rules", null);
+        int savedLastRule = fields.get("lastRule", 0);
+        Statistics savedStats = (Statistics) fields.get("stats", null);
+        int start = counter == null ? 1 : counter.get();
+        clock = Clock.SYSTEM;
+        clear(start);
+        List<Trigger> rebuild = new ArrayList<>(triggers);
+        rebuild.remove(feed);
+        if (savedText != null) {
+            rebuild.remove(text);
+            triggers.set(triggers.indexOf(text), savedText);
+            text = savedText;
+        }
+        if (savedStats != null) {
+            rebuild.remove(stats);
+            triggers.set(triggers.indexOf(stats), savedStats);
+            stats = savedStats;
+        }
+        if (rows != null) {
+            for (Todo row : rows) if (row != null) {
+                if (row.version == 0) {
+                    row = row.withVersion(1);
+                }
+                if (row.rank <= 0) {
+                    row = row.withRank(nextRank());
+                }
+                if (row.id >= start) {
+                    ids.claim(row.id);
+                }
+                byId.put(row.id, data.size());
+                data.add(row);
+                for (Trigger t : rebuild) {
+                    t.inserted(row);
+                }
+            }
+        }
+        for (Trigger t : rebuild) {
+            t.loaded();
+        }
+        // older snapshots only have the ids that are still in use
+        lastRule = savedLastRule;
+        if (savedRules != null) {
+            for (Recurrence rule : savedRules) {
+                rules.put(rule.id, rule);
+                lastRule = Math.max(lastRule, rule.id);
+            }
+        }
+        for (int id : byId.headMap(0).keySet()) {
+            lastRule = Math.max(lastRule, Recurrence.ruleOf(id));
         }
-        return id;
     }
 
 }
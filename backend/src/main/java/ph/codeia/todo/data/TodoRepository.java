@@ -1,21 +1,555 @@
 package ph.codeia.todo.data;
 
 import java.io.Serializable;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 public interface TodoRepository {
     Todo oneWithId(int id);
     List<Todo> all();
+
+    /**
+     * Fetches a slice of the table in id order.
+     * <p>
+     * The cursor is just the last id seen so it stays valid when rows are
+     * added or deleted between calls. Rows with ids beyond the cursor that
+     * were added in the meantime will show up in later pages.
+     *
+     * @param afterId Only rows with ids greater than this are returned. Use
+     *                {@link Page#FIRST} to start from the beginning.
+     * @param limit The max number of rows in the page.
+     * @return a page with at most {@code limit} rows.
+     */
+    Page page(int afterId, int limit);
+
+    /**
+     * @param completed The status to match.
+     * @return the rows with the status sorted by id.
+     */
+    List<Todo> withStatus(boolean completed);
+
+    /**
+     * @param from Inclusive lower bound, or null for unbounded.
+     * @param to Exclusive upper bound, or null for unbounded.
+     * @return the rows created within the range sorted by creation date.
+     */
+    List<Todo> createdBetween(Date from, Date to);
+
+    /**
+     * @param from Inclusive lower bound, or null for unbounded.
+     * @param to Exclusive upper bound, or null for unbounded.
+     * @param completed The status to match.
+     * @return the rows with the status created within the range sorted by
+     * creation date.
+     */
+    List<Todo> createdBetween(Date from, Date to, boolean completed);
+
+    /**
+     * @param completed The status to count.
+     * @return the number of rows with the status.
+     */
+    int count(boolean completed);
+
+    /**
+     * @param from Inclusive lower bound, or null for unbounded.
+     * @param to Exclusive upper bound, or null for unbounded.
+     * @return the rows with a due date within the range sorted by due date.
+     */
+    List<Todo> dueBetween(Date from, Date to);
+
+    /**
+     * Full-text search over the titles and descriptions.
+     *
+     * @param query Words that must all appear in a row, ignoring case. The
+     *              last word matches any word that starts with it.
+     * @return the matching rows sorted by id. Empty if the query has no
+     * words.
+     */
+    List<Todo> search(String query);
+
+    /**
+     * @param filter The tags and statuses to match.
+     * @return the matching rows sorted by id.
+     */
+    List<Todo> tagged(TagFilter filter);
+
+    /**
+     * @return every tag attached to at least one row, sorted.
+     */
+    Set<String> tags();
+
+    /**
+     * @return the number of rows.
+     */
+    int size();
+
+    /**
+     * @param from The position of the first row, 0-based.
+     * @param limit The max number of rows.
+     * @return a slice of the table in display order.
+     */
+    List<Todo> ordered(int from, int limit);
+
+    /**
+     * @param position 0-based position in display order.
+     * @return the row at that position or null if out of range.
+     */
+    Todo atPosition(int position);
+
+    /**
+     * @param id The row id.
+     * @return the 0-based position of the row in display order, or -1 if
+     * absent.
+     */
+    int positionOf(int id);
+
+    /**
+     * Changes the display order of a row. Only the rank of the moved row is
+     * changed unless there is no room between its new neighbors, in which
+     * case a few rows around it are given new ranks too.
+     *
+     * @param id The row to move.
+     * @param position Where the row should be after the move. Clamped to
+     *                 the bounds of the table.
+     * @return the saved row or null if absent.
+     */
+    Todo move(int id, int position);
+
+    /**
+     * @param id The parent row.
+     * @return the direct children of the row sorted by id.
+     */
+    List<Todo> children(int id);
+
+    /**
+     * @param id The root of the subtree.
+     * @return every row under the row, not including itself, in depth-first
+     * order with siblings sorted by id.
+     */
+    List<Todo> subtree(int id);
+
+    /**
+     * @param id The parent row.
+     * @return how many rows are under the row and how many of those are
+     * completed, or null if there's no such row.
+     */
+    Progress progress(int id);
+
+    /**
+     * Merges the generated occurrences of every recurrence rule in a window
+     * with the ones that were already saved as rows.
+     * <p>
+     * An occurrence that was never saved has a version of 0 and a negative
+     * id that encodes its rule and its index. Passing that id to
+     * {@link #oneWithId(int)} regenerates it, and saving it (e.g. through
+     * {@link #update(int, Update)}) turns it into a real row that replaces
+     * the generated one from then on.
+     *
+     * @param from Inclusive lower bound of the due dates.
+     * @param to Exclusive upper bound of the due dates.
+     * @return the occurrences sorted by due date.
+     */
+    List<Todo> occurrences(Date from, Date to);
+
+    /**
+     * @param rule The rule to save. The id is ignored.
+     * @return the saved rule with a new id.
+     */
+    Recurrence addRecurrence(Recurrence rule);
+
+    /**
+     * @return every rule sorted by id.
+     */
+    List<Recurrence> recurrences();
+
+    /**
+     * Stops generating occurrences of a rule. The occurrences that were
+     * already saved as rows are deleted with it, and each one shows up in
+     * the change feed as a deletion. The id of the rule is never reused.
+     *
+     * @param id The rule id.
+     */
+    void deleteRecurrence(int id);
+
+    /**
+     * @return the completion counts per day, week and month as of now.
+     */
+    Statistics statistics();
+
+    /**
+     * @return the feed of the changes to the rows, in the order they
+     * happened.
+     */
+    ChangeFeed changes();
+
     Todo add(String title, String description, boolean completed);
     void put(Todo item);
     void delete(int id);
     <T extends Transactional> T transact();
 
+    /**
+     * Atomically replaces a row with the result of a function.
+     * <p>
+     * The function is called outside of any lock with the current version of
+     * the row and may be called again if the row was changed by someone else
+     * before the result could be saved, so it should not have side effects.
+     *
+     * @param id The row to update.
+     * @param f Computes the new row from the current one. Must keep the id.
+     *          Returning the same instance means nothing needs to be saved.
+     * @return the saved row, or null if there was no row with the id.
+     */
+    Todo update(int id, Update f);
+
+    /**
+     * Saves a row only if the stored row has not changed since it was read.
+     *
+     * @param expectedVersion The {@link Todo#version} of the row that the
+     *                        item was derived from. 0 means the row must not
+     *                        exist yet.
+     * @param item The tuple to save.
+     * @return false if the stored version is different.
+     */
+    boolean compareAndPut(int expectedVersion, Todo item);
+
+    /**
+     * Saves every item as if by {@link #put(Todo)}, all at once.
+     *
+     * @param items The tuples to save. Parents must come before their
+     *              children if they are new.
+     */
+    void putAll(Collection<Todo> items);
+
+    /**
+     * Deletes every row as if by {@link #delete(int)}, all at once.
+     *
+     * @param ids The rows to delete. Missing ids are skipped.
+     * @return the number of rows deleted.
+     */
+    int deleteAll(Collection<Integer> ids);
+
+    /**
+     * Deletes every row that matches, all at once.
+     *
+     * @param where Called once for each row while the table is locked, so it
+     *              should be quick and should not touch the repository.
+     * @return the number of rows deleted.
+     */
+    int deleteWhere(Where where);
+
+    /**
+     * Replaces every row that matches, all at once. Unlike
+     * {@link #update(int, Update)}, nothing can change in between so the
+     * function is called exactly once per matching row.
+     *
+     * @param where Called once for each row while the table is locked.
+     * @param f Computes the new row from the current one. Called while the
+     *          table is locked. Must keep the id. Returning the same
+     *          instance means nothing needs to be saved.
+     * @return the number of rows saved.
+     */
+    int updateWhere(Where where, Update f);
+
     interface Transactional extends TodoRepository, AutoCloseable {
         void cancel();
     }
 
+    interface Update {
+        Todo apply(Todo current);
+    }
+
+    interface Where {
+        boolean matches(Todo row);
+    }
+
+    class Page {
+        public static final int FIRST = Integer.MIN_VALUE;
+
+        public final List<Todo> items;
+        /**
+         * The argument to {@link #page(int, int)} that fetches the next page.
+         */
+        public final int cursor;
+        public final boolean hasMore;
+
+        public Page(List<Todo> items, int cursor, boolean hasMore) {
+            this.items = items;
+            this.cursor = cursor;
+            this.hasMore = hasMore;
+        }
+    }
+
+    class Progress {
+        public final int done;
+        public final int total;
+
+        public Progress(int done, int total) {
+            this.done = done;
+            this.total = total;
+        }
+    }
+
+    /**
+     * A task that repeats every so many days, weeks or months from a start
+     * date, optionally until an end date.
+     */
+    class Recurrence implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public enum Unit {
+            DAY(Calendar.DAY_OF_MONTH, 86_400_000L),
+            WEEK(Calendar.WEEK_OF_YEAR, 7 * 86_400_000L),
+            MONTH(Calendar.MONTH, 2_629_746_000L);
+
+            final int field;
+            /**
+             * The average length of the unit. A month is 1/12 of a Gregorian
+             * year. Any number of units is within a few days of this times
+             * the number, so an estimate from it is off by one or two at most.
+             */
+            final long averageMillis;
+
+            Unit(int field, long averageMillis) {
+                this.field = field;
+                this.averageMillis = averageMillis;
+            }
+        }
+
+        /**
+         * Rule ids and occurrence indexes are packed into the negative ids of
+         * the occurrences, so both are limited.
+         */
+        public static final int MAX_ID = Short.MAX_VALUE;
+        public static final int MAX_OCCURRENCES = 1 << 16;
+
+        public final int id;
+        public final String title;
+        public final String description;
+        public final Date start;
+        public final Unit unit;
+        public final int interval;
+        /**
+         * Exclusive. Null if the rule repeats forever.
+         */
+        public final Date until;
+
+        public Recurrence(
+                int id,
+                String title,
+                String description,
+                Date start,
+                Unit unit,
+                int interval,
+                Date until) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be positive");
+            }
+            this.id = id;
+            this.title = title;
+            this.description = description;
+            this.start = start;
+            this.unit = unit;
+            this.interval = interval;
+            this.until = until;
+        }
+
+        public static Recurrence daily(String title, String description, Date start) {
+            return new Recurrence(0, title, description, start, Unit.DAY, 1, null);
+        }
+
+        public static Recurrence weekly(String title, String description, Date start) {
+            return new Recurrence(0, title, description, start, Unit.WEEK, 1, null);
+        }
+
+        public Recurrence withUntil(Date until) {
+            return new Recurrence(id, title, description, start, unit, interval, until);
+        }
+
+        Recurrence withId(int id) {
+            return new Recurrence(id, title, description, start, unit, interval, until);
+        }
+
+        /**
+         * O(1)
+         *
+         * @param n 0-based index of the occurrence.
+         * @return the due date of the occurrence or null if the rule has
+         * ended by then.
+         */
+        public Date nth(int n) {
+            if (n < 0 || n >= MAX_OCCURRENCES) {
+                return null;
+            }
+            Date date = at(n);
+            return date == null || until != null && !date.before(until) ? null : date;
+        }
+
+        /**
+         * O(1)
+         *
+         * The index is estimated from the average length of the unit and then
+         * corrected by a step or two.
+         *
+         * @param date Some time.
+         * @return the index of the first occurrence due at or after the time.
+         */
+        public int firstFrom(Date date) {
+            long elapsed = date.getTime() - start.getTime();
+            if (elapsed <= 0) {
+                return 0;
+            }
+            long guess = elapsed / (unit.averageMillis * interval);
+            int n = (int) Math.min(guess, MAX_OCCURRENCES);
+            while (n > 0 && !before(n - 1, date)) {
+                n--;
+            }
+            while (n < MAX_OCCURRENCES && before(n, date)) {
+                n++;
+            }
+            return n;
+        }
+
+        /**
+         * @param n 0-based index of the occurrence.
+         * @return the id of the occurrence, unique across all rules.
+         */
+        public int occurrenceId(int n) {
+            return -(id << 16 | n);
+        }
+
+        /**
+         * @param n 0-based index of the occurrence.
+         * @return an unsaved row for the occurrence or null if the rule has
+         * ended by then.
+         */
+        public Todo occurrence(int n) {
+            Date due = nth(n);
+            if (due == null) {
+                return null;
+            }
+            return new Todo(occurrenceId(n), title, description, false, due, due, null, null, 0, 0, 0);
+        }
+
+        static int ruleOf(int occurrenceId) {
+            return -occurrenceId >>> 16;
+        }
+
+        static int indexOf(int occurrenceId) {
+            return -occurrenceId & 0xffff;
+        }
+
+        private boolean before(int n, Date date) {
+            Date due = at(n);
+            return due != null && due.before(date);
+        }
+
+        /**
+         * @return the start plus n intervals, or null if the number of units
+         * doesn't fit in an int.
+         */
+        private Date at(int n) {
+            long units = (long) n * interval;
+            if (units > Integer.MAX_VALUE) {
+                return null;
+            }
+            Calendar c = Calendar.getInstance();
+            c.setTime(start);
+            c.add(unit.field, (int) units);
+            return c.getTime();
+        }
+    }
+
+    /**
+     * Selects rows by their tags and status. All the conditions must hold.
+     */
+    class TagFilter implements Where {
+        public static final TagFilter ANY = new TagFilter(
+                Collections.<String>emptySet(),
+                Collections.<String>emptySet(),
+                Collections.<String>emptySet(),
+                true,
+                true);
+
+        /**
+         * The row must have every one of these.
+         */
+        public final Set<String> allOf;
+        /**
+         * The row must have at least one of these, unless this is empty.
+         */
+        public final Set<String> anyOf;
+        /**
+         * The row must have none of these.
+         */
+        public final Set<String> noneOf;
+        public final boolean includeCompleted;
+        public final boolean includeActive;
+
+        public TagFilter(
+                Set<String> allOf,
+                Set<String> anyOf,
+                Set<String> noneOf,
+                boolean includeCompleted,
+                boolean includeActive) {
+            this.allOf = allOf;
+            this.anyOf = anyOf;
+            this.noneOf = noneOf;
+            this.includeCompleted = includeCompleted;
+            this.includeActive = includeActive;
+        }
+
+        public TagFilter withAllOf(Collection<String> tags) {
+            return new TagFilter(copy(tags), anyOf, noneOf, includeCompleted, includeActive);
+        }
+
+        public TagFilter withAnyOf(Collection<String> tags) {
+            return new TagFilter(allOf, copy(tags), noneOf, includeCompleted, includeActive);
+        }
+
+        public TagFilter withNoneOf(Collection<String> tags) {
+            return new TagFilter(allOf, anyOf, copy(tags), includeCompleted, includeActive);
+        }
+
+        public TagFilter withCompleted(boolean include) {
+            return new TagFilter(allOf, anyOf, noneOf, include, includeActive);
+        }
+
+        public TagFilter withActive(boolean include) {
+            return new TagFilter(allOf, anyOf, noneOf, includeCompleted, include);
+        }
+
+        /**
+         * O(t)
+         *
+         * For filtering rows that were fetched some other way.
+         *
+         * @param row The row to test.
+         * @return true if the row satisfies every condition.
+         */
+        @Override
+        public boolean matches(Todo row) {
+            if (row.completed ? !includeCompleted : !includeActive) {
+                return false;
+            }
+            if (!row.tags.containsAll(allOf)) {
+                return false;
+            }
+            if (!anyOf.isEmpty() && Collections.disjoint(row.tags, anyOf)) {
+                return false;
+            }
+            return Collections.disjoint(row.tags, noneOf);
+        }
+
+        private static Set<String> copy(Collection<String> tags) {
+            return Collections.unmodifiableSet(new TreeSet<>(tags));
+        }
+    }
+
     class Todo implements Serializable {
         private static final long serialVersionUID = 1L;
 
@@ -24,41 +558,194 @@ public interface TodoRepository {
         public final String description;
         public final boolean completed;
         public final Date created;
+        /**
+         * When the task should be done, or null if there's no deadline.
+         */
+        public final Date due;
+        /**
+         * When the row was last marked completed, or null if it is active.
+         * Stamped by the repository.
+         */
+        public final Date completedAt;
+        /**
+         * Sorted and unmodifiable. Never null.
+         */
+        public final Set<String> tags;
+        /**
+         * The id of the row this is a subtask of, or 0 if this is a top-level
+         * row.
+         */
+        public final int parent;
+        /**
+         * The sort key of the manual order. Assigned by the repository; 0 or
+         * less means not yet assigned. Use {@link TodoRepository#move(int, int)}
+         * to change it.
+         */
+        public final long rank;
+        /**
+         * Bumped by the repository every time the row is saved. 0 if the
+         * tuple was never saved.
+         */
+        public final int version;
 
         public Todo(int id, String title, String description, boolean completed, Date created) {
+            this(id, title, description, completed, created, null, null, null, 0, 0, 0);
+        }
+
+        public Todo(
+                int id,
+                String title,
+                String description,
+                boolean completed,
+                Date created,
+                Date due,
+                Date completedAt,
+                Collection<String> tags,
+                int parent,
+                long rank,
+                int version) {
             this.id = id;
             this.title = title;
             this.description = description;
             this.completed = completed;
             this.created = created;
+            this.due = due;
+            this.completedAt = completedAt;
+            this.tags = tags == null || tags.isEmpty()
+                    ? Collections.<String>emptySet()
+                    : Collections.unmodifiableSet(new TreeSet<>(tags));
+            this.parent = parent;
+            this.rank = rank;
+            this.version = version;
         }
 
         public Todo withTitle(String title) {
             if (title.equals(this.title)) {
                 return this;
             }
-            return new Todo(id, title, description, completed, created);
+            Copy copy = new Copy(this);
+            copy.title = title;
+            return copy.build();
         }
 
         public Todo withDescription(String description) {
             if (description.equals(this.description)) {
                 return this;
             }
-            return new Todo(id, title, description, completed, created);
+            Copy copy = new Copy(this);
+            copy.description = description;
+            return copy.build();
         }
 
         public Todo withCompleted(boolean completed) {
             if (completed == this.completed) {
                 return this;
             }
-            return new Todo(id, title, description, completed, created);
+            Copy copy = new Copy(this);
+            copy.completed = completed;
+            return copy.build();
         }
 
         public Todo withCreated(Date created) {
             if (created.compareTo(this.created) == 0) {
                 return this;
             }
-            return new Todo(id, title, description, completed, created);
+            Copy copy = new Copy(this);
+            copy.created = created;
+            return copy.build();
+        }
+
+        public Todo withDue(Date due) {
+            if (due == null ? this.due == null : due.equals(this.due)) {
+                return this;
+            }
+            Copy copy = new Copy(this);
+            copy.due = due;
+            return copy.build();
+        }
+
+        public Todo withTags(Collection<String> tags) {
+            if (this.tags.equals(new TreeSet<>(tags))) {
+                return this;
+            }
+            Copy copy = new Copy(this);
+            copy.tags = tags;
+            return copy.build();
+        }
+
+        public Todo withParent(int parent) {
+            if (parent == this.parent) {
+                return this;
+            }
+            Copy copy = new Copy(this);
+            copy.parent = parent;
+            return copy.build();
+        }
+
+        Todo withCompletedAt(Date completedAt) {
+            Copy copy = new Copy(this);
+            copy.completedAt = completedAt;
+            return copy.build();
+        }
+
+        Todo withRank(long rank) {
+            Copy copy = new Copy(this);
+            copy.rank = rank;
+            return copy.build();
+        }
+
+        Todo withVersion(int version) {
+            Copy copy = new Copy(this);
+            copy.version = version;
+            return copy.build();
+        }
+
+        /**
+         * Rows saved before tags were added have a null set.
+         */
+        private Object readResolve() {
+            if (tags == null) {
+                return new Copy(this).build();
+            }
+            return this;
+        }
+
+        /**
+         * A mutable copy of a row. Each {@code withX} method changes one field
+         * of it so that no method has to list every field in order.
+         */
+        private static class Copy {
+            int id;
+            String title;
+            String description;
+            boolean completed;
+            Date created;
+            Date due;
+            Date completedAt;
+            Collection<String> tags;
+            int parent;
+            long rank;
+            int version;
+
+            Copy(Todo row) {
+                id = row.id;
+                title = row.title;
+                description = row.description;
+                completed = row.completed;
+                created = row.created;
+                due = row.due;
+                completedAt = row.completedAt;
+                tags = row.tags;
+                parent = row.parent;
+                rank = row.rank;
+                version = row.version;
+            }
+
+            Todo build() {
+                return new Todo(
+                        id, title, description, completed, created, due,
+                        completedAt, tags, parent, rank, version);
+            }
         }
 
     }
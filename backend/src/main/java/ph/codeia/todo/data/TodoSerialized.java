@@ -6,11 +6,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TodoSerialized implements TodoRepository.Transactional {
     private final File file;
     private final ThreadLocal<Boolean> inTransaction = new ThreadLocal<>();
+    private final List<Reminders> reminders = new ArrayList<>();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final ThreadLocal<long[]> bytesWrittenHere = new ThreadLocal<>();
     private TodoInMemory delegate;
     private boolean cancelled;
 
@@ -34,6 +42,137 @@ public class TodoSerialized implements TodoRepository.Transactional {
         return delegate.all();
     }
 
+    @Override
+    public Page page(int afterId, int limit) {
+        return delegate.page(afterId, limit);
+    }
+
+    @Override
+    public List<Todo> withStatus(boolean completed) {
+        return delegate.withStatus(completed);
+    }
+
+    @Override
+    public List<Todo> createdBetween(Date from, Date to) {
+        return delegate.createdBetween(from, to);
+    }
+
+    @Override
+    public List<Todo> createdBetween(Date from, Date to, boolean completed) {
+        return delegate.createdBetween(from, to, completed);
+    }
+
+    @Override
+    public int count(boolean completed) {
+        return delegate.count(completed);
+    }
+
+    @Override
+    public List<Todo> dueBetween(Date from, Date to) {
+        return delegate.dueBetween(from, to);
+    }
+
+    @Override
+    public List<Todo> search(String query) {
+        return delegate.search(query);
+    }
+
+    @Override
+    public List<Todo> tagged(TagFilter filter) {
+        return delegate.tagged(filter);
+    }
+
+    @Override
+    public Set<String> tags() {
+        return delegate.tags();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public List<Todo> ordered(int from, int limit) {
+        return delegate.ordered(from, limit);
+    }
+
+    @Override
+    public Todo atPosition(int position) {
+        return delegate.atPosition(position);
+    }
+
+    @Override
+    public int positionOf(int id) {
+        return delegate.positionOf(id);
+    }
+
+    /**
+     * The file is only written if the row was actually moved. Moving a row
+     * to where it already is hands back the same row.
+     */
+    @Override
+    public Todo move(int id, int position) {
+        Todo before = delegate.oneWithId(id);
+        Todo item = delegate.move(id, position);
+        if (item != null && item != before && !inTransaction()) {
+            uncheckedSave();
+        }
+        return item;
+    }
+
+    @Override
+    public List<Todo> children(int id) {
+        return delegate.children(id);
+    }
+
+    @Override
+    public List<Todo> subtree(int id) {
+        return delegate.subtree(id);
+    }
+
+    @Override
+    public Progress progress(int id) {
+        return delegate.progress(id);
+    }
+
+    @Override
+    public List<Todo> occurrences(Date from, Date to) {
+        return delegate.occurrences(from, to);
+    }
+
+    @Override
+    public Recurrence addRecurrence(Recurrence rule) {
+        Recurrence saved = delegate.addRecurrence(rule);
+        if (!inTransaction()) {
+            uncheckedSave();
+        }
+        return saved;
+    }
+
+    @Override
+    public List<Recurrence> recurrences() {
+        return delegate.recurrences();
+    }
+
+    @Override
+    public void deleteRecurrence(int id) {
+        delegate.deleteRecurrence(id);
+        if (!inTransaction()) {
+            uncheckedSave();
+        }
+    }
+
+    @Override
+    public Statistics statistics() {
+        return delegate.statistics();
+    }
+
+    @Override
+    public ChangeFeed changes() {
+        return delegate.changes();
+    }
+
     @Override
     public Todo add(String title, String description, boolean completed) {
         Todo item = delegate.add(title, description, completed);
@@ -59,6 +198,87 @@ public class TodoSerialized implements TodoRepository.Transactional {
         }
     }
 
+    /**
+     * The file is only written if the function returned a different row the
+     * last time it was called. Returning the current row is a no-op.
+     */
+    @Override
+    public Todo update(int id, Update f) {
+        final boolean[] changed = {false};
+        Todo item = delegate.update(id, e -> {
+            Todo next = f.apply(e);
+            changed[0] = next != e;
+            return next;
+        });
+        if (item != null && changed[0] && !inTransaction()) {
+            uncheckedSave();
+        }
+        return item;
+    }
+
+    @Override
+    public boolean compareAndPut(int expectedVersion, Todo item) {
+        boolean saved = delegate.compareAndPut(expectedVersion, item);
+        if (saved && !inTransaction()) {
+            uncheckedSave();
+        }
+        return saved;
+    }
+
+    @Override
+    public void putAll(Collection<Todo> items) {
+        delegate.putAll(items);
+        if (!items.isEmpty() && !inTransaction()) {
+            uncheckedSave();
+        }
+    }
+
+    @Override
+    public int deleteAll(Collection<Integer> ids) {
+        int count = delegate.deleteAll(ids);
+        if (count > 0 && !inTransaction()) {
+            uncheckedSave();
+        }
+        return count;
+    }
+
+    @Override
+    public int deleteWhere(Where where) {
+        int count = delegate.deleteWhere(where);
+        if (count > 0 && !inTransaction()) {
+            uncheckedSave();
+        }
+        return count;
+    }
+
+    @Override
+    public int updateWhere(Where where, Update f) {
+        int count = delegate.updateWhere(where, f);
+        if (count > 0 && !inTransaction()) {
+            uncheckedSave();
+        }
+        return count;
+    }
+
+    /**
+     * Feeds the reminders from this table. They are rescheduled whenever the
+     * table is read back from the file, e.g. when a transaction is cancelled.
+     *
+     * @param reminders The wheel to feed.
+     * @see TodoInMemory#attach(Reminders)
+     */
+    public synchronized void attach(Reminders reminders) {
+        if (!this.reminders.contains(reminders)) {
+            this.reminders.add(reminders);
+        }
+        delegate.attach(reminders);
+    }
+
+    public synchronized void detach(Reminders reminders) {
+        this.reminders.remove(reminders);
+        delegate.detach(reminders);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public TodoSerialized transact() {
@@ -89,6 +309,24 @@ public class TodoSerialized implements TodoRepository.Transactional {
         }
     }
 
+    /**
+     * @return the total size of the snapshots written so far.
+     */
+    public long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * For telling which call did the writing when there are several threads.
+     *
+     * @return the total size of the snapshots written so far by the calling
+     * thread.
+     */
+    public long bytesWrittenByThisThread() {
+        long[] total = bytesWrittenHere.get();
+        return total == null ? 0 : total[0];
+    }
+
     private boolean inTransaction() {
         Boolean value = inTransaction.get();
         return value != null && value;
@@ -104,9 +342,18 @@ public class TodoSerialized implements TodoRepository.Transactional {
 
     private void load() throws IOException, ClassNotFoundException {
         synchronized (file) {
+            ChangeFeed feed = delegate == null ? null : delegate.changes();
             try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
                 delegate = (TodoInMemory) in.readObject();
             }
+            if (feed != null) {
+                // the changes that were rolled back were already published
+                delegate.useFeed(feed);
+                feed.reset();
+            }
+            for (Reminders r : reminders) {
+                delegate.attach(r);
+            }
         }
     }
 
@@ -115,6 +362,14 @@ public class TodoSerialized implements TodoRepository.Transactional {
             try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
                 out.writeObject(delegate);
             }
+            long size = file.length();
+            bytesWritten.addAndGet(size);
+            long[] total = bytesWrittenHere.get();
+            if (total == null) {
+                total = new long[1];
+                bytesWrittenHere.set(total);
+            }
+            total[0] += size;
         }
     }
 
@@ -0,0 +1,36 @@
+package ph.codeia.todo.data;
+
+import ph.codeia.todo.data.TodoRepository.Todo;
+
+/**
+ * Something that needs to be told about every change to a table, like a
+ * secondary index.
+ * <p>
+ * Triggers are called while the table is locked and must not call back into
+ * the table.
+ */
+abstract class Trigger {
+
+    abstract void inserted(Todo row);
+
+    abstract void deleted(Todo row);
+
+    /**
+     * Called when a row is replaced. Override this if the trigger can do
+     * better than a delete followed by an insert.
+     *
+     * @param old The row being replaced.
+     * @param row The new row with the same id.
+     */
+    void updated(Todo old, Todo row) {
+        deleted(old);
+        inserted(row);
+    }
+
+    /**
+     * Called after the rows of a snapshot have been inserted in bulk.
+     */
+    void loaded() {
+    }
+
+}
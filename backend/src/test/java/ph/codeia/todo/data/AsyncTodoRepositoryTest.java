@@ -0,0 +1,64 @@
+package ph.codeia.todo.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncTodoRepositoryTest {
+
+    @Test
+    public void serves_many_requests_with_a_few_threads() throws Exception {
+        TodoInMemory store = new TodoInMemory();
+        AsyncTodoRepository repo = new AsyncTodoRepository(store, 2);
+        int before = Thread.activeCount();
+        List<Promise<TodoRepository.Todo>> pending = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String title = "row " + i;
+            pending.add(repo.call(r -> r.add(title, "", false)));
+        }
+        assertTrue(Thread.activeCount() <= before + 2);
+
+        CountDownLatch done = new CountDownLatch(pending.size());
+        for (Promise<TodoRepository.Todo> p : pending) {
+            p.whenDone(done::countDown);
+        }
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(1000, store.size());
+        assertEquals("row 999", pending.get(999).get().title);
+    }
+
+    @Test
+    public void chains_steps_without_waiting() throws Exception {
+        TodoInMemory store = new TodoInMemory();
+        int id = store.add("a", "", false).id;
+        AsyncTodoRepository repo = new AsyncTodoRepository(store, 1);
+
+        Promise<String> title = repo.call(r -> r.update(id, e -> e.withCompleted(true)))
+                .then(e -> repo.call(r -> r.progress(e.id))
+                        .map(p -> e.title + " " + p.done + "/" + p.total));
+        assertEquals("a 0/0", title.get(1, TimeUnit.SECONDS));
+        assertTrue(store.oneWithId(id).completed);
+    }
+
+    @Test
+    public void passes_failures_along() throws InterruptedException {
+        AsyncTodoRepository repo = new AsyncTodoRepository(new TodoInMemory(), Runnable::run);
+        Promise<Integer> p = repo.<Integer>call(r -> {
+            throw new IllegalStateException("nope");
+        }).map(n -> n + 1);
+        assertTrue(p.isDone());
+        try {
+            p.get();
+            fail("expected an exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+}
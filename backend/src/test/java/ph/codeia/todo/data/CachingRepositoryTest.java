@@ -0,0 +1,114 @@
+package ph.codeia.todo.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class CachingRepositoryTest {
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void reads_through_and_counts_hits() {
+        TodoInMemory store = new TodoInMemory();
+        int id = store.add("a", "", false).id;
+        CachingRepository repo = new CachingRepository(store, 100);
+
+        assertEquals("a", repo.oneWithId(id).title);
+        assertEquals("a", repo.oneWithId(id).title);
+        assertEquals(1, repo.all().size());
+        assertEquals(1, repo.all().size());
+        assertNull(repo.oneWithId(id + 1));
+
+        CachingRepository.Stats stats = repo.stats();
+        assertEquals(2, stats.hits);
+        assertEquals(3, stats.misses);
+        assertEquals(3, stats.weight);
+    }
+
+    @Test
+    public void sees_writes_made_around_it() {
+        TodoInMemory store = new TodoInMemory();
+        int id = store.add("a", "", false).id;
+        CachingRepository repo = new CachingRepository(store, 100);
+        assertEquals(1, repo.all().size());
+        assertFalse(repo.oneWithId(id).completed);
+
+        store.update(id, e -> e.withCompleted(true));
+        assertTrue(repo.oneWithId(id).completed);
+        assertEquals(1, repo.withStatus(true).size());
+
+        repo.add("b", "", false);
+        assertEquals(2, repo.all().size());
+        assertEquals(1, repo.withStatus(false).size());
+
+        repo.delete(id);
+        assertNull(repo.oneWithId(id));
+        assertEquals(1, repo.all().size());
+    }
+
+    @Test
+    public void keeps_the_rows_read_often_during_a_scan() {
+        TodoInMemory store = new TodoInMemory();
+        for (int i = 0; i < 1000; i++) {
+            store.add("row " + i, "", false);
+        }
+        CachingRepository repo = new CachingRepository(store, 100);
+        for (int i = 0; i < 2; i++) {
+            for (int id = 1; id <= 50; id++) {
+                repo.oneWithId(id);
+            }
+        }
+        for (int id = 51; id <= 1000; id++) {
+            repo.oneWithId(id);
+        }
+
+        long hits = repo.stats().hits;
+        for (int id = 1; id <= 50; id++) {
+            repo.oneWithId(id);
+        }
+        assertEquals(hits + 50, repo.stats().hits);
+        assertTrue(repo.stats().weight <= 100);
+    }
+
+    @Test
+    public void can_be_trimmed() {
+        TodoInMemory store = new TodoInMemory();
+        for (int i = 0; i < 10; i++) {
+            store.add("row " + i, "", false);
+        }
+        CachingRepository repo = new CachingRepository(store, 100);
+        for (int id = 1; id <= 10; id++) {
+            repo.oneWithId(id);
+        }
+        assertEquals(10, repo.stats().weight);
+
+        repo.trimTo(4);
+        assertEquals(4, repo.stats().weight);
+        assertEquals(6, repo.stats().evictions);
+        repo.trimTo(0);
+        assertEquals(0, repo.stats().weight);
+        assertEquals("row 0", repo.oneWithId(1).title);
+    }
+
+    @Test
+    public void forgets_everything_when_a_transaction_is_cancelled() throws Exception {
+        File file = dir.newFile();
+        assertTrue(file.delete());
+        CachingRepository repo = new CachingRepository(new TodoSerialized(file), 100);
+        int id = repo.add("a", "", false).id;
+
+        try (CachingRepository tx = repo.transact()) {
+            tx.put(tx.oneWithId(id).withTitle("b"));
+            assertEquals("b", tx.oneWithId(id).title);
+            tx.cancel();
+        }
+        assertEquals("a", repo.oneWithId(id).title);
+    }
+
+}
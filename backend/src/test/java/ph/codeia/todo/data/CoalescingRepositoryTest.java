@@ -0,0 +1,116 @@
+package ph.codeia.todo.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CoalescingRepositoryTest {
+
+    /**
+     * Blocks every all() call until released.
+     */
+    static class Gate extends ForwardingRepository {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile CountDownLatch open = new CountDownLatch(1);
+
+        Gate(TodoRepository delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public List<Todo> all() {
+            calls.incrementAndGet();
+            entered.countDown();
+            try {
+                open.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.all();
+        }
+    }
+
+    @Test(timeout = 2000)
+    public void concurrent_reads_share_one_call() throws Exception {
+        TodoInMemory store = new TodoInMemory();
+        store.add("a", "", false);
+        Gate gate = new Gate(store);
+        CoalescingRepository repo = new CoalescingRepository(gate);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<TodoRepository.Todo>>> results = new ArrayList<>();
+            results.add(pool.submit(repo::all));
+            gate.entered.await();
+            for (int i = 0; i < 7; i++) {
+                results.add(pool.submit(repo::all));
+            }
+            while (repo.joined() < 7) {
+                Thread.sleep(1);
+            }
+            gate.open.countDown();
+
+            List<TodoRepository.Todo> first = results.get(0).get();
+            for (Future<List<TodoRepository.Todo>> r : results.subList(1, results.size())) {
+                assertEquals(first, r.get());
+                assertNotSame(first, r.get());
+            }
+            first.clear();
+            assertEquals(1, results.get(1).get().size());
+            assertEquals(1, gate.calls.get());
+            assertEquals(1, repo.calls());
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test(timeout = 2000)
+    public void reads_after_a_write_do_not_join_older_calls() throws Exception {
+        TodoInMemory store = new TodoInMemory();
+        store.add("a", "", false);
+        Gate gate = new Gate(store);
+        CoalescingRepository repo = new CoalescingRepository(gate);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<TodoRepository.Todo>> before = pool.submit(repo::all);
+            gate.entered.await();
+            repo.add("b", "", false);
+            Future<List<TodoRepository.Todo>> after = pool.submit(repo::all);
+            while (gate.calls.get() < 2) {
+                Thread.sleep(1);
+            }
+            gate.open.countDown();
+
+            assertEquals(2, after.get().size());
+            assertEquals(0, repo.joined());
+            assertEquals(2, repo.calls());
+            before.get();
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void sequential_reads_are_not_kept() {
+        TodoInMemory store = new TodoInMemory();
+        int id = store.add("a", "", false).id;
+        CoalescingRepository repo = new CoalescingRepository(store);
+        assertEquals("a", repo.oneWithId(id).title);
+        store.update(id, e -> e.withTitle("b"));
+        assertEquals("b", repo.oneWithId(id).title);
+        assertEquals(2, repo.calls());
+        assertEquals(0, repo.joined());
+    }
+
+}
@@ -0,0 +1,112 @@
+package ph.codeia.todo.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedRepositoryTest {
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void histogram_percentiles_are_within_the_bucket_precision() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 10_000; i++) {
+            h.record(i * 1000L);
+        }
+        Histogram.Snapshot s = h.snapshot();
+        assertEquals(10_000, s.count);
+        assertEquals(10_000_000L, s.max);
+        assertEquals(5_000_500L, s.mean());
+        assertWithin(5_000_000L, s.percentile(50));
+        assertWithin(9_900_000L, s.percentile(99));
+        assertEquals(s.max, s.percentile(100));
+        assertEquals(1007, s.percentile(0));
+
+        assertEquals(10_000, h.reset().count);
+        assertEquals(0, h.snapshot().count);
+        assertEquals(0, h.snapshot().percentile(50));
+    }
+
+    @Test
+    public void small_values_are_exact() {
+        for (int i = 0; i < 64; i++) {
+            assertEquals(i, Histogram.highest(Histogram.index(i)));
+        }
+    }
+
+    @Test
+    public void records_every_call_by_name() throws Exception {
+        long[] now = {0};
+        InstrumentedRepository repo = new InstrumentedRepository(
+                new TodoInMemory(), InstrumentedRepository.Bytes.NONE, () -> now[0] += 10);
+        int id = repo.add("a", "", false).id;
+        repo.oneWithId(id);
+        repo.oneWithId(id);
+        repo.all();
+
+        Map<String, InstrumentedRepository.Stats> stats = repo.snapshot();
+        assertEquals(1, stats.get("add").latency.count);
+        assertEquals(2, stats.get("oneWithId").latency.count);
+        assertEquals(10, stats.get("oneWithId").latency.max);
+        assertEquals(1, stats.get("all").latency.count);
+        assertNull(stats.get("delete"));
+
+        assertEquals(2, repo.reset().get("oneWithId").latency.count);
+        assertEquals(0, repo.snapshot().get("oneWithId").latency.count);
+    }
+
+    @Test
+    public void counts_the_bytes_written_by_a_file() throws Exception {
+        File file = dir.newFile();
+        assertTrue(file.delete());
+        TodoSerialized store = new TodoSerialized(file);
+        InstrumentedRepository repo = new InstrumentedRepository(store, store::bytesWrittenByThisThread);
+        repo.add("a", "", false);
+        try (InstrumentedRepository tx = repo.transact()) {
+            tx.add("b", "", false);
+            tx.add("c", "", false);
+        }
+
+        Map<String, InstrumentedRepository.Stats> stats = repo.snapshot();
+        assertTrue(stats.get("add").bytesWritten > 0);
+        assertEquals(file.length(), stats.get("commit").bytesWritten);
+        assertEquals(3, stats.get("add").latency.count);
+    }
+
+    @Test(timeout = 10000)
+    public void only_charges_the_bytes_to_the_thread_that_wrote_them() throws Exception {
+        File file = dir.newFile();
+        assertTrue(file.delete());
+        TodoSerialized store = new TodoSerialized(file);
+        long created = store.bytesWritten();
+        InstrumentedRepository repo = new InstrumentedRepository(store, store::bytesWrittenByThisThread);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                repo.add("row " + i, "", false);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            repo.all();
+        }
+        writer.join();
+        repo.close();
+
+        Map<String, InstrumentedRepository.Stats> stats = repo.snapshot();
+        assertEquals(0, stats.get("all").bytesWritten);
+        assertEquals(store.bytesWritten() - created, stats.get("add").bytesWritten);
+        assertNull(stats.get("commit"));
+    }
+
+    static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " ~ " + actual, Math.abs(actual - expected) <= expected / 32);
+    }
+
+}
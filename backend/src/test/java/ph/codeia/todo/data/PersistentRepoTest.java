@@ -116,4 +116,51 @@ public class PersistentRepoTest {
             System.out.println(s);
         }
     }
+
+    @Test
+    public void saves_bulk_changes() throws IOException, ClassNotFoundException {
+        File file = dir.newFile();
+        assertTrue(file.delete());
+        TodoRepository repo = new TodoSerialized(file);
+        for (int i = 0; i < 10; i++) {
+            repo.add("row " + i, "", i % 2 == 0);
+        }
+
+        assertEquals(5, repo.deleteWhere(e -> e.completed));
+        assertEquals(5, new TodoSerialized(file).size());
+        assertEquals(5, repo.updateWhere(e -> true, e -> e.withCompleted(true)));
+        assertEquals(5, new TodoSerialized(file).count(true));
+    }
+
+    @Test
+    public void does_not_write_when_an_update_changes_nothing() throws IOException, ClassNotFoundException {
+        File file = dir.newFile();
+        assertTrue(file.delete());
+        TodoSerialized repo = new TodoSerialized(file);
+        int id = repo.add("row", "", false).id;
+        long written = repo.bytesWritten();
+
+        assertEquals(1, repo.update(id, e -> e).version);
+        assertEquals(written, repo.bytesWritten());
+        assertEquals(2, repo.update(id, e -> e.withCompleted(true)).version);
+        assertTrue(repo.bytesWritten() > written);
+    }
+
+    @Test
+    public void does_not_write_when_a_row_is_moved_to_where_it_is() throws IOException, ClassNotFoundException {
+        File file = dir.newFile();
+        assertTrue(file.delete());
+        TodoSerialized repo = new TodoSerialized(file);
+        int a = repo.add("a", "", false).id;
+        int b = repo.add("b", "", false).id;
+        long written = repo.bytesWritten();
+
+        assertEquals(1, repo.move(b, 1).version);
+        assertEquals(1, repo.move(b, 5).version);
+        assertEquals(written, repo.bytesWritten());
+        assertEquals(2, repo.move(b, 0).version);
+        assertTrue(repo.bytesWritten() > written);
+        assertEquals(b, new TodoSerialized(file).atPosition(0).id);
+        assertEquals(a, repo.atPosition(1).id);
+    }
 }
@@ -0,0 +1,130 @@
+package ph.codeia.todo.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RemindersTest {
+
+    static class FakeClock implements Clock {
+        long now;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    final FakeClock clock = new FakeClock();
+    final List<List<TodoRepository.Todo>> batches = new ArrayList<>();
+    final Reminders reminders = new Reminders(clock, 1000, batches::add);
+
+    @Test
+    public void fires_everything_due_since_the_last_advance_in_one_batch() {
+        long day = 86_400_000L;
+        reminders.schedule(row(1, 1_500));
+        reminders.schedule(row(2, 2_000));
+        reminders.schedule(row(3, 90_000));
+        reminders.schedule(row(4, 400 * day));
+        reminders.schedule(row(5, 2_000).withCompleted(true));
+        assertEquals(4, reminders.size());
+        assertEquals(2_000, reminders.nextWakeup());
+
+        clock.now = 1_999;
+        assertEquals(0, reminders.advance());
+        clock.now = 2_000;
+        assertEquals(2, reminders.advance());
+        clock.now = 89_999;
+        assertEquals(0, reminders.advance());
+        reminders.cancel(3);
+        clock.now = 399 * day;
+        assertEquals(0, reminders.advance());
+        assertTrue(reminders.nextWakeup() <= 400 * day);
+        clock.now = 401 * day;
+        assertEquals(1, reminders.advance());
+        assertEquals(2, batches.size());
+        assertEquals(4, batches.get(1).get(0).id);
+        assertEquals(Long.MAX_VALUE, reminders.nextWakeup());
+    }
+
+    @Test
+    public void never_fires_early_or_twice() {
+        Random random = new Random(35);
+        Map<Integer, Long> due = new HashMap<>();
+        for (int id = 1; id <= 5_000; id++) {
+            long at = (long) (Math.pow(random.nextDouble(), 4) * 1e10);
+            due.put(id, at);
+            reminders.schedule(row(id, at));
+        }
+        for (int id = 1; id <= 5_000; id += 7) {
+            reminders.cancel(id);
+            due.remove(id);
+        }
+        long before = 0;
+        while (clock.now < 1e10) {
+            clock.now += (long) (random.nextDouble() * 5e7);
+            reminders.advance();
+            for (TodoRepository.Todo row : batches.isEmpty() ? new ArrayList<TodoRepository.Todo>() : batches.get(0)) {
+                assertNotNull("fired twice or after cancelling: #" + row.id, due.remove(row.id));
+                assertTrue(row.due.getTime() <= clock.now);
+                assertTrue(row.due.getTime() > before - 1000);
+            }
+            batches.clear();
+            before = clock.now;
+        }
+        clock.now = Long.MAX_VALUE / 2;
+        reminders.advance();
+        for (List<TodoRepository.Todo> batch : batches) {
+            for (TodoRepository.Todo row : batch) {
+                due.remove(row.id);
+            }
+        }
+        assertTrue(due.isEmpty());
+        assertEquals(0, reminders.size());
+    }
+
+    @Test
+    public void follows_the_changes_to_an_attached_repository() throws IOException, ClassNotFoundException {
+        TodoInMemory repo = new TodoInMemory();
+        clock.now = 10_000;
+        int overdue = repo.add("overdue", "", false).id;
+        repo.update(overdue, e -> e.withDue(new Date(5_000)));
+        int a = repo.add("a", "", false).id;
+        repo.update(a, e -> e.withDue(new Date(20_000)));
+        repo.attach(reminders);
+        assertFalse(reminders.isPending(overdue));
+        assertTrue(reminders.isPending(a));
+
+        int b = repo.add("b", "", false).id;
+        repo.update(b, e -> e.withDue(new Date(30_000)));
+        int c = repo.add("c", "", false).id;
+        repo.update(c, e -> e.withDue(new Date(30_000)));
+        repo.update(a, e -> e.withCompleted(true));
+        repo.delete(c);
+        assertEquals(1, reminders.size());
+
+        clock.now = 30_000;
+        assertEquals(1, reminders.advance());
+        assertEquals(b, batches.get(0).get(0).id);
+
+        repo.update(b, e -> e.withDue(new Date(40_000)));
+        TodoInMemory copy = TodoInMemoryTest.roundTrip(repo);
+        repo.detach(reminders);
+        copy.attach(reminders);
+        assertTrue(reminders.isPending(b));
+        assertEquals(1, reminders.size());
+        assertEquals(TodoInMemoryTest.ids(b), TodoInMemoryTest.ids(copy.dueBetween(new Date(30_000), null)));
+    }
+
+    static TodoRepository.Todo row(int id, long due) {
+        return new TodoRepository.Todo(id, "#" + id, "", false, new Date(0)).withDue(new Date(due));
+    }
+}
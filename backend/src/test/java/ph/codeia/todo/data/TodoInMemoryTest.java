@@ -0,0 +1,616 @@
+package ph.codeia.todo.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+public class TodoInMemoryTest {
+
+    @Test
+    public void compacts_itself_after_mass_deletion() {
+        TodoInMemory repo = new TodoInMemory();
+        for (int i = 0; i < 1000; i++) {
+            repo.add("row " + i, "", i % 10 != 0);
+        }
+        for (TodoRepository.Todo e : repo.all()) if (e.completed) {
+            repo.delete(e.id);
+        }
+        assertTrue(repo.slots() < 500);
+        while (repo.compact(16));
+        assertEquals(100, repo.slots());
+
+        List<TodoRepository.Todo> rows = repo.all();
+        assertEquals(100, rows.size());
+        int last = 0;
+        for (TodoRepository.Todo e : rows) {
+            assertTrue(e.id > last);
+            assertFalse(e.completed);
+            assertSame(e, repo.oneWithId(e.id));
+            last = e.id;
+        }
+    }
+
+    @Test
+    public void new_rows_fill_the_lowest_holes_first() {
+        TodoInMemory repo = new TodoInMemory();
+        for (int i = 0; i < 10; i++) {
+            repo.add("row " + i, "", false);
+        }
+        repo.delete(8);
+        repo.delete(3);
+        repo.delete(5);
+        repo.add("a", "", false);
+        repo.add("b", "", false);
+        repo.add("c", "", false);
+        assertEquals(10, repo.slots());
+        assertEquals(10, repo.all().size());
+    }
+
+    @Test
+    public void does_not_serialize_empty_slots() throws IOException, ClassNotFoundException {
+        TodoInMemory repo = new TodoInMemory();
+        for (int i = 0; i < 20; i++) {
+            repo.add("row " + i, "", false);
+        }
+        for (int id = 1; id <= 20; id += 2) {
+            repo.delete(id);
+        }
+        assertEquals(20, repo.slots());
+
+        TodoInMemory copy = roundTrip(repo);
+        assertEquals(10, copy.slots());
+        for (int id = 1; id <= 20; id++) {
+            assertEquals(id % 2 == 0, copy.oneWithId(id) != null);
+        }
+        assertEquals(21, copy.add("next", "", false).id);
+    }
+
+    @Test(timeout = 10000)
+    public void parallel_adds_never_share_an_id() throws InterruptedException {
+        TodoInMemory repo = new TodoInMemory();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    repo.add("row", "", false);
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        Set<Integer> ids = new HashSet<>();
+        for (TodoRepository.Todo e : repo.all()) {
+            assertTrue(ids.add(e.id));
+        }
+        assertEquals(8000, ids.size());
+    }
+
+    @Test(timeout = 10000)
+    public void a_cursor_sees_every_row_added_while_paging() throws InterruptedException {
+        TodoInMemory repo = new TodoInMemory();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    repo.add("row", "", false);
+                }
+            });
+        }
+        pool.shutdown();
+        List<Integer> seen = new ArrayList<>();
+        int cursor = TodoRepository.Page.FIRST;
+        boolean done = false;
+        while (true) {
+            TodoRepository.Page page = repo.page(cursor, 50);
+            for (TodoRepository.Todo e : page.items) {
+                seen.add(e.id);
+            }
+            cursor = page.cursor;
+            if (done && !page.hasMore) {
+                break;
+            }
+            done = pool.isTerminated();
+        }
+        assertEquals(8000, seen.size());
+        for (int i = 1; i < seen.size(); i++) {
+            assertTrue(seen.get(i - 1) < seen.get(i));
+        }
+    }
+
+    @Test
+    public void skips_ids_that_were_put_explicitly() {
+        TodoInMemory repo = new TodoInMemory();
+        for (int id = 2; id < 300; id++) {
+            repo.put(new TodoRepository.Todo(id, "taken", "", false, new Date()));
+        }
+        assertEquals(1, repo.add("first", "", false).id);
+        assertEquals(300, repo.add("second", "", false).id);
+        assertEquals(301, repo.add("third", "", false).id);
+    }
+
+    @Test(timeout = 10000)
+    public void concurrent_updates_to_the_same_row_are_not_lost() throws InterruptedException {
+        TodoInMemory repo = new TodoInMemory();
+        int id = repo.add("", "", false).id;
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 500; i++) {
+                    repo.update(id, e -> e.withTitle(e.title + "x"));
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        TodoRepository.Todo e = repo.oneWithId(id);
+        assertEquals(4000, e.title.length());
+        assertEquals(4001, e.version);
+    }
+
+    @Test
+    public void rejects_writes_derived_from_a_stale_version() {
+        TodoInMemory repo = new TodoInMemory();
+        TodoRepository.Todo e = repo.add("foo", "bar", false);
+        assertEquals(1, e.version);
+        assertTrue(repo.compareAndPut(1, e.withCompleted(true)));
+        assertFalse(repo.compareAndPut(1, e.withTitle("baz")));
+        assertEquals("foo", repo.oneWithId(e.id).title);
+        assertTrue(repo.oneWithId(e.id).completed);
+
+        TodoRepository.Todo fresh = new TodoRepository.Todo(100, "new", "", false, new Date());
+        assertTrue(repo.compareAndPut(0, fresh));
+        assertFalse(repo.compareAndPut(0, fresh));
+        assertNull(repo.update(101, x -> x.withTitle("nope")));
+    }
+
+    @Test
+    public void pages_visit_every_row_once_in_id_order() {
+        TodoInMemory repo = new TodoInMemory();
+        for (int i = 0; i < 95; i++) {
+            repo.add("row " + i, "", false);
+        }
+        List<Integer> seen = new ArrayList<>();
+        int deleted = 0;
+        TodoRepository.Page page = repo.page(TodoRepository.Page.FIRST, 10);
+        while (true) {
+            assertTrue(page.items.size() <= 10);
+            for (TodoRepository.Todo e : page.items) {
+                seen.add(e.id);
+            }
+            if (!page.hasMore) {
+                break;
+            }
+            repo.delete(page.cursor + 1);
+            deleted++;
+            page = repo.page(page.cursor, 10);
+        }
+        assertEquals(95 - deleted, seen.size());
+        for (int i = 1; i < seen.size(); i++) {
+            assertTrue(seen.get(i - 1) < seen.get(i));
+        }
+        assertFalse(repo.page(95, 10).hasMore);
+        assertTrue(repo.page(95, 10).items.isEmpty());
+    }
+
+    @Test
+    public void keeps_counts_and_date_ranges_in_sync_with_the_rows() {
+        TodoInMemory repo = new TodoInMemory();
+        for (int day = 1; day <= 30; day++) {
+            repo.put(new TodoRepository.Todo(day, "day " + day, "", day % 3 == 0, day(day)));
+        }
+        assertEquals(10, repo.count(true));
+        assertEquals(20, repo.count(false));
+
+        List<TodoRepository.Todo> week = repo.createdBetween(day(8), day(15), false);
+        assertEquals(5, week.size());
+        for (TodoRepository.Todo e : week) {
+            assertFalse(e.completed);
+            assertTrue(e.id >= 8 && e.id < 15);
+        }
+        assertEquals(7, repo.createdBetween(day(8), day(15)).size());
+        assertEquals(2, repo.createdBetween(day(8), day(15), true).size());
+
+        repo.update(10, e -> e.withCompleted(true));
+        repo.delete(9);
+        assertEquals(10, repo.count(true));
+        assertEquals(19, repo.count(false));
+        assertEquals(6, repo.createdBetween(day(8), day(15)).size());
+        int last = 0;
+        for (TodoRepository.Todo e : repo.withStatus(true)) {
+            assertTrue(e.completed);
+            assertTrue(e.id > last);
+            last = e.id;
+        }
+    }
+
+    @Test
+    public void finds_rows_by_words_and_prefixes() throws IOException, ClassNotFoundException {
+        TodoInMemory repo = new TodoInMemory();
+        int milk = repo.add("Buy milk", "2 liters, low-fat", false).id;
+        int eggs = repo.add("Buy eggs", "a dozen", false).id;
+        int call = repo.add("Call the dairy", "ask about MILK delivery", true).id;
+
+        assertEquals(ids(milk, call), ids(repo.search("milk")));
+        assertEquals(ids(milk, eggs), ids(repo.search("bu")));
+        assertEquals(ids(milk), ids(repo.search("buy mi")));
+        assertEquals(ids(call), ids(repo.search("milk deliv")));
+        assertTrue(repo.search("buy dairy").isEmpty());
+        assertTrue(repo.search("  ").isEmpty());
+
+        repo.update(milk, e -> e.withTitle("Buy bread"));
+        repo.delete(call);
+        assertTrue(repo.search("milk").isEmpty());
+        assertEquals(ids(milk), ids(roundTrip(repo).search("bread")));
+    }
+
+    @Test
+    public void short_prefixes_match_the_same_rows_as_a_scan() {
+        Random random = new Random(7);
+        String[] vocabulary = {"apple", "apricot", "avocado", "banana", "basil", "bean", "beet", "berry"};
+        TodoInMemory repo = new TodoInMemory();
+        List<Set<String>> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Set<String> words = new HashSet<>();
+            for (int w = random.nextInt(4); w >= 0; w--) {
+                words.add(vocabulary[random.nextInt(vocabulary.length)]);
+            }
+            rows.add(words);
+            repo.add(String.join(" ", words), "", false);
+        }
+        for (String query : new String[] {"a", "b", "ap", "be", "apple b", "banana a", "bean beet be", "basil x"}) {
+            String[] terms = query.split(" ");
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < rows.size(); i++) {
+                boolean all = true;
+                for (int t = 0; t < terms.length - 1; t++) {
+                    all &= rows.get(i).contains(terms[t]);
+                }
+                String prefix = terms[terms.length - 1];
+                if (all && rows.get(i).stream().anyMatch(w -> w.startsWith(prefix))) {
+                    expected.add(i + 1);
+                }
+            }
+            assertEquals(query, expected, ids(repo.search(query)));
+        }
+    }
+
+    @Test
+    public void answers_tag_queries_from_bitmaps() throws IOException, ClassNotFoundException {
+        TodoInMemory repo = new TodoInMemory();
+        for (int i = 0; i < 20_000; i++) {
+            List<String> tags = new ArrayList<>();
+            if (i % 3 == 0) tags.add("work");
+            if (i % 5 == 0) tags.add("urgent");
+            if (i < 9000) tags.add("backlog");
+            repo.put(repo.add("row " + i, "", i % 7 == 0).withTags(tags));
+        }
+        TodoRepository.TagFilter urgentWork = TodoRepository.TagFilter.ANY
+                .withAllOf(Arrays.asList("work", "urgent"))
+                .withCompleted(false);
+        TodoRepository.TagFilter notBacklog = TodoRepository.TagFilter.ANY
+                .withAnyOf(Arrays.asList("work", "urgent"))
+                .withNoneOf(Collections.singleton("backlog"));
+        assertEquals(ids(slowly(repo, urgentWork)), ids(repo.tagged(urgentWork)));
+        assertEquals(ids(slowly(repo, notBacklog)), ids(repo.tagged(notBacklog)));
+        assertEquals(new TreeSet<>(Arrays.asList("backlog", "urgent", "work")), repo.tags());
+
+        TodoInMemory copy = roundTrip(repo);
+        for (int id = 1; id <= 20_000; id += 97) {
+            copy.update(id, e -> e.withTags(Collections.singleton("work")));
+        }
+        for (int id = 2; id <= 20_000; id += 89) {
+            copy.delete(id);
+        }
+        assertEquals(ids(slowly(copy, urgentWork)), ids(copy.tagged(urgentWork)));
+        assertEquals(ids(slowly(copy, notBacklog)), ids(copy.tagged(notBacklog)));
+    }
+
+    @Test
+    public void keeps_rows_in_manual_order() throws IOException, ClassNotFoundException {
+        TodoInMemory repo = new TodoInMemory();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 30_000; i++) {
+            expected.add(repo.add("row " + i, "", false).id);
+        }
+        Random random = new Random(33);
+        for (int i = 0; i < 2_000; i++) {
+            int id = expected.get(random.nextInt(expected.size()));
+            int to = random.nextInt(expected.size());
+            expected.remove((Integer) id);
+            expected.add(to, id);
+            assertEquals(id, repo.move(id, to).id);
+        }
+        // keep squeezing into the same spot until the neighbors run out of room
+        for (int i = 0; i < 100; i++) {
+            int id = expected.get(expected.size() - 1 - i);
+            expected.remove((Integer) id);
+            expected.add(100, id);
+            repo.move(id, 100);
+        }
+        int id = expected.remove(0);
+        repo.delete(id);
+        expected.add(repo.add("last", "", false).id);
+
+        assertEquals(expected, ids(repo.ordered(0, expected.size())));
+        assertEquals(expected.subList(500, 520), ids(repo.ordered(500, 20)));
+        assertEquals((int) expected.get(12_345), repo.atPosition(12_345).id);
+        assertEquals(12_345, repo.positionOf(expected.get(12_345)));
+        assertEquals(-1, repo.positionOf(id));
+        assertNull(repo.atPosition(expected.size()));
+        assertEquals(expected, ids(roundTrip(repo).ordered(0, expected.size())));
+    }
+
+    @Test
+    public void rolls_up_the_progress_of_subtrees() throws IOException, ClassNotFoundException {
+        TodoInMemory repo = new TodoInMemory();
+        int a = repo.add("a", "", false).id;
+        int b = repo.add("b", "", true).id;
+        int c = repo.add("c", "", false).id;
+        int d = repo.add("d", "", true).id;
+        repo.update(b, e -> e.withParent(a));
+        repo.update(c, e -> e.withParent(b));
+        repo.update(d, e -> e.withParent(b));
+        assertProgress(2, 3, repo.progress(a));
+        assertProgress(1, 2, repo.progress(b));
+        assertEquals(ids(b, c, d), ids(repo.subtree(a)));
+        assertEquals(ids(c, d), ids(repo.children(b)));
+
+        repo.update(c, e -> e.withCompleted(true));
+        assertProgress(3, 3, repo.progress(a));
+
+        int e = repo.add("e", "", false).id;
+        repo.update(b, row -> row.withParent(e));
+        assertProgress(0, 0, repo.progress(a));
+        assertProgress(3, 3, repo.progress(e));
+        try {
+            repo.update(e, row -> row.withParent(d));
+            fail("made a cycle");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // b is now under a row with a greater id, so it is read back first
+        TodoInMemory copy = roundTrip(repo);
+        assertProgress(3, 3, copy.progress(e));
+        assertEquals(ids(b, c, d), ids(copy.subtree(e)));
+
+        copy.delete(b);
+        assertEquals(ids(c, d), ids(copy.children(e)));
+        assertProgress(2, 2, copy.progress(e));
+    }
+
+    @Test
+    public void generates_occurrences_of_recurring_rows_on_demand() throws IOException, ClassNotFoundException {
+        TodoInMemory repo = new TodoInMemory();
+        TodoRepository.Recurrence daily = repo.addRecurrence(
+                TodoRepository.Recurrence.daily("stretch", "", day(0)));
+        TodoRepository.Recurrence weekly = repo.addRecurrence(
+                TodoRepository.Recurrence.weekly("laundry", "", day(3)).withUntil(day(17)));
+
+        List<TodoRepository.Todo> window = repo.occurrences(day(1_000), day(1_003));
+        assertEquals(3, window.size());
+        assertEquals(daily.nth(1_001), window.get(1).due);
+        assertTrue(repo.all().isEmpty());
+        assertEquals(2, repo.occurrences(day(0), day(30)).size() - 30);
+
+        int id = window.get(1).id;
+        assertEquals("stretch", repo.oneWithId(id).title);
+        repo.update(id, e -> e.withCompleted(true).withTitle("stretched"));
+        assertEquals(1, repo.all().size());
+        window = roundTrip(repo).occurrences(day(1_000), day(1_003));
+        assertEquals(ids(daily.occurrenceId(1_000), id, daily.occurrenceId(1_002)), ids(window));
+        assertTrue(window.get(1).completed);
+        assertEquals(0, window.get(0).version);
+
+        repo.deleteRecurrence(weekly.id);
+        assertEquals(30, repo.occurrences(day(0), day(30)).size());
+        assertNull(repo.oneWithId(weekly.occurrenceId(0)));
+    }
+
+    @Test
+    public void never_reuses_the_id_of_a_deleted_rule() throws IOException, ClassNotFoundException {
+        TodoInMemory repo = new TodoInMemory();
+        TodoRepository.Recurrence gym = repo.addRecurrence(
+                TodoRepository.Recurrence.daily("gym", "", day(0)));
+        repo.update(gym.occurrenceId(2), e -> e.withCompleted(true));
+        assertEquals(1, repo.all().size());
+
+        long seq = repo.changes().seq();
+        repo.deleteRecurrence(gym.id);
+        assertTrue(repo.all().isEmpty());
+        List<ChangeFeed.Change> changes = repo.changes().since(seq).changes;
+        assertEquals(1, changes.size());
+        assertEquals(ChangeFeed.Change.Kind.DELETED, changes.get(0).kind);
+        assertEquals(gym.occurrenceId(2), changes.get(0).row.id);
+        assertNull(repo.oneWithId(gym.occurrenceId(2)));
+        TodoRepository.Recurrence rent = repo.addRecurrence(
+                TodoRepository.Recurrence.daily("pay rent", "", day(0)));
+        assertNotEquals(gym.id, rent.id);
+        for (TodoRepository.Todo e : repo.occurrences(day(0), day(5))) {
+            assertEquals("pay rent", e.title);
+            assertFalse(e.completed);
+        }
+
+        repo.deleteRecurrence(rent.id);
+        TodoInMemory copy = roundTrip(repo);
+        assertTrue(copy.addRecurrence(TodoRepository.Recurrence.daily("", "", day(0))).id > rent.id);
+    }
+
+    @Test
+    public void finds_the_first_occurrence_far_from_the_start() {
+        TodoRepository.Recurrence monthly = new TodoRepository.Recurrence(
+                1, "rent", "", day(0), TodoRepository.Recurrence.Unit.MONTH, 1, null);
+        for (int n : new int[] {0, 1, 11, 12, 600, 1_000, 50_000}) {
+            Date due = monthly.nth(n);
+            assertEquals(n, monthly.firstFrom(due));
+            assertEquals(n + 1, monthly.firstFrom(new Date(due.getTime() + 1)));
+        }
+        TodoRepository.Recurrence sparse = new TodoRepository.Recurrence(
+                1, "", "", day(0), TodoRepository.Recurrence.Unit.DAY, 1 << 20, null);
+        assertNotNull(sparse.nth(2_000));
+        assertNull(sparse.nth(4_096));
+    }
+
+    @Test
+    public void counts_completions_per_period() throws IOException, ClassNotFoundException {
+        long[] now = {day(10).getTime()};
+        TodoInMemory repo = new TodoInMemory(() -> now[0]);
+        List<Integer> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            rows.add(repo.add("row " + i, "", false).id);
+        }
+        for (int i = 0; i < 10; i++) {
+            now[0] = day(11 + i).getTime();
+            repo.update(rows.get(i), e -> e.withCompleted(true));
+        }
+        repo.update(rows.get(9), e -> e.withCompleted(false));
+        repo.delete(rows.get(0));
+
+        Statistics stats = roundTrip(repo).statistics();
+        TimeZone zone = TimeZone.getDefault();
+        Date first = new Date(day(11).getTime() - zone.getOffset(day(11).getTime()));
+        assertArrayEquals(new int[] {1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0},
+                stats.completed(Statistics.Period.DAY, first, 11));
+        assertEquals(9, stats.totalCompleted());
+        assertEquals(5 * 86_400_000L, stats.averageTimeToCompletion());
+        assertEquals(2 * 86_400_000L,
+                stats.averageTimeToCompletion(Statistics.Period.DAY, first, 3));
+        int sum = 0;
+        for (int n : stats.completed(Statistics.Period.WEEK, first, 3)) {
+            sum += n;
+        }
+        assertEquals(9, sum);
+        assertEquals(9, stats.completed(Statistics.Period.MONTH, first, 1)[0]);
+    }
+
+    @Test
+    public void numbers_the_changes_in_order() throws IOException, ClassNotFoundException {
+        TodoInMemory repo = new TodoInMemory();
+        repo.useFeed(new ChangeFeed(4));
+        ChangeFeed feed = repo.changes();
+        List<ChangeFeed.Batch> delivered = new ArrayList<>();
+        ChangeFeed.Subscription sub = feed.subscribe(feed.seq(), Runnable::run, delivered::add);
+
+        long start = feed.seq();
+        int a = repo.add("a", "", false).id;
+        int b = repo.add("b", "", false).id;
+        repo.update(a, e -> e.withCompleted(true));
+        repo.delete(b);
+
+        ChangeFeed.Batch batch = feed.since(start);
+        assertFalse(batch.reset);
+        assertEquals(start + 4, batch.seq);
+        assertEquals(4, batch.changes.size());
+        assertEquals(ChangeFeed.Change.Kind.INSERTED, batch.changes.get(0).kind);
+        assertEquals(ChangeFeed.Change.Kind.INSERTED, batch.changes.get(1).kind);
+        assertEquals(ChangeFeed.Change.Kind.UPDATED, batch.changes.get(2).kind);
+        assertTrue(batch.changes.get(2).row.completed);
+        assertEquals(ChangeFeed.Change.Kind.DELETED, batch.changes.get(3).kind);
+        assertEquals(b, batch.changes.get(3).row.id);
+        assertTrue(feed.since(batch.seq).changes.isEmpty());
+        assertEquals(4, delivered.size());
+
+        sub.cancel();
+        repo.add("c", "", false);
+        assertEquals(4, delivered.size());
+        assertTrue(feed.since(start).reset);
+        assertEquals(4, feed.since(start + 1).changes.size());
+
+        // a reloaded table has no history
+        TodoInMemory copy = roundTrip(repo);
+        assertEquals(0, copy.changes().seq());
+        assertFalse(copy.changes().since(0).reset);
+    }
+
+    @Test
+    public void applies_bulk_changes_to_every_matching_row() {
+        TodoInMemory repo = new TodoInMemory();
+        List<TodoRepository.Todo> rows = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            rows.add(new TodoRepository.Todo(i, "row " + i, "", i % 3 == 0, null));
+        }
+        repo.putAll(rows);
+        assertEquals(100, repo.size());
+        assertEquals(33, repo.count(true));
+
+        assertEquals(67, repo.updateWhere(e -> !e.completed, e -> e.withCompleted(true)));
+        assertEquals(100, repo.count(true));
+        assertEquals(0, repo.updateWhere(e -> true, e -> e));
+        assertEquals(2, repo.oneWithId(1).version);
+        assertEquals(1, repo.oneWithId(3).version);
+
+        int child = repo.add("child", "", false).id;
+        repo.update(child, e -> e.withParent(50));
+        assertEquals(50, repo.deleteWhere(e -> e.id % 2 == 0));
+        assertEquals(0, repo.oneWithId(child).parent);
+        assertEquals(2, repo.deleteAll(ids(1, 3, 2)));
+        assertEquals(49, repo.size());
+        assertEquals(49, repo.deleteWhere(TodoRepository.TagFilter.ANY));
+        assertTrue(repo.all().isEmpty());
+    }
+
+    static void assertProgress(int done, int total, TodoRepository.Progress progress) {
+        assertEquals(done, progress.done);
+        assertEquals(total, progress.total);
+    }
+
+    static List<TodoRepository.Todo> slowly(TodoRepository repo, TodoRepository.TagFilter filter) {
+        List<TodoRepository.Todo> rows = new ArrayList<>();
+        for (TodoRepository.Todo e : repo.all()) {
+            if (filter.matches(e)) {
+                rows.add(e);
+            }
+        }
+        return rows;
+    }
+
+    static List<Integer> ids(int... ids) {
+        List<Integer> xs = new ArrayList<>();
+        for (int id : ids) {
+            xs.add(id);
+        }
+        return xs;
+    }
+
+    static List<Integer> ids(List<TodoRepository.Todo> rows) {
+        List<Integer> xs = new ArrayList<>();
+        for (TodoRepository.Todo e : rows) {
+            xs.add(e.id);
+        }
+        return xs;
+    }
+
+    static Date day(int n) {
+        return new Date(n * 86_400_000L);
+    }
+
+    static TodoInMemory roundTrip(TodoInMemory repo) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(repo);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (TodoInMemory) in.readObject();
+        }
+    }
+}
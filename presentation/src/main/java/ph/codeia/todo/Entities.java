@@ -0,0 +1,161 @@
+package ph.codeia.todo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ph.codeia.todo.data.TodoRepository;
+
+/**
+ * The latest known copy of the rows that the screens have seen, shared by
+ * the presenters so that one screen can pick up what another one loaded or
+ * changed without asking the repository again.
+ * <p>
+ * Every row is kept once, by id, and a row is only ever replaced by one
+ * with a higher {@link TodoRepository.Todo#version}, so it doesn't matter
+ * in what order the screens report what they have. Versions only go up
+ * between an insert and a delete though, so an insert from the change feed
+ * replaces whatever is there, and a reset of the feed should
+ * {@link #clear()} everything. Every write also gets a store revision, so a
+ * screen can ask for just the writes it hasn't seen.
+ * <p>
+ * This is a cache, not a source of truth. The oldest writes are dropped
+ * past the capacity and the change feed still has the final word.
+ */
+public class Entities {
+
+    public static final class Entity {
+        public final int id;
+        /**
+         * The row, or null if it was deleted.
+         */
+        public final TodoRepository.Todo row;
+        /**
+         * The store revision when this was written.
+         */
+        public final long revision;
+
+        Entity(int id, TodoRepository.Todo row, long revision) {
+            this.id = id;
+            this.row = row;
+            this.revision = revision;
+        }
+    }
+
+    private final int capacity;
+    private final Map<Integer, Entity> byId = new HashMap<>();
+    private final TreeMap<Long, Entity> byRevision = new TreeMap<>();
+    private long revision;
+
+    /**
+     * @param capacity The max number of rows kept.
+     */
+    public Entities(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * O(1)
+     *
+     * @param id A row id.
+     * @return the latest known copy of the row, or null if it's unknown or
+     * was deleted.
+     */
+    public synchronized TodoRepository.Todo get(int id) {
+        Entity e = byId.get(id);
+        return e == null ? null : e.row;
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param row A saved row. Unsaved occurrences are ignored.
+     * @return false if the store already has this version or a later one,
+     * in which case nothing changes.
+     */
+    public synchronized boolean put(TodoRepository.Todo row) {
+        if (row.version == 0) {
+            return false;
+        }
+        Entity e = byId.get(row.id);
+        if (e != null && (e.row == null || e.row.version >= row.version)) {
+            return false;
+        }
+        write(row.id, row);
+        return true;
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param row A row that was just inserted. Replaces the copy or the
+     *            deletion on record whatever its version, because the id
+     *            was either reused or the repository was rolled back.
+     *            Unsaved occurrences are ignored.
+     */
+    public synchronized void insert(TodoRepository.Todo row) {
+        if (row.version > 0) {
+            write(row.id, row);
+        }
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param id The id of a deleted row.
+     */
+    public synchronized void delete(int id) {
+        Entity e = byId.get(id);
+        if (e == null || e.row != null) {
+            write(id, null);
+        }
+    }
+
+    /**
+     * O(n)
+     * <p>
+     * Forgets every row, for when the versions on record can no longer be
+     * compared with the ones in the repository. The revision keeps counting
+     * so that {@link #since(long)} stays valid.
+     */
+    public synchronized void clear() {
+        byId.clear();
+        byRevision.clear();
+    }
+
+    /**
+     * O(1)
+     *
+     * @return the revision of the last write.
+     */
+    public synchronized long revision() {
+        return revision;
+    }
+
+    /**
+     * O(log n + k) for k results.
+     *
+     * @param revision A revision from an earlier call.
+     * @return the rows written after the revision that are still kept,
+     * oldest first.
+     */
+    public synchronized List<Entity> since(long revision) {
+        return new ArrayList<>(byRevision.tailMap(revision, false).values());
+    }
+
+    private void write(int id, TodoRepository.Todo row) {
+        Entity old = byId.get(id);
+        if (old != null) {
+            byRevision.remove(old.revision);
+        }
+        Entity e = new Entity(id, row, ++revision);
+        byId.put(id, e);
+        byRevision.put(e.revision, e);
+        while (byId.size() > capacity) {
+            byId.remove(byRevision.pollFirstEntry().getValue().id);
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package ph.codeia.todo;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ph.codeia.todo.data.Promise;
+
+/**
+ * Lets a unit wait for a repository promise without parking a thread.
+ *
+ * @param <A> The action type.
+ */
+public class Eventually<A> implements Mvp.Eventual<A> {
+
+    public static <A> Eventually<A> of(Promise<A> promise) {
+        return new Eventually<>(promise);
+    }
+
+    private final Promise<A> promise;
+
+    private Eventually(Promise<A> promise) {
+        this.promise = promise;
+    }
+
+    @Override
+    public void whenDone(Runnable block) {
+        promise.whenDone(block);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return promise.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return promise.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return promise.isDone();
+    }
+
+    @Override
+    public A get() throws InterruptedException, ExecutionException {
+        return promise.get();
+    }
+
+    @Override
+    public A get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return promise.get(timeout, unit);
+    }
+
+}
@@ -63,6 +63,17 @@ public interface Mvp {
         S fold(S state, V view);
     }
 
+    /**
+     * A future that says when it's done, so the unit can wait for it without
+     * holding a thread.
+     */
+    interface Eventual<A> extends Future<A> {
+        /**
+         * @param block Called once, in any thread, when the future is done.
+         */
+        void whenDone(Runnable block);
+    }
+
     interface ErrorHandler<V> {
         void handle(Throwable error, V view);
     }
@@ -292,7 +303,7 @@ public interface Mvp {
                     Future<A> future = it.next();
                     it.remove();
                     backlog.willProduceAction();
-                    worker.execute(() -> {
+                    Runnable produce = () -> {
                         try {
                             if (future instanceof RunnableFuture && !future.isDone()) {
                                 ((RunnableFuture) future).run();
@@ -303,7 +314,13 @@ public interface Mvp {
                         } finally {
                             backlog.didProduceAction();
                         }
-                    });
+                    };
+                    if (future instanceof Eventual && !future.isDone()) {
+                        // get() won't block by the time this runs
+                        ((Eventual<A>) future).whenDone(() -> worker.execute(produce));
+                    } else {
+                        worker.execute(produce);
+                    }
                 }
             }
         }
@@ -0,0 +1,133 @@
+package ph.codeia.todo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Maps a large list in contiguous chunks on a pool of threads.
+ * <p>
+ * Each chunk writes to its own output list and the outputs are joined in
+ * chunk order, so the result is in the same order as the input no matter
+ * which thread finishes first. The calling thread works too: it runs every
+ * chunk that no worker has picked up yet before it waits, so this never
+ * deadlocks on a busy or single-threaded pool.
+ * <p>
+ * Lists shorter than the threshold are mapped in the calling thread since
+ * handing them off costs more than it saves.
+ */
+public class Parallel {
+
+    /**
+     * Maps everything in the calling thread.
+     */
+    public static final Parallel SEQUENTIAL = new Parallel(Runnable::run, 1, Integer.MAX_VALUE);
+
+    public interface Step<T, R> {
+        /**
+         * Called from any thread, possibly at the same time as other calls.
+         *
+         * @param x An input element.
+         * @return the output element or null to leave it out.
+         */
+        R apply(T x);
+    }
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int threshold;
+
+    /**
+     * @param executor Where the chunks run besides the calling thread.
+     * @param parallelism The max number of chunks, usually the number of
+     *                    cores.
+     * @param threshold The smallest list that is split up. Also the
+     *                  smallest chunk.
+     */
+    public Parallel(Executor executor, int parallelism, int threshold) {
+        if (parallelism < 1 || threshold < 1) {
+            throw new IllegalArgumentException("parallelism and threshold should be positive");
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.threshold = threshold;
+    }
+
+    /**
+     * O(n/p) wall time for n elements and p chunks, O(n) total work.
+     *
+     * @param xs The input. Must not be changed while this runs.
+     * @param step What to do to each element.
+     * @param <T> The input type.
+     * @param <R> The output type.
+     * @return a new list of the non-null outputs, in input order.
+     * @throws RuntimeException whatever the step threw first in input order.
+     */
+    public <T, R> List<R> map(List<T> xs, Step<T, R> step) {
+        int n = xs.size();
+        int chunks = Math.min(parallelism, n / threshold);
+        if (chunks < 2) {
+            return slice(xs, 0, n, step);
+        }
+        List<FutureTask<List<R>>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int from = (int) ((long) n * i / chunks);
+            int to = (int) ((long) n * (i + 1) / chunks);
+            FutureTask<List<R>> task = new FutureTask<>(() -> slice(xs, from, to, step));
+            tasks.add(task);
+            if (i > 0) {
+                executor.execute(task);
+            }
+        }
+        // FutureTask#run does nothing if the task has already been started
+        // by a worker, so this just takes whatever is left
+        for (FutureTask<List<R>> task : tasks) {
+            task.run();
+        }
+        List<R> result = new ArrayList<>(n);
+        for (FutureTask<List<R>> task : tasks) {
+            result.addAll(join(task));
+        }
+        return result;
+    }
+
+    private static <T, R> List<R> slice(List<T> xs, int from, int to, Step<T, R> step) {
+        List<R> out = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            R y = step.apply(xs.get(i));
+            if (y != null) {
+                out.add(y);
+            }
+        }
+        return out;
+    }
+
+    private static <R> R join(FutureTask<R> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
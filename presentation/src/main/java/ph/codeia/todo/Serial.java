@@ -0,0 +1,45 @@
+package ph.codeia.todo;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one at a time in the order they were submitted, borrowing a
+ * thread from another executor for each.
+ * <p>
+ * This is for work that needs to come out in order but shouldn't tie up a
+ * thread of its own, e.g. diffs on a shared compute pool.
+ */
+public class Serial implements Executor {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor;
+    private Runnable active;
+
+    public Serial(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        tasks.add(() -> {
+            try {
+                task.run();
+            } finally {
+                next();
+            }
+        });
+        if (active == null) {
+            next();
+        }
+    }
+
+    private synchronized void next() {
+        active = tasks.poll();
+        if (active != null) {
+            executor.execute(active);
+        }
+    }
+
+}
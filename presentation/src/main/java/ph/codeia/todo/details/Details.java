@@ -24,6 +24,14 @@ public interface Details {
         String title();
         String description();
         boolean completed();
+        /**
+         * @return the number of subtasks at any depth.
+         */
+        int subtasks();
+        /**
+         * @return the number of completed subtasks at any depth.
+         */
+        int subtasksDone();
     }
 
     interface Action extends Mvp.Action<State, Action, View> {}
@@ -1,31 +1,69 @@
 package ph.codeia.todo.details;
 
+import ph.codeia.todo.Entities;
+import ph.codeia.todo.Eventually;
 import ph.codeia.todo.Mvp;
+import ph.codeia.todo.data.AsyncTodoRepository;
 import ph.codeia.todo.data.TodoRepository;
 
 public class DetailsActions implements Details.Presenter {
 
-    private final TodoRepository repo;
+    /**
+     * The size of the entity store when none is shared.
+     */
+    private static final int ENTITIES = 16;
+
+    private final AsyncTodoRepository io;
     private final int itemId;
+    private final Entities entities;
 
+    /**
+     * The repository calls are made in whatever thread folds the actions.
+     * Meant for tests.
+     */
     public DetailsActions(TodoRepository repo, int itemId) {
-        this.repo = repo;
+        this(new AsyncTodoRepository(repo, Runnable::run), itemId);
+    }
+
+    public DetailsActions(AsyncTodoRepository io, int itemId) {
+        this(io, itemId, new Entities(ENTITIES));
+    }
+
+    /**
+     * @param entities Where the rows are shared with the other screens.
+     */
+    public DetailsActions(AsyncTodoRepository io, int itemId, Entities entities) {
+        this.io = io;
         this.itemId = itemId;
+        this.entities = entities;
     }
 
     @Override
     public Details.Action load() {
-        return (state, view) -> state.async(() -> {
-            TodoRepository.Todo todo = repo.oneWithId(itemId);
-            if (todo == null) {
-                Mvp.Log.E.to(view, "todo not found: #%d", itemId);
-                return back();
-            } else {
-                return (futureState, futureView) -> futureState
-                        .withItem(new Item(todo))
-                        .plus(refresh());
+        return (state, view) -> {
+            TodoRepository.Todo known = entities.get(itemId);
+            if (known != null) {
+                // shown right away, the subtasks and anything the store
+                // missed come with the fetch below
+                Details.Item item = new Item(known, null);
+                view.show(item);
+                state = state.withItem(item);
             }
-        });
+            return state.async(Eventually.of(io.call(repo -> {
+                TodoRepository.Todo todo = repo.oneWithId(itemId);
+                TodoRepository.Progress progress = repo.progress(itemId);
+                if (todo == null) {
+                    Mvp.Log.E.to(view, "todo not found: #%d", itemId);
+                    entities.delete(itemId);
+                    return back();
+                } else {
+                    entities.put(todo);
+                    return (futureState, futureView) -> futureState
+                            .withItem(new Item(todo, progress))
+                            .plus(refresh());
+                }
+            })));
+        };
     }
 
     @Override
@@ -38,21 +76,21 @@ public class DetailsActions implements Details.Presenter {
 
     @Override
     public Details.Action toggleCompleted() {
-        return (state, view) -> state.async(() -> {
-            TodoRepository.Todo todo = repo.oneWithId(itemId);
-            if (todo == null) {
+        return (state, view) -> state.async(Eventually.of(io.call(repo -> {
+            boolean completed = !state.item.completed();
+            TodoRepository.Todo updated = repo.update(itemId, todo -> todo.withCompleted(completed));
+            TodoRepository.Progress progress = repo.progress(itemId);
+            if (updated == null) {
                 Mvp.Log.E.to(view, "todo not found: #%d", itemId);
                 return back();
             } else {
-                TodoRepository.Todo updated = todo
-                        .withCompleted(!state.item.completed());
-                repo.put(updated);
                 Mvp.Log.D.to(view, "updated status : #%d -> %s", itemId, updated.completed);
+                entities.put(updated);
                 return (futureState, futureView) -> futureState
-                        .withItem(new Item(updated))
+                        .withItem(new Item(updated, progress))
                         .plus(refresh());
             }
-        });
+        })));
     }
 
     @Override
@@ -80,10 +118,11 @@ public class DetailsActions implements Details.Presenter {
     }
 
     private Details.Action confirmed() {
-        return (state, view) -> state.async(() -> {
+        return (state, view) -> state.async(Eventually.of(io.call(repo -> {
             repo.delete(itemId);
+            entities.delete(itemId);
             Mvp.Log.D.to(view, "deleted #%d", itemId);
             return back();
-        });
+        })));
     }
 }
@@ -4,9 +4,11 @@ import ph.codeia.todo.data.TodoRepository;
 
 class Item implements Details.Item {
     private final TodoRepository.Todo item;
+    private final TodoRepository.Progress progress;
 
-    Item(TodoRepository.Todo item) {
+    Item(TodoRepository.Todo item, TodoRepository.Progress progress) {
         this.item = item;
+        this.progress = progress;
     }
 
     @Override
@@ -23,4 +25,14 @@ class Item implements Details.Item {
     public boolean completed() {
         return item.completed;
     }
+
+    @Override
+    public int subtasks() {
+        return progress == null ? 0 : progress.total;
+    }
+
+    @Override
+    public int subtasksDone() {
+        return progress == null ? 0 : progress.done;
+    }
 }
@@ -3,8 +3,10 @@ package ph.codeia.todo.index;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import ph.codeia.todo.Mvp;
+import ph.codeia.todo.data.ChangeFeed;
 
 public interface Index {
 
@@ -15,12 +17,61 @@ public interface Index {
         Action add();
         Action deleteAllCompleted();
         Action setCompleted(int id, boolean complete);
+        /**
+         * Puts an item where another item currently is in the display order.
+         */
+        Action move(int id, int targetId);
+        /**
+         * Catches up with the repository changes since the last load.
+         */
+        Action sync();
+        /**
+         * Applies a batch of repository changes to the cache.
+         */
+        Action patch(ChangeFeed.Batch batch);
         Action filter(boolean showCompleted, boolean showActive);
+        Action search(String query);
+        Action filterTags(Set<String> required, Set<String> excluded);
+        Action sortBy(Sort sort);
+        /**
+         * Loads the rows after the cached window, if there are any, and
+         * drops the ones too far before it.
+         */
+        Action next();
+        /**
+         * Loads the rows before the cached window, if there are any, and
+         * drops the ones too far after it.
+         */
+        Action previous();
+        /**
+         * Loads the next or previous window when the view gets close to
+         * either end of the cache.
+         *
+         * @param first The position of the first visible item.
+         * @param last The position of the last visible item.
+         */
+        Action scrolled(int first, int last);
     }
 
     interface View extends Mvp.Debug {
         void tell(String message, Object... fmtArgs);
+        /**
+         * @param items The whole list. Sent before the first patch of a
+         *              presenter, so the patches that come after it are
+         *              numbered from the start again.
+         */
         void show(List<Item> items);
+        /**
+         * Called instead of {@link #show(List)} when the presenter knows
+         * what the view was last shown.
+         *
+         * @param patch The edits from the last list shown to the new one.
+         *              The view should fall back to showing the whole new
+         *              list if it doesn't have the old list anymore, and
+         *              ignore a patch numbered lower than one it already
+         *              has.
+         */
+        void show(ListDiff.Patch patch);
         void spin(boolean busy);
         void confirmDelete(Action onConfirm);
         void goToDetails(int id);
@@ -30,6 +81,11 @@ public interface Index {
     interface Item {
         long id();
         boolean sameAs(Item other);
+        /**
+         * @return a hash of the fields compared by {@link #sameAs(Item)},
+         * computed once. Items with different hashes are never the same.
+         */
+        int contentHash();
         String title();
         /**
          * @return the item's completion status. Not completed is the same as
@@ -37,6 +93,53 @@ public interface Index {
          */
         boolean completed();
         Date created();
+        Set<String> tags();
+    }
+
+    /**
+     * The display orders. Items that tie are shown in the manual order.
+     */
+    enum Sort {
+        /**
+         * The order the user arranged them in.
+         */
+        MANUAL {
+            @Override
+            public int compare(Item a, Item b) {
+                return 0;
+            }
+        },
+        /**
+         * Newest first. Items without a date go last.
+         */
+        NEWEST {
+            @Override
+            public int compare(Item a, Item b) {
+                Date x = a.created();
+                Date y = b.created();
+                if (x == null || y == null) {
+                    return x == y ? 0 : x == null ? 1 : -1;
+                }
+                return y.compareTo(x);
+            }
+        },
+        /**
+         * Alphabetical, ignoring case.
+         */
+        TITLE {
+            @Override
+            public int compare(Item a, Item b) {
+                return String.CASE_INSENSITIVE_ORDER.compare(a.title(), b.title());
+            }
+        },
+        COMPLETED_FIRST {
+            @Override
+            public int compare(Item a, Item b) {
+                return a.completed() == b.completed() ? 0 : a.completed() ? -1 : 1;
+            }
+        };
+
+        public abstract int compare(Item a, Item b);
     }
 
     interface Action extends Mvp.Action<State, Action, View> {
@@ -44,42 +147,123 @@ public interface Index {
     }
 
     class State extends Mvp.BaseState<State, Action> {
-        public static final State ROOT = new State(true, true, false, Collections.emptyList());
+        public static final State ROOT = new State(
+                true, true, false, "",
+                Collections.emptySet(), Collections.emptySet(),
+                ItemList.EMPTY, 0, Sort.MANUAL, false, false);
         public final boolean showCompletedItems;
         public final boolean showActiveItems;
         public final boolean busy;
-        public final List<Item> cache;
+        /**
+         * Only the items matching this are loaded. Empty means everything.
+         */
+        public final String query;
+        /**
+         * Only the items having all of these tags are loaded.
+         */
+        public final Set<String> requiredTags;
+        /**
+         * Only the items having none of these tags are loaded.
+         */
+        public final Set<String> excludedTags;
+        public final ItemList cache;
+        /**
+         * The number of the last repository change that the cache has.
+         */
+        public final long seq;
+        public final Sort sort;
+        /**
+         * There are rows before the cached window.
+         */
+        public final boolean hasPrevious;
+        /**
+         * There are rows after the cached window.
+         */
+        public final boolean hasNext;
 
-        public State(boolean showCompletedItems, boolean showActiveItems, boolean busy, List<Item> cache) {
+        public State(
+                boolean showCompletedItems,
+                boolean showActiveItems,
+                boolean busy,
+                String query,
+                Set<String> requiredTags,
+                Set<String> excludedTags,
+                List<Item> cache,
+                long seq,
+                Sort sort,
+                boolean hasPrevious,
+                boolean hasNext) {
             this.showCompletedItems = showCompletedItems;
             this.showActiveItems = showActiveItems;
             this.busy = busy;
-            this.cache = cache;
+            this.query = query;
+            this.requiredTags = requiredTags;
+            this.excludedTags = excludedTags;
+            this.cache = ItemList.of(cache);
+            this.seq = seq;
+            this.sort = sort;
+            this.hasPrevious = hasPrevious;
+            this.hasNext = hasNext;
         }
 
         public State withCache(List<Index.Item> cache) {
-            return join(new State(showCompletedItems, showActiveItems, busy, cache));
+            return join(new State(showCompletedItems, showActiveItems, busy, query, requiredTags, excludedTags, cache, seq, sort, hasPrevious, hasNext));
         }
 
         public State withCompletedItemsShown(boolean show) {
             if (showCompletedItems == show) {
                 return this;
             }
-            return join(new State(show, showActiveItems, busy, cache));
+            return join(new State(show, showActiveItems, busy, query, requiredTags, excludedTags, cache, seq, sort, hasPrevious, hasNext));
         }
 
         public State withActiveItemsShown(boolean show) {
             if (showActiveItems == show) {
                 return this;
             }
-            return join(new State(showCompletedItems, show, busy, cache));
+            return join(new State(showCompletedItems, show, busy, query, requiredTags, excludedTags, cache, seq, sort, hasPrevious, hasNext));
         }
 
         public State withBusy(boolean busy) {
             if (this.busy == busy) {
                 return this;
             }
-            return join(new State(showCompletedItems, showActiveItems, busy, cache));
+            return join(new State(showCompletedItems, showActiveItems, busy, query, requiredTags, excludedTags, cache, seq, sort, hasPrevious, hasNext));
+        }
+
+        public State withQuery(String query) {
+            if (this.query.equals(query)) {
+                return this;
+            }
+            return join(new State(showCompletedItems, showActiveItems, busy, query, requiredTags, excludedTags, cache, seq, sort, hasPrevious, hasNext));
+        }
+
+        public State withSeq(long seq) {
+            if (this.seq == seq) {
+                return this;
+            }
+            return join(new State(showCompletedItems, showActiveItems, busy, query, requiredTags, excludedTags, cache, seq, sort, hasPrevious, hasNext));
+        }
+
+        public State withSort(Sort sort) {
+            if (this.sort == sort) {
+                return this;
+            }
+            return join(new State(showCompletedItems, showActiveItems, busy, query, requiredTags, excludedTags, cache, seq, sort, hasPrevious, hasNext));
+        }
+
+        public State withWindow(boolean hasPrevious, boolean hasNext) {
+            if (this.hasPrevious == hasPrevious && this.hasNext == hasNext) {
+                return this;
+            }
+            return join(new State(showCompletedItems, showActiveItems, busy, query, requiredTags, excludedTags, cache, seq, sort, hasPrevious, hasNext));
+        }
+
+        public State withTags(Set<String> required, Set<String> excluded) {
+            if (requiredTags.equals(required) && excludedTags.equals(excluded)) {
+                return this;
+            }
+            return join(new State(showCompletedItems, showActiveItems, busy, query, required, excluded, cache, seq, sort, hasPrevious, hasNext));
         }
     }
 
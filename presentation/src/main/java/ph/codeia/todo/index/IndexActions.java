@@ -1,57 +1,481 @@
 package ph.codeia.todo.index;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
+import ph.codeia.todo.Entities;
+import ph.codeia.todo.Eventually;
 import ph.codeia.todo.Mvp;
+import ph.codeia.todo.Parallel;
+import ph.codeia.todo.data.AsyncTodoRepository;
+import ph.codeia.todo.data.ChangeFeed;
+import ph.codeia.todo.data.Clock;
+import ph.codeia.todo.data.Promise;
 import ph.codeia.todo.data.TodoRepository;
 
 public class IndexActions implements Index.Presenter {
 
-    private final TodoRepository repo;
+    private static final int PAGE_SIZE = 256;
 
+    /**
+     * The size of the entity store when none is shared.
+     */
+    private static final int ENTITIES = 256;
+
+    /**
+     * How far ahead the occurrences of recurring tasks are shown.
+     */
+    private static final long UPCOMING_MILLIS = 7 * 86_400_000L;
+
+    private final AsyncTodoRepository io;
+    private final Clock clock;
+    private final Parallel parallel;
+    private final Executor render;
+    /**
+     * The number of rows loaded at a time when windowed, or 0 to load
+     * everything.
+     */
+    private final int window;
+    private final Entities entities;
+    private final Projection visible = new Projection();
+    /**
+     * The last list sent to the view.
+     */
+    private List<Index.Item> shown;
+    /**
+     * The last entity store revision applied to the cache.
+     */
+    private long seen;
+    /**
+     * The number of loads started so far. Only the last one is applied.
+     */
+    private int loads;
+    /**
+     * The number of the load whose pages are still coming in, or 0.
+     */
+    private int streaming;
+    /**
+     * The number of the last patch sent to the view.
+     */
+    private long patches;
+
+    /**
+     * The repository calls are made in whatever thread folds the actions.
+     * Meant for tests.
+     */
     public IndexActions(TodoRepository repo) {
-        this.repo = repo;
+        this(repo, Clock.SYSTEM);
+    }
+
+    /**
+     * The repository calls are made in whatever thread folds the actions.
+     * Meant for tests.
+     */
+    public IndexActions(TodoRepository repo, Clock clock) {
+        this(new AsyncTodoRepository(repo, Runnable::run), clock);
+    }
+
+    public IndexActions(AsyncTodoRepository io, Clock clock) {
+        this(io, clock, Parallel.SEQUENTIAL);
+    }
+
+    public IndexActions(AsyncTodoRepository io, Clock clock, Parallel parallel) {
+        this(io, clock, parallel, Runnable::run);
+    }
+
+    public IndexActions(AsyncTodoRepository io, Clock clock, Parallel parallel, Executor render) {
+        this(io, clock, parallel, render, 0);
+    }
+
+    /**
+     * @param parallel Where the loaded rows are turned into items. Only
+     *                 pays off for lists in the thousands.
+     * @param render Where the visible list is diffed. The patches are
+     *               numbered, so the view can drop the ones that arrive
+     *               late no matter how many run at a time.
+     * @param window The number of rows to load at a time in manual order
+     *               with no search or tag filter, or 0 to always load
+     *               everything. At most 3 windows are kept.
+     */
+    public IndexActions(
+            AsyncTodoRepository io,
+            Clock clock,
+            Parallel parallel,
+            Executor render,
+            int window) {
+        this(io, clock, parallel, render, window, new Entities(ENTITIES));
+    }
+
+    /**
+     * @param entities Where the rows are shared with the other screens.
+     */
+    public IndexActions(
+            AsyncTodoRepository io,
+            Clock clock,
+            Parallel parallel,
+            Executor render,
+            int window,
+            Entities entities) {
+        this.io = io;
+        this.clock = clock;
+        this.parallel = parallel;
+        this.render = render;
+        this.window = window;
+        this.entities = entities;
     }
 
     @Override
     public Index.Action refresh() {
         return (state, view) -> {
-            List<Index.Item> visible = new ArrayList<>();
-            for (Index.Item e : state.cache) {
-                if (state.showCompletedItems && e.completed()) {
-                    visible.add(e);
+            view.spin(state.busy);
+            List<Index.Item> next = visible.of(state);
+            List<Index.Item> last = swapShown(next);
+            if (last == null) {
+                view.show(next);
+                return state;
+            }
+            if (last == next) {
+                return state;
+            }
+            // the patch can reach the view after a later one, the number
+            // tells the view which one is newer
+            long seq = nextPatch();
+            Promise<Index.Action> patched = new Promise<>();
+            render.execute(() -> {
+                try {
+                    ListDiff.Patch patch = ListDiff.between(last, next, seq);
+                    patched.resolve((futureState, futureView) -> {
+                        futureView.show(patch);
+                        return futureState;
+                    });
+                } catch (RuntimeException e) {
+                    patched.reject(e);
+                }
+            });
+            return state.async(Eventually.of(patched));
+        };
+    }
+
+    @Override
+    public Index.Action load() {
+        return (state, view) -> {
+            view.spin(true);
+            int load = startLoad();
+            Index.State loaded = state;
+            String query = state.query;
+            TodoRepository.TagFilter tags = TodoRepository.TagFilter.ANY
+                    .withAllOf(state.requiredTags)
+                    .withNoneOf(state.excludedTags);
+            boolean tagged = !state.requiredTags.isEmpty() || !state.excludedTags.isEmpty();
+            if (window > 0 && query.isEmpty() && !tagged && state.sort == Index.Sort.MANUAL) {
+                return state.withBusy(true).async(Eventually.of(io.call(repo -> {
+                    long seq = repo.changes().seq();
+                    List<TodoRepository.Todo> rows = repo.ordered(0, window);
+                    boolean more = rows.size() == window;
+                    List<Index.Item> items = parallel.map(more ? rows : upcoming(repo, rows), Item::new);
+                    return (futureState, futureView) -> !isLatest(load, loaded, futureState)
+                            ? futureState
+                            : futureState
+                                    .withBusy(false)
+                                    .withCache(items)
+                                    .withSeq(seq)
+                                    .withWindow(false, more)
+                                    .plus(refresh());
+                })));
+            }
+            return state.withBusy(true).async(Eventually.of(io.call(repo -> {
+                // anything after this is caught by the next sync
+                long seq = repo.changes().seq();
+                List<TodoRepository.Todo> rows;
+                boolean more = false;
+                if (!query.isEmpty()) {
+                    rows = repo.search(query);
+                } else if (tagged) {
+                    rows = repo.tagged(tags);
+                } else {
+                    // the rest is streamed in after this page is shown
+                    rows = repo.ordered(0, PAGE_SIZE);
+                    more = rows.size() == PAGE_SIZE;
+                    if (!more) {
+                        rows = upcoming(repo, rows);
+                    }
                 }
-                if (state.showActiveItems && !e.completed()) {
-                    visible.add(e);
+                boolean filter = !query.isEmpty();
+                boolean streamed = more;
+                List<TodoRepository.Todo> page = rows;
+                List<Index.Item> items = parallel.map(rows, e ->
+                        filter && !tags.matches(e) ? null : new Item(e));
+                return (futureState, futureView) -> {
+                    if (!isLatest(load, loaded, futureState)) {
+                        return futureState;
+                    }
+                    Index.State next = futureState
+                            .withBusy(streamed)
+                            .withCache(items)
+                            .withSeq(seq)
+                            .withWindow(false, false)
+                            .plus(refresh());
+                    if (!streamed) {
+                        return next;
+                    }
+                    startStream(load);
+                    return stream(next, load, loaded, 0, page, seq);
+                };
+            })));
+        };
+    }
+
+    /**
+     * Queues the read of the page after the given one, which queues the next
+     * one when it's applied until there are no more. Every page is shown as
+     * soon as it arrives.
+     * <p>
+     * The pages are not read from one snapshot. Each one starts after the
+     * last row of the one before that still exists, so deletions don't shift
+     * the rest, but a row that was moved in between might show up in two
+     * pages or in none, and the changes that were applied while streaming
+     * might be overwritten by an older page. So when the last page is in,
+     * every change since the first page is replayed over the whole list.
+     *
+     * @param start The position of the last page read.
+     * @param previous The rows of the last page read.
+     * @param seq The change feed position before the first page was read.
+     */
+    private Index.State stream(
+            Index.State state,
+            int load,
+            Index.State loaded,
+            int start,
+            List<TodoRepository.Todo> previous,
+            long seq) {
+        return state.async(Eventually.of(io.call(repo -> {
+            // where the rows after it moved to if the whole page is gone
+            int from = start;
+            for (int i = previous.size() - 1; i >= 0; i--) {
+                int at = repo.positionOf(previous.get(i).id);
+                if (at != -1) {
+                    from = at + 1;
+                    break;
                 }
             }
-            view.show(visible);
-            view.spin(state.busy);
-            return state;
+            int position = from;
+            List<TodoRepository.Todo> rows = repo.ordered(position, PAGE_SIZE);
+            boolean more = rows.size() == PAGE_SIZE;
+            List<Index.Item> items = parallel.map(more ? rows : upcoming(repo, rows), Item::new);
+            return (futureState, futureView) -> {
+                if (!isLatest(load, loaded, futureState)) {
+                    return futureState;
+                }
+                Index.State next = futureState.withCache(appended(futureState.cache, items));
+                if (more) {
+                    return stream(next.plus(refresh()), load, loaded, position, rows, seq);
+                }
+                endStream(load);
+                return next.withBusy(false).withSeq(seq).plus(sync());
+            };
+        })));
+    }
+
+    @Override
+    public Index.Action next() {
+        return (state, view) -> {
+            if (!state.hasNext || state.busy) {
+                return state;
+            }
+            ItemList cache = state.cache;
+            int load = currentLoad();
+            view.spin(true);
+            return state.withBusy(true).async(Eventually.of(io.call(repo -> {
+                int from = 0;
+                for (int i = cache.size() - 1; i >= 0; i--) {
+                    int at = repo.positionOf((int) cache.get(i).id());
+                    if (at != -1) {
+                        from = at + 1;
+                        break;
+                    }
+                }
+                List<TodoRepository.Todo> rows = repo.ordered(from, window);
+                boolean more = rows.size() == window;
+                List<Index.Item> items = parallel.map(more ? rows : upcoming(repo, rows), Item::new);
+                return (futureState, futureView) -> {
+                    if (!isLatest(load, state, futureState)) {
+                        // the load that replaced the windows clears busy
+                        return futureState;
+                    }
+                    ItemList loaded = futureState.cache;
+                    for (Index.Item e : items) {
+                        loaded = loaded.put(e);
+                    }
+                    boolean dropped = false;
+                    while (loaded.size() > 3 * window) {
+                        loaded = loaded.without(loaded.get(0).id());
+                        dropped = true;
+                    }
+                    return futureState
+                            .withBusy(false)
+                            .withCache(loaded)
+                            .withWindow(futureState.hasPrevious || dropped, more)
+                            .plus(refresh());
+                };
+            })));
         };
     }
 
     @Override
-    public Index.Action load() {
+    public Index.Action previous() {
         return (state, view) -> {
+            if (!state.hasPrevious || state.busy) {
+                return state;
+            }
+            ItemList cache = state.cache;
+            int load = currentLoad();
             view.spin(true);
-            return state.withBusy(true).async(() -> {
-                List<Index.Item> items = new ArrayList<>();
-                for (TodoRepository.Todo e : repo.all()) {
-                    items.add(new Item(e));
+            return state.withBusy(true).async(Eventually.of(io.call(repo -> {
+                int to = 0;
+                for (Index.Item e : cache) {
+                    int at = repo.positionOf((int) e.id());
+                    if (at != -1) {
+                        to = at;
+                        break;
+                    }
                 }
-                return (futureState, futureView) -> futureState
-                        .withBusy(false)
-                        .withCache(items)
-                        .plus(refresh());
-            });
+                int from = Math.max(0, to - window);
+                List<Index.Item> items = parallel.map(repo.ordered(from, to - from), Item::new);
+                return (futureState, futureView) -> {
+                    if (!isLatest(load, state, futureState)) {
+                        // the load that replaced the windows clears busy
+                        return futureState;
+                    }
+                    List<Index.Item> joined = new ArrayList<>(items);
+                    for (Index.Item e : futureState.cache) {
+                        if (joined.size() == 3 * window) {
+                            break;
+                        }
+                        joined.add(e);
+                    }
+                    boolean dropped = joined.size() < items.size() + futureState.cache.size();
+                    return futureState
+                            .withBusy(false)
+                            .withCache(joined)
+                            .withWindow(from > 0, futureState.hasNext || dropped)
+                            .plus(refresh());
+                };
+            })));
+        };
+    }
+
+    @Override
+    public Index.Action scrolled(int first, int last) {
+        return (state, view) -> {
+            if (state.busy) {
+                return state;
+            }
+            int margin = window / 2;
+            if (state.hasNext && last >= visible.of(state).size() - margin) {
+                return state.plus(next());
+            }
+            if (state.hasPrevious && first < margin) {
+                return state.plus(previous());
+            }
+            return state;
+        };
+    }
+
+    @Override
+    public Index.Action sync() {
+        return (state, view) -> {
+            long since = state.seq;
+            // what the other screens did is applied right away, the feed
+            // catches whatever they didn't see
+            return caughtUp(state)
+                    .plus(refresh())
+                    .async(Eventually.of(io.call(repo -> patch(repo.changes().since(since)))));
+        };
+    }
+
+    @Override
+    public Index.Action patch(ChangeFeed.Batch batch) {
+        return (state, view) -> {
+            if (batch.reset) {
+                // the versions on record may be ahead of the repository now
+                entities.clear();
+                return state.plus(load());
+            }
+            if (batch.seq <= state.seq) {
+                return state.plus(refresh());
+            }
+            // only the last change to a row matters, and whether it's new
+            Map<Integer, ChangeFeed.Change> latest = new LinkedHashMap<>();
+            Set<Integer> inserted = new HashSet<>();
+            for (ChangeFeed.Change c : batch.changes) {
+                if (c.seq > state.seq) {
+                    latest.put(c.row.id, c);
+                    if (c.kind == ChangeFeed.Change.Kind.INSERTED) {
+                        inserted.add(c.row.id);
+                    }
+                }
+            }
+            TodoRepository.TagFilter tags = TodoRepository.TagFilter.ANY
+                    .withAllOf(state.requiredTags)
+                    .withNoneOf(state.excludedTags);
+            ItemList items = state.cache;
+            for (ChangeFeed.Change c : latest.values()) {
+                if (c.kind == ChangeFeed.Change.Kind.DELETED) {
+                    entities.delete(c.row.id);
+                } else if (inserted.contains(c.row.id)) {
+                    entities.insert(c.row);
+                } else {
+                    entities.put(c.row);
+                }
+                if (c.kind == ChangeFeed.Change.Kind.DELETED || !tags.matches(c.row)) {
+                    items = items.without(c.row.id);
+                } else if (!state.query.isEmpty() && !sameText(items.byId(c.row.id), c.row)) {
+                    // can't tell if it matches without asking the index
+                    return state.plus(load());
+                } else if (items.byId(c.row.id) != null) {
+                    items = items.put(new Item(c.row));
+                } else if (isStreaming()) {
+                    // it comes with its page or when the last page replays
+                    // the changes
+                    continue;
+                } else if (inserted.contains(c.row.id)) {
+                    if (state.hasNext) {
+                        // it will be loaded with its window
+                        continue;
+                    }
+                    // new rows are ranked last
+                    items = items.put(new Item(c.row));
+                } else if (state.hasPrevious || state.hasNext) {
+                    // an old row outside the windows, it will be loaded
+                    // with its window
+                    continue;
+                } else {
+                    // an edit made it match the filter, only the repository
+                    // knows where it goes
+                    return state.plus(load());
+                }
+            }
+            return state
+                    .withCache(items)
+                    .withSeq(batch.seq)
+                    .plus(refresh());
         };
     }
 
     @Override
     public Index.Action details(int id) {
         return (state, view) -> {
+            Index.Item e = state.cache.byId(id);
+            if (e instanceof Item) {
+                entities.put(((Item) e).row());
+            }
             view.goToDetails(id);
             return state;
         };
@@ -69,27 +493,60 @@ public class IndexActions implements Index.Presenter {
     public Index.Action setCompleted(int id, boolean value) {
         return (state, view) -> {
             view.spin(true);
-            return state.withBusy(true).async(() -> {
-                TodoRepository.Todo todo = repo.oneWithId(id);
-                if (todo == null) {
+            return state.withBusy(true).async(Eventually.of(io.call(repo -> {
+                TodoRepository.Todo e = repo.update(id, todo -> todo.withCompleted(value));
+                if (e == null) {
                     Mvp.Log.E.to(view, "no such id: %d", id);
                     return idle();
-                } else if (value == todo.completed) {
-                    return idle();
                 } else {
-                    TodoRepository.Todo e = todo.withCompleted(value);
-                    repo.put(e);
                     Mvp.Log.D.to(view, "saved #%d: %s", e.id, e.title);
+                    entities.put(e);
                     return (futureState, futureView) -> {
-                        List<Index.Item> items = futureState.cache;
-                        int i = find(items, id);
-                        if (i != -1) {
-                            items.set(i, new Item(e));
+                        ItemList items = futureState.cache;
+                        if (items.byId(id) != null) {
+                            items = items.put(new Item(e));
                         }
-                        return futureState.withBusy(false).plus(refresh());
+                        return futureState
+                                .withCache(items)
+                                .withBusy(false)
+                                .plus(refresh());
                     };
                 }
-            });
+            })));
+        };
+    }
+
+    @Override
+    public Index.Action move(int id, int targetId) {
+        return (state, view) -> {
+            if (state.sort != Index.Sort.MANUAL) {
+                view.tell("Items can only be rearranged in manual order.");
+                return state.plus(refresh());
+            }
+            view.spin(true);
+            return state.withBusy(true).async(Eventually.of(io.call(repo -> {
+                int position = repo.positionOf(targetId);
+                TodoRepository.Todo e = position == -1 ? null : repo.move(id, position);
+                if (e == null) {
+                    Mvp.Log.E.to(view, "cannot move #%d to #%d", id, targetId);
+                    return idle();
+                }
+                Mvp.Log.D.to(view, "moved #%d to %d", id, position);
+                entities.put(e);
+                return (futureState, futureView) -> {
+                    ItemList items = futureState.cache;
+                    int i = items.positionOf(id);
+                    if (i != -1) {
+                        items = items.without(id);
+                        int j = items.positionOf(targetId);
+                        items = items.insert(j == -1 ? i : i <= j ? j + 1 : j, new Item(e));
+                    }
+                    return futureState
+                            .withCache(items)
+                            .withBusy(false)
+                            .plus(refresh());
+                };
+            })));
         };
     }
 
@@ -109,27 +566,228 @@ public class IndexActions implements Index.Presenter {
                 .plus(refresh());
     }
 
+    @Override
+    public Index.Action search(String query) {
+        return (state, view) -> {
+            String q = query == null ? "" : query.trim();
+            if (q.equals(state.query)) {
+                return state;
+            }
+            return state.withQuery(q).plus(load());
+        };
+    }
+
+    @Override
+    public Index.Action filterTags(Set<String> required, Set<String> excluded) {
+        return (state, view) -> {
+            Set<String> all = required == null ? Collections.<String>emptySet() : required;
+            Set<String> none = excluded == null ? Collections.<String>emptySet() : excluded;
+            if (all.equals(state.requiredTags) && none.equals(state.excludedTags)) {
+                return state;
+            }
+            return state.withTags(all, none).plus(load());
+        };
+    }
+
+    @Override
+    public Index.Action sortBy(Index.Sort sort) {
+        return (state, view) -> {
+            if (sort != Index.Sort.MANUAL && (state.hasPrevious || state.hasNext)) {
+                // can't sort what's not there
+                return state.withSort(sort).plus(load());
+            }
+            return state.withSort(sort).plus(refresh());
+        };
+    }
+
     private Index.Action onConfirm() {
         return (state, view) -> {
             view.spin(true);
-            return state.withBusy(true).async(() -> {
-                int count = 0;
-                try (TodoRepository.Transactional r = repo.transact()) {
-                    for (Index.Item e : state.cache) if (e.completed()) {
-                        r.delete((int) e.id());
-                        Mvp.Log.D.to(view, "deleted #%d: %s", e.id(), e.title());
-                        count++;
-                    }
+            // every completed row that passes the screen's filters, even the
+            // ones in windows that aren't loaded yet. Rows hidden by a search
+            // or by the tags are kept.
+            boolean searching = !state.query.isEmpty();
+            List<Integer> ids = new ArrayList<>();
+            if (searching) {
+                // only the text index knows what matches, so stick to what
+                // was loaded
+                for (Index.Item e : state.cache.filtered(true, false)) {
+                    ids.add((int) e.id());
                 }
-                final int deleted = count;
+            }
+            TodoRepository.Where tags = TodoRepository.TagFilter.ANY
+                    .withAllOf(state.requiredTags)
+                    .withNoneOf(state.excludedTags);
+            return state.withBusy(true).async(Eventually.of(io.call(repo -> {
+                int deleted = searching
+                        ? repo.deleteAll(ids)
+                        : repo.deleteWhere(row -> row.completed && tags.matches(row));
+                Mvp.Log.D.to(view, "deleted %d completed rows", deleted);
                 return (futureState, futureView) -> {
                     futureView.tell("Deleted %d items.", deleted);
-                    return futureState.plus(load());
+                    return futureState.withBusy(false).plus(sync());
                 };
-            });
+            })));
         };
     }
 
+    /**
+     * @param rows The saved rows in display order, up to the last one.
+     * @return the rows followed by the upcoming occurrences that weren't
+     * saved yet.
+     */
+    private List<TodoRepository.Todo> upcoming(
+            TodoRepository repo,
+            List<TodoRepository.Todo> rows) {
+        List<TodoRepository.Todo> all = new ArrayList<>(rows);
+        long now = clock.now();
+        Date until = new Date(now + UPCOMING_MILLIS);
+        for (TodoRepository.Todo e : repo.occurrences(new Date(now), until)) {
+            // the saved ones are already in the rows
+            if (e.version == 0) {
+                all.add(e);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * O(k log n) for k unseen writes.
+     *
+     * @return the state with the cached rows replaced by the newer copies
+     * that the other screens put in the entity store since the last call.
+     * Rows that aren't cached are left out since there's no telling where
+     * they go. So are the rows whose text changed during a search; the feed
+     * reloads the results for those.
+     */
+    private Index.State caughtUp(Index.State state) {
+        List<Entities.Entity> changed = unseen();
+        if (changed.isEmpty()) {
+            return state;
+        }
+        TodoRepository.TagFilter tags = TodoRepository.TagFilter.ANY
+                .withAllOf(state.requiredTags)
+                .withNoneOf(state.excludedTags);
+        ItemList items = state.cache;
+        for (Entities.Entity e : changed) {
+            Index.Item cached = items.byId(e.id);
+            if (cached == null) {
+                continue;
+            }
+            if (e.row == null || !tags.matches(e.row)) {
+                items = items.without(e.id);
+            } else if (!state.query.isEmpty() && !sameText(cached, e.row)) {
+                // it might not match anymore; the feed will reload the
+                // results
+                continue;
+            } else if (!(cached instanceof Item) || ((Item) cached).row().version < e.row.version) {
+                items = items.put(new Item(e.row));
+            }
+        }
+        return state.withCache(items);
+    }
+
+    /**
+     * @return true if the row would match the same queries as the cached
+     * item, i.e. its title and description didn't change.
+     */
+    private static boolean sameText(Index.Item cached, TodoRepository.Todo row) {
+        if (!(cached instanceof Item)) {
+            return false;
+        }
+        TodoRepository.Todo old = ((Item) cached).row();
+        return eq(old.title, row.title) && eq(old.description, row.description);
+    }
+
+    private static boolean eq(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private synchronized List<Entities.Entity> unseen() {
+        List<Entities.Entity> changed = entities.since(seen);
+        if (!changed.isEmpty()) {
+            seen = changed.get(changed.size() - 1).revision;
+        }
+        return changed;
+    }
+
+    /**
+     * O(k log n) for k items.
+     *
+     * @return the list with the items moved to the end in order. A cached
+     * row that is newer than the one in the page is kept.
+     */
+    private static ItemList appended(ItemList cache, List<Index.Item> items) {
+        for (Index.Item e : items) {
+            Index.Item cached = cache.byId(e.id());
+            if (cached instanceof Item && e instanceof Item
+                    && ((Item) cached).row().version > ((Item) e).row().version) {
+                e = cached;
+            }
+            cache = cache.without(e.id());
+            cache = cache.insert(cache.size(), e);
+        }
+        return cache;
+    }
+
+    private synchronized int startLoad() {
+        return ++loads;
+    }
+
+    /**
+     * @return the number of the load that the cache came from, for the
+     * fetches that add to it.
+     */
+    private synchronized int currentLoad() {
+        return loads;
+    }
+
+    /**
+     * A search is started on every keystroke and the results can come back
+     * in any order, so a load that finishes late must not overwrite the
+     * results of a later one.
+     *
+     * @param load The number from {@link #startLoad()}, or from
+     *             {@link #currentLoad()} for a window fetch.
+     * @param loaded The state the load was started from.
+     * @param now The state the result would be applied to.
+     * @return true if no load was started after this one and the state
+     * still asks for the same rows.
+     */
+    private synchronized boolean isLatest(int load, Index.State loaded, Index.State now) {
+        return load == loads
+                && loaded.query.equals(now.query)
+                && loaded.requiredTags.equals(now.requiredTags)
+                && loaded.excludedTags.equals(now.excludedTags);
+    }
+
+    private synchronized void startStream(int load) {
+        streaming = load;
+    }
+
+    private synchronized void endStream(int load) {
+        if (streaming == load) {
+            streaming = 0;
+        }
+    }
+
+    /**
+     * @return true if the pages of the last load are still coming in.
+     */
+    private synchronized boolean isStreaming() {
+        return streaming != 0 && streaming == loads;
+    }
+
+    private synchronized long nextPatch() {
+        return ++patches;
+    }
+
+    private synchronized List<Index.Item> swapShown(List<Index.Item> next) {
+        List<Index.Item> last = shown;
+        shown = next;
+        return last;
+    }
+
     private static Index.Action idle() {
         return (state, view) -> {
             view.spin(false);
@@ -137,15 +795,4 @@ public class IndexActions implements Index.Presenter {
         };
     }
 
-    private static int find(List<Index.Item> xs, int id) {
-        int i = -1;
-        for (Index.Item x : xs) {
-            i++;
-            if (id == x.id()) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
 }
@@ -2,15 +2,22 @@ package ph.codeia.todo.index;
 
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.Set;
 
 import ph.codeia.todo.data.TodoRepository;
 
 class Item implements Index.Item {
 
     private final TodoRepository.Todo todo;
+    private final int contentHash;
 
     Item(TodoRepository.Todo todo) {
         this.todo = todo;
+        contentHash = 31 * todo.title.hashCode() + (todo.completed ? 1 : 0);
+    }
+
+    TodoRepository.Todo row() {
+        return todo;
     }
 
     @Override
@@ -20,7 +27,14 @@ class Item implements Index.Item {
 
     @Override
     public boolean sameAs(Index.Item other) {
-        return completed() == other.completed() && title().equals(other.title());
+        return contentHash == other.contentHash()
+                && completed() == other.completed()
+                && title().equals(other.title());
+    }
+
+    @Override
+    public int contentHash() {
+        return contentHash;
     }
 
     @Override
@@ -38,6 +52,11 @@ class Item implements Index.Item {
         return todo.created;
     }
 
+    @Override
+    public Set<String> tags() {
+        return todo.tags;
+    }
+
     @Override
     public String toString() {
         char mark = completed() ? 'x' : ' ';
@@ -0,0 +1,670 @@
+package ph.codeia.todo.index;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable list of items that can also be looked up by id.
+ * <p>
+ * Every change returns a new list that shares all but O(log n) nodes with
+ * the old one, so each state can have its own version of the cache without
+ * copying it and without anyone changing it from under another thread.
+ * <p>
+ * The items are kept in a treap keyed by a sparse sort key, the same trick
+ * as the manual order of the rows: a new item gets a key halfway between its
+ * neighbours and the keys are only spread out again when a gap runs out. A
+ * second treap maps the ids to the sort keys. Lookups, updates and inserts
+ * are O(log n) expected.
+ * <p>
+ * Every node also counts the completed items under it, so the items with a
+ * given status can be viewed as a list in O(1) and indexed in O(log n)
+ * without copying them out.
+ * <p>
+ * The list also keeps a treap for every other {@link Index.Sort}, ordered by
+ * the sort and then by the sort key. Every change updates all of them, which
+ * is still O(log n), so a list in any order is always ready.
+ */
+public final class ItemList extends AbstractList<Index.Item> {
+
+    private static final long GAP = 1L << 32;
+
+    private static final Index.Sort[] SORTS = Index.Sort.values();
+
+    public static final ItemList EMPTY = new ItemList(null, null, new Node[SORTS.length]);
+
+    /**
+     * A persistent treap node. The priority is derived from the key so the
+     * same keys always make the same shape.
+     */
+    private static final class Node {
+        final long key;
+        final Object value;
+        final Node left;
+        final Node right;
+        final int size;
+        /**
+         * The number of completed items in this subtree.
+         */
+        final int done;
+
+        Node(long key, Object value, Node left, Node right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            size = 1 + size(left) + size(right);
+            done = (isDone(value) ? 1 : 0) + done(left) + done(right);
+        }
+
+        Node with(Node left, Node right) {
+            return new Node(key, value, left, right);
+        }
+    }
+
+    /**
+     * Sort key to item.
+     */
+    private final Node items;
+    /**
+     * Item id to sort key.
+     */
+    private final Node keys;
+    /**
+     * The items in each sort order, indexed by ordinal. The manual order is
+     * {@link #items} so its slot is empty.
+     */
+    private final Node[] views;
+
+    private ItemList(Node items, Node keys, Node[] views) {
+        this.items = items;
+        this.keys = keys;
+        this.views = views;
+    }
+
+    /**
+     * O(n log n), or O(1) if it's already an ItemList.
+     *
+     * @param items Items with distinct ids. Later duplicates replace the
+     *              earlier ones in place.
+     * @return a list with the same items in the same order.
+     */
+    public static ItemList of(Collection<? extends Index.Item> items) {
+        if (items instanceof ItemList) {
+            return (ItemList) items;
+        }
+        Node byKey = null;
+        Node byId = null;
+        long key = 0;
+        for (Index.Item e : items) {
+            Node existing = find(byId, e.id());
+            if (existing != null) {
+                long k = (Long) existing.value;
+                byKey = put(byKey, k, e);
+            } else {
+                key += GAP;
+                byKey = put(byKey, key, e);
+                byId = put(byId, e.id(), key);
+            }
+        }
+        return new ItemList(byKey, byId, sortAll(byKey));
+    }
+
+    /**
+     * O(log n)
+     */
+    @Override
+    public Index.Item get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+        }
+        return (Index.Item) at(items, index).value;
+    }
+
+    /**
+     * O(1)
+     */
+    @Override
+    public int size() {
+        return size(items);
+    }
+
+    /**
+     * O(n) for the whole walk.
+     */
+    @Override
+    public Iterator<Index.Item> iterator() {
+        return walk(items);
+    }
+
+    private static Iterator<Index.Item> walk(Node root) {
+        Deque<Node> stack = new ArrayDeque<>();
+        for (Node n = root; n != null; n = n.left) {
+            stack.push(n);
+        }
+        return new Iterator<Index.Item>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Index.Item next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node n = stack.pop();
+                for (Node m = n.right; m != null; m = m.left) {
+                    stack.push(m);
+                }
+                return (Index.Item) n.value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * O(1)
+     *
+     * @return the number of completed items.
+     */
+    public int completedCount() {
+        return done(items);
+    }
+
+    /**
+     * O(1)
+     *
+     * @param completed Include the completed items.
+     * @param active Include the items that aren't completed.
+     * @return a read-only view of the items with either status, in order.
+     * Indexing it is O(log n).
+     */
+    public List<Index.Item> filtered(boolean completed, boolean active) {
+        return filtered(Index.Sort.MANUAL, completed, active);
+    }
+
+    /**
+     * O(1)
+     *
+     * @param sort The order of the view.
+     * @param completed Include the completed items.
+     * @param active Include the items that aren't completed.
+     * @return a read-only view of the items with either status, in the
+     * given order. Indexing it is O(log n).
+     */
+    public List<Index.Item> filtered(Index.Sort sort, boolean completed, boolean active) {
+        boolean manual = sort == Index.Sort.MANUAL;
+        if (manual && completed && active) {
+            return this;
+        }
+        if (!completed && !active) {
+            return Collections.emptyList();
+        }
+        return new View(manual ? items : views[sort.ordinal()], completed, active);
+    }
+
+    /**
+     * The items with the given statuses in the order of a tree.
+     */
+    private static final class View extends AbstractList<Index.Item> {
+        private final Node root;
+        private final boolean completed;
+        private final boolean active;
+        private final int size;
+
+        View(Node root, boolean completed, boolean active) {
+            this.root = root;
+            this.completed = completed;
+            this.active = active;
+            size = count(root);
+        }
+
+        @Override
+        public Index.Item get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+            }
+            Node n = root;
+            while (true) {
+                int left = count(n.left);
+                int self = includes(n.value) ? 1 : 0;
+                if (index < left) {
+                    n = n.left;
+                } else if (index < left + self) {
+                    return (Index.Item) n.value;
+                } else {
+                    index -= left + self;
+                    n = n.right;
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Index.Item> iterator() {
+            Iterator<Index.Item> all = walk(root);
+            return new Iterator<Index.Item>() {
+                Index.Item next = advance();
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Index.Item next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Index.Item e = next;
+                    next = advance();
+                    return e;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                private Index.Item advance() {
+                    while (all.hasNext()) {
+                        Index.Item e = all.next();
+                        if (e.completed() ? completed : active) {
+                            return e;
+                        }
+                    }
+                    return null;
+                }
+            };
+        }
+
+        private boolean includes(Object value) {
+            return isDone(value) ? completed : active;
+        }
+
+        private int count(Node n) {
+            int done = completed ? done(n) : 0;
+            int rest = active ? ItemList.size(n) - done(n) : 0;
+            return done + rest;
+        }
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param id An item id.
+     * @return the item with the id or null.
+     */
+    public Index.Item byId(long id) {
+        Node k = find(keys, id);
+        return k == null ? null : (Index.Item) find(items, (Long) k.value).value;
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param id An item id.
+     * @return the position of the item or -1 if absent.
+     */
+    public int positionOf(long id) {
+        Node k = find(keys, id);
+        return k == null ? -1 : rank(items, (Long) k.value);
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param item The item to add or replace.
+     * @return a list where the item with the same id is replaced in place,
+     * or where the item is at the end if there was none.
+     */
+    public ItemList put(Index.Item item) {
+        Node k = find(keys, item.id());
+        if (k != null) {
+            long key = (Long) k.value;
+            Index.Item old = (Index.Item) find(items, key).value;
+            return new ItemList(put(items, key, item), keys, resorted(key, old, key, item));
+        }
+        return insert(size(), item);
+    }
+
+    /**
+     * O(log n) unless the keys around the position need to be spread out,
+     * which is O(n) and rare.
+     *
+     * @param position Where the item goes, from 0 to size() inclusive. An
+     *                 item with the same id is removed first.
+     * @param item The item to insert.
+     * @return a list with the item at the position.
+     */
+    public ItemList insert(int position, Index.Item item) {
+        ItemList base = without(item.id());
+        if (position < 0 || position > base.size()) {
+            throw new IndexOutOfBoundsException("position: " + position + ", size: " + base.size());
+        }
+        long lo = position == 0 ? 0 : at(base.items, position - 1).key;
+        long hi = position == base.size() ? lo + 2 * GAP : at(base.items, position).key;
+        if (hi - lo < 2) {
+            return respaced(base, position, item);
+        }
+        long key = lo + (hi - lo) / 2;
+        return new ItemList(
+                put(base.items, key, item),
+                put(base.keys, item.id(), key),
+                base.resorted(0, null, key, item));
+    }
+
+    /**
+     * O(log n)
+     *
+     * @param id An item id.
+     * @return a list without the item, or this if it wasn't there.
+     */
+    public ItemList without(long id) {
+        Node k = find(keys, id);
+        if (k == null) {
+            return this;
+        }
+        long key = (Long) k.value;
+        Index.Item old = (Index.Item) find(items, key).value;
+        return new ItemList(remove(items, key), remove(keys, id), resorted(key, old, 0, null));
+    }
+
+    /**
+     * O(s log n) for s sort orders.
+     *
+     * @return the sorted views with the old entry taken out and the new one
+     * put in. Either one may be null.
+     */
+    private Node[] resorted(long oldKey, Index.Item old, long newKey, Index.Item item) {
+        Node[] next = new Node[views.length];
+        for (Index.Sort sort : SORTS) {
+            if (sort == Index.Sort.MANUAL) {
+                continue;
+            }
+            Node n = views[sort.ordinal()];
+            if (old != null) {
+                n = remove(n, sort, oldKey, old);
+            }
+            if (item != null) {
+                n = put(n, sort, newKey, item);
+            }
+            next[sort.ordinal()] = n;
+        }
+        return next;
+    }
+
+    /**
+     * O(s n log n) for s sort orders, mostly spent sorting. The trees are
+     * built bottom-up in linear time from the sorted nodes.
+     *
+     * @param items The items in manual order.
+     * @return the sorted views of the items.
+     */
+    private static Node[] sortAll(Node items) {
+        Node[] views = new Node[SORTS.length];
+        int n = size(items);
+        if (n == 0) {
+            return views;
+        }
+        Node[] inOrder = new Node[n];
+        int i = 0;
+        Deque<Node> stack = new ArrayDeque<>();
+        for (Node m = items; m != null || !stack.isEmpty(); m = m.right) {
+            for (; m != null; m = m.left) {
+                stack.push(m);
+            }
+            m = stack.pop();
+            inOrder[i++] = m;
+        }
+        for (Index.Sort sort : SORTS) {
+            if (sort == Index.Sort.MANUAL) {
+                continue;
+            }
+            Node[] sorted = inOrder.clone();
+            Arrays.sort(sorted, (a, b) -> compare(sort, a.key, (Index.Item) a.value, b));
+            views[sort.ordinal()] = build(sorted);
+        }
+        return views;
+    }
+
+    /**
+     * O(n) with a stack, like a cartesian tree.
+     *
+     * @param sorted Nodes in the order of the new tree.
+     * @return a treap with the same keys and values.
+     */
+    private static Node build(Node[] sorted) {
+        int n = sorted.length;
+        int[] left = new int[n];
+        int[] right = new int[n];
+        Arrays.fill(left, -1);
+        Arrays.fill(right, -1);
+        int[] spine = new int[n];
+        int top = 0;
+        for (int i = 0; i < n; i++) {
+            int p = priority(sorted[i].key);
+            int last = -1;
+            while (top > 0 && priority(sorted[spine[top - 1]].key) < p) {
+                last = spine[--top];
+            }
+            left[i] = last;
+            if (top > 0) {
+                right[spine[top - 1]] = i;
+            }
+            spine[top++] = i;
+        }
+        return link(sorted, left, right, spine[0]);
+    }
+
+    private static Node link(Node[] sorted, int[] left, int[] right, int i) {
+        if (i == -1) {
+            return null;
+        }
+        Node l = link(sorted, left, right, left[i]);
+        Node r = link(sorted, left, right, right[i]);
+        return new Node(sorted[i].key, sorted[i].value, l, r);
+    }
+
+    /**
+     * O(n log n) since every key is given a new value.
+     */
+    private static ItemList respaced(ItemList base, int position, Index.Item item) {
+        Node byKey = null;
+        Node byId = null;
+        long key = 0;
+        int i = 0;
+        for (Index.Item e : base) {
+            if (i++ == position) {
+                key += GAP;
+                byKey = put(byKey, key, item);
+                byId = put(byId, item.id(), key);
+            }
+            key += GAP;
+            byKey = put(byKey, key, e);
+            byId = put(byId, e.id(), key);
+        }
+        if (position == base.size()) {
+            key += GAP;
+            byKey = put(byKey, key, item);
+            byId = put(byId, item.id(), key);
+        }
+        return new ItemList(byKey, byId, sortAll(byKey));
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static int done(Node n) {
+        return n == null ? 0 : n.done;
+    }
+
+    private static boolean isDone(Object value) {
+        return value instanceof Index.Item && ((Index.Item) value).completed();
+    }
+
+    private static int priority(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static Node find(Node n, long key) {
+        while (n != null && n.key != key) {
+            n = key < n.key ? n.left : n.right;
+        }
+        return n;
+    }
+
+    private static Node at(Node n, int index) {
+        while (true) {
+            int left = size(n.left);
+            if (index < left) {
+                n = n.left;
+            } else if (index == left) {
+                return n;
+            } else {
+                index -= left + 1;
+                n = n.right;
+            }
+        }
+    }
+
+    private static int rank(Node n, long key) {
+        int rank = 0;
+        while (n != null) {
+            if (key < n.key) {
+                n = n.left;
+            } else if (key == n.key) {
+                return rank + size(n.left);
+            } else {
+                rank += size(n.left) + 1;
+                n = n.right;
+            }
+        }
+        return -1;
+    }
+
+    private static Node put(Node n, long key, Object value) {
+        if (n == null) {
+            return new Node(key, value, null, null);
+        }
+        if (key == n.key) {
+            return new Node(key, value, n.left, n.right);
+        }
+        if (key < n.key) {
+            Node left = put(n.left, key, value);
+            if (priority(left.key) > priority(n.key)) {
+                // rotate right
+                return left.with(left.left, n.with(left.right, n.right));
+            }
+            return n.with(left, n.right);
+        } else {
+            Node right = put(n.right, key, value);
+            if (priority(right.key) > priority(n.key)) {
+                // rotate left
+                return right.with(n.with(n.left, right.left), right.right);
+            }
+            return n.with(n.left, right);
+        }
+    }
+
+    private static int compare(Index.Sort sort, long key, Index.Item item, Node n) {
+        int c = sort.compare(item, (Index.Item) n.value);
+        if (c != 0) {
+            return c;
+        }
+        return key < n.key ? -1 : key == n.key ? 0 : 1;
+    }
+
+    /**
+     * Like {@link #put(Node, long, Object)} but in the sort order.
+     */
+    private static Node put(Node n, Index.Sort sort, long key, Index.Item item) {
+        if (n == null) {
+            return new Node(key, item, null, null);
+        }
+        int c = compare(sort, key, item, n);
+        if (c == 0) {
+            return new Node(key, item, n.left, n.right);
+        }
+        if (c < 0) {
+            Node left = put(n.left, sort, key, item);
+            if (priority(left.key) > priority(n.key)) {
+                return left.with(left.left, n.with(left.right, n.right));
+            }
+            return n.with(left, n.right);
+        } else {
+            Node right = put(n.right, sort, key, item);
+            if (priority(right.key) > priority(n.key)) {
+                return right.with(n.with(n.left, right.left), right.right);
+            }
+            return n.with(n.left, right);
+        }
+    }
+
+    /**
+     * Like {@link #remove(Node, long)} but in the sort order.
+     *
+     * @param item The item as it was when it was put in the tree.
+     */
+    private static Node remove(Node n, Index.Sort sort, long key, Index.Item item) {
+        if (n == null) {
+            return null;
+        }
+        int c = compare(sort, key, item, n);
+        if (c < 0) {
+            return n.with(remove(n.left, sort, key, item), n.right);
+        }
+        if (c > 0) {
+            return n.with(n.left, remove(n.right, sort, key, item));
+        }
+        return merge(n.left, n.right);
+    }
+
+    private static Node remove(Node n, long key) {
+        if (n == null) {
+            return null;
+        }
+        if (key < n.key) {
+            return n.with(remove(n.left, key), n.right);
+        }
+        if (key > n.key) {
+            return n.with(n.left, remove(n.right, key));
+        }
+        return merge(n.left, n.right);
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (priority(a.key) > priority(b.key)) {
+            return a.with(a.left, merge(a.right, b));
+        }
+        return b.with(merge(a, b.left), b.right);
+    }
+
+}
@@ -0,0 +1,316 @@
+package ph.codeia.todo.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the edits that turn one list of items into another, matching the
+ * items by id.
+ * <p>
+ * Unlike a general sequence diff, there is no need to search for the best
+ * alignment since the ids say which item is which. The items that keep their
+ * relative order are found with a longest increasing subsequence and only
+ * the rest are moved, so moving one item emits one move no matter how far
+ * it goes. The contents are compared by their precomputed hashes first and
+ * only compared field by field when the hashes agree.
+ */
+public final class ListDiff {
+
+    public static final class Op {
+        public enum Kind { REMOVE, INSERT, MOVE, CHANGE }
+
+        public final Kind kind;
+        /**
+         * Where the edit happens, or where the item is moved from.
+         */
+        public final int position;
+        /**
+         * Where the item is moved to. Same as the position for the others.
+         */
+        public final int to;
+        /**
+         * The new item, or the removed one.
+         */
+        public final Index.Item item;
+
+        Op(Kind kind, int position, int to, Index.Item item) {
+            this.kind = kind;
+            this.position = position;
+            this.to = to;
+            this.item = item;
+        }
+
+        @Override
+        public String toString() {
+            return kind == Kind.MOVE
+                    ? kind + " " + position + " -> " + to
+                    : kind + " " + position + ": " + item;
+        }
+    }
+
+    /**
+     * The same callbacks as a recycler view adapter's notify methods.
+     */
+    public interface Receiver {
+        void inserted(int position, Index.Item item);
+        void removed(int position);
+        void moved(int from, int to);
+        void changed(int position, Index.Item item);
+    }
+
+    public static final class Patch {
+        public final List<Index.Item> before;
+        public final List<Index.Item> after;
+        /**
+         * The edits in the order they should be applied. Each position is
+         * relative to the list as it is after the edits before it.
+         */
+        public final List<Op> ops;
+        /**
+         * Goes up with every patch made by the same source, or 0 if the
+         * source doesn't number them. The patches may be delivered out of
+         * order, so one with a lower number than what the receiver already
+         * has is stale.
+         */
+        public final long seq;
+
+        Patch(List<Index.Item> before, List<Index.Item> after, List<Op> ops, long seq) {
+            this.before = before;
+            this.after = after;
+            this.ops = Collections.unmodifiableList(ops);
+            this.seq = seq;
+        }
+
+        public boolean isEmpty() {
+            return ops.isEmpty();
+        }
+
+        /**
+         * O(k) for k ops.
+         *
+         * @param receiver Gets one call per op, in order.
+         */
+        public void dispatchTo(Receiver receiver) {
+            for (Op op : ops) {
+                switch (op.kind) {
+                    case REMOVE:
+                        receiver.removed(op.position);
+                        break;
+                    case INSERT:
+                        receiver.inserted(op.position, op.item);
+                        break;
+                    case MOVE:
+                        receiver.moved(op.position, op.to);
+                        break;
+                    case CHANGE:
+                        receiver.changed(op.position, op.item);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * O(kn) for k ops on an array list.
+         *
+         * @param items A mutable copy of {@link #before}. Ends up equal to
+         *              {@link #after}.
+         */
+        public void applyTo(List<Index.Item> items) {
+            dispatchTo(new Receiver() {
+                @Override
+                public void inserted(int position, Index.Item item) {
+                    items.add(position, item);
+                }
+
+                @Override
+                public void removed(int position) {
+                    items.remove(position);
+                }
+
+                @Override
+                public void moved(int from, int to) {
+                    items.add(to, items.remove(from));
+                }
+
+                @Override
+                public void changed(int position, Index.Item item) {
+                    items.set(position, item);
+                }
+            });
+        }
+    }
+
+    private ListDiff() {}
+
+    /**
+     * O(n log n) where n is the size of both lists, mostly spent ordering
+     * the moves. Hashing the ids and comparing the contents is O(n).
+     *
+     * @param before The old list. Ids must be distinct.
+     * @param after The new list. Ids must be distinct.
+     * @return the removals from the back to the front, then the inserts
+     * and moves from the front to the back, then the changes.
+     */
+    public static Patch between(List<Index.Item> before, List<Index.Item> after) {
+        return between(before, after, 0);
+    }
+
+    /**
+     * O(n log n)
+     *
+     * @param before The old list. Ids must be distinct.
+     * @param after The new list. Ids must be distinct.
+     * @param seq The number of the patch. See {@link Patch#seq}.
+     * @return the edits, numbered.
+     */
+    public static Patch between(List<Index.Item> before, List<Index.Item> after, long seq) {
+        int n = before.size();
+        int m = after.size();
+        List<Op> ops = new ArrayList<>();
+        Map<Long, Integer> target = new HashMap<>(m * 2);
+        for (int j = 0; j < m; j++) {
+            target.put(after.get(j).id(), j);
+        }
+
+        // what's left of the old list after the removals
+        int[] keptAt = new int[n];
+        Index.Item[] kept = new Index.Item[n];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            Index.Item e = before.get(i);
+            Integer j = target.get(e.id());
+            if (j != null) {
+                keptAt[k] = j;
+                kept[k] = e;
+                k++;
+            }
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            Index.Item e = before.get(i);
+            if (!target.containsKey(e.id())) {
+                ops.add(new Op(Op.Kind.REMOVE, i, i, e));
+            }
+        }
+
+        int[] source = new int[m];
+        Arrays.fill(source, -1);
+        for (int c = 0; c < k; c++) {
+            source[keptAt[c]] = c;
+        }
+        boolean[] stays = increasing(keptAt, k);
+
+        // Every item gets a slot so its position at any point can be
+        // counted in a fenwick tree. The kept items start in their old
+        // slots and the ones that are inserted or moved land in a slot
+        // right after the nearest item before them that stays put.
+        int[] keptSlot = new int[k];
+        int[] newSlot = new int[m];
+        int slots = 0;
+        int c = 0;
+        int anchor = -1;
+        for (int j = 0; j < m; j++) {
+            int from = source[j];
+            if (from != -1 && stays[from]) {
+                anchor = from;
+                continue;
+            }
+            for (; c <= anchor; c++) {
+                keptSlot[c] = slots++;
+            }
+            newSlot[j] = slots++;
+        }
+        for (; c < k; c++) {
+            keptSlot[c] = slots++;
+        }
+
+        int[] present = new int[slots + 1];
+        for (c = 0; c < k; c++) {
+            add(present, keptSlot[c], 1);
+        }
+        for (int j = 0; j < m; j++) {
+            int from = source[j];
+            if (from == -1) {
+                int at = count(present, newSlot[j]);
+                ops.add(new Op(Op.Kind.INSERT, at, at, after.get(j)));
+                add(present, newSlot[j], 1);
+            } else if (!stays[from]) {
+                int i = count(present, keptSlot[from]);
+                add(present, keptSlot[from], -1);
+                int to = count(present, newSlot[j]);
+                add(present, newSlot[j], 1);
+                if (i != to) {
+                    ops.add(new Op(Op.Kind.MOVE, i, to, after.get(j)));
+                }
+            }
+        }
+
+        for (int j = 0; j < m; j++) {
+            int from = source[j];
+            if (from != -1 && changed(kept[from], after.get(j))) {
+                ops.add(new Op(Op.Kind.CHANGE, j, j, after.get(j)));
+            }
+        }
+        return new Patch(before, after, ops, seq);
+    }
+
+    private static boolean changed(Index.Item a, Index.Item b) {
+        return a != b && (a.contentHash() != b.contentHash() || !a.sameAs(b));
+    }
+
+    /**
+     * O(k log k)
+     *
+     * @return which of the first k values are in one of the longest strictly
+     * increasing subsequences.
+     */
+    private static boolean[] increasing(int[] values, int k) {
+        // tails[len] = index of the smallest tail of a run of length len + 1
+        int[] tails = new int[k];
+        int[] prev = new int[k];
+        int runs = 0;
+        for (int i = 0; i < k; i++) {
+            int lo = 0;
+            int hi = runs;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            prev[i] = lo == 0 ? -1 : tails[lo - 1];
+            tails[lo] = i;
+            if (lo == runs) {
+                runs++;
+            }
+        }
+        boolean[] in = new boolean[k];
+        for (int i = runs == 0 ? -1 : tails[runs - 1]; i != -1; i = prev[i]) {
+            in[i] = true;
+        }
+        return in;
+    }
+
+    private static void add(int[] tree, int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * @return the number of items in the slots before this one.
+     */
+    private static int count(int[] tree, int slot) {
+        int sum = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,44 @@
+package ph.codeia.todo.index;
+
+import java.util.List;
+
+/**
+ * The visible part of the cache, remembered for the last cache and filter
+ * it was computed for.
+ * <p>
+ * Caches are immutable, so the same cache instance always gives the same
+ * projection and a repeated refresh returns the same list. A new cache that
+ * differs by one item costs O(log n) to project since the view is backed by
+ * the cache itself and only the counts along the changed path are new. The
+ * cache keeps every sort order up to date, so switching orders is O(1) too.
+ */
+class Projection {
+
+    private ItemList source;
+    private Index.Sort sort;
+    private boolean completed;
+    private boolean active;
+    private List<Index.Item> visible;
+
+    /**
+     * O(1)
+     *
+     * @param state The cache, the sort order and the filter flags.
+     * @return the items that pass the filter, in the sort order.
+     */
+    synchronized List<Index.Item> of(Index.State state) {
+        if (visible == null
+                || source != state.cache
+                || sort != state.sort
+                || completed != state.showCompletedItems
+                || active != state.showActiveItems) {
+            source = state.cache;
+            sort = state.sort;
+            completed = state.showCompletedItems;
+            active = state.showActiveItems;
+            visible = source.filtered(sort, completed, active);
+        }
+        return visible;
+    }
+
+}
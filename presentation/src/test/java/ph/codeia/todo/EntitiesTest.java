@@ -0,0 +1,110 @@
+package ph.codeia.todo;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import ph.codeia.todo.data.TodoInMemory;
+import ph.codeia.todo.data.TodoRepository;
+
+import static org.junit.Assert.*;
+
+public class EntitiesTest {
+
+    @Test
+    public void keeps_the_latest_version_of_each_row() {
+        TodoInMemory repo = new TodoInMemory();
+        int id = repo.add("a", "", false).id;
+        TodoRepository.Todo first = repo.oneWithId(id);
+        TodoRepository.Todo second = repo.update(id, e -> e.withTitle("b"));
+        Entities entities = new Entities(16);
+
+        assertTrue(entities.put(second));
+        assertFalse(entities.put(first));
+        assertFalse(entities.put(second));
+        assertEquals("b", entities.get(id).title);
+        assertEquals(1, entities.revision());
+
+        entities.delete(id);
+        assertNull(entities.get(id));
+        assertFalse(entities.put(second));
+        assertNull(entities.get(-1));
+        assertFalse(entities.put(new TodoRepository.Todo(-1, "x", "", false, new Date(0))));
+    }
+
+    @Test
+    public void lists_the_writes_since_a_revision_and_drops_the_oldest() {
+        TodoInMemory repo = new TodoInMemory();
+        Entities entities = new Entities(3);
+        for (int i = 0; i < 5; i++) {
+            entities.put(repo.add("row " + i, "", false));
+        }
+        List<Entities.Entity> all = entities.since(0);
+        assertEquals(3, all.size());
+        assertEquals("row 2", all.get(0).row.title);
+        assertEquals(5, all.get(2).revision);
+        assertEquals(1, entities.since(4).size());
+        assertTrue(entities.since(5).isEmpty());
+    }
+
+    @Test
+    public void an_insert_replaces_a_deleted_or_later_copy() {
+        TodoInMemory repo = new TodoInMemory();
+        int id = repo.add("a", "", false).id;
+        TodoRepository.Todo first = repo.oneWithId(id);
+        TodoRepository.Todo second = repo.update(id, e -> e.withTitle("b"));
+        Entities entities = new Entities(16);
+
+        entities.put(second);
+        entities.delete(id);
+        entities.insert(first);
+        assertEquals("a", entities.get(id).title);
+        assertTrue(entities.put(second));
+
+        entities.insert(first);
+        assertEquals("a", entities.get(id).title);
+        assertEquals(5, entities.revision());
+    }
+
+    @Test
+    public void forgets_everything_on_clear_but_keeps_counting() {
+        TodoInMemory repo = new TodoInMemory();
+        int id = repo.add("a", "", false).id;
+        TodoRepository.Todo first = repo.oneWithId(id);
+        TodoRepository.Todo second = repo.update(id, e -> e.withTitle("b"));
+        Entities entities = new Entities(16);
+
+        entities.put(second);
+        entities.clear();
+        assertNull(entities.get(id));
+        assertTrue(entities.since(0).isEmpty());
+        assertEquals(1, entities.revision());
+
+        assertTrue(entities.put(first));
+        assertEquals("a", entities.get(id).title);
+        assertEquals(1, entities.since(1).size());
+    }
+
+    @Test
+    public void keeps_saved_occurrences_but_not_unsaved_ones() {
+        TodoInMemory repo = new TodoInMemory();
+        TodoRepository.Recurrence gym = repo.addRecurrence(
+                TodoRepository.Recurrence.daily("gym", "", new Date(0)));
+        int id = gym.occurrenceId(2);
+        TodoRepository.Todo unsaved = repo.occurrences(new Date(0), new Date(86_400_000L * 3)).get(2);
+        Entities entities = new Entities(16);
+
+        assertEquals(id, unsaved.id);
+        assertFalse(entities.put(unsaved));
+        entities.insert(unsaved);
+        assertNull(entities.get(id));
+
+        TodoRepository.Todo saved = repo.update(id, e -> e.withCompleted(true));
+        assertTrue(entities.put(saved));
+        assertTrue(entities.get(id).completed);
+        assertTrue(entities.put(repo.update(id, e -> e.withTitle("leg day"))));
+        assertEquals("leg day", entities.get(id).title);
+    }
+
+}
@@ -0,0 +1,60 @@
+package ph.codeia.todo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ParallelTest {
+
+    @Test(timeout = 5000)
+    public void keeps_the_input_order() throws Exception {
+        List<Integer> xs = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            xs.add(i);
+        }
+        Parallel.Step<Integer, String> step = x -> x % 3 == 0 ? null : "#" + x;
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<String> expected = Parallel.SEQUENTIAL.map(xs, step);
+            assertEquals(66_666, expected.size());
+            for (int threshold : new int[] {1, 7, 1000, 100_000}) {
+                assertEquals(expected, new Parallel(pool, 4, threshold).map(xs, step));
+            }
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test(timeout = 2000)
+    public void finishes_even_if_the_pool_never_runs_anything() {
+        List<Integer> xs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            xs.add(i);
+        }
+        List<Integer> ys = new Parallel(task -> {}, 8, 10).map(xs, x -> x * 2);
+        assertEquals(100, ys.size());
+        assertEquals(198, (int) ys.get(99));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rethrows_what_a_step_threw() {
+        List<Integer> xs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            xs.add(i);
+        }
+        new Parallel(Runnable::run, 4, 10).map(xs, x -> {
+            if (x == 50) {
+                throw new IllegalStateException();
+            }
+            return x;
+        });
+    }
+
+}
@@ -1,12 +1,15 @@
 package ph.codeia.todo.details;
 
 import org.junit.Before;
+import org.junit.Test;
 
 import ph.codeia.todo.Mvp;
 import ph.codeia.todo.Stepper;
 import ph.codeia.todo.data.TodoInMemory;
 import ph.codeia.todo.data.TodoRepository;
 
+import static org.junit.Assert.*;
+
 public class DetailsSpecs {
     Stepper<Details.State, Details.Action, Details.View> details;
     TodoRepository m;
@@ -21,10 +24,34 @@ public class DetailsSpecs {
         details = new Stepper<>(Details.State.ROOT);
     }
 
-    static class FakeView implements Details.View {
-        String title;
-        String description;
-        boolean checked;
+    @Test
+    public void should_show_the_progress_of_the_subtasks() {
+        int parent = m.add("move out", "", false).id;
+        int pack = m.add("pack", "", false).id;
+        m.put(m.oneWithId(pack).withParent(parent));
+        m.put(m.add("books", "", true).withParent(pack));
+        m.put(m.add("clothes", "", false).withParent(pack));
+        m.put(m.add("call movers", "", true).withParent(parent));
+
+        details.apply(v, p.load());
+        details.drain(v);
+        assertEquals("move out", v.title);
+        assertEquals(4, v.subtasks);
+        assertEquals(2, v.subtasksDone);
+
+        m.delete(pack);
+        details.apply(v, p.load());
+        details.drain(v);
+        assertEquals(3, v.subtasks);
+        assertEquals(2, v.subtasksDone);
+    }
+
+    public static class FakeView implements Details.View {
+        public String title;
+        public String description;
+        public boolean checked;
+        public int subtasks;
+        public int subtasksDone;
         Details.Action delete;
 
         void confirm(Stepper<Details.State, Details.Action, Details.View> unit) {
@@ -39,6 +66,8 @@ public class DetailsSpecs {
             title = item.title();
             description = item.description();
             checked = item.completed();
+            subtasks = item.subtasks();
+            subtasksDone = item.subtasksDone();
         }
 
         @Override
@@ -6,7 +6,9 @@ import org.junit.Test;
 import org.junit.rules.Timeout;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
@@ -14,8 +16,15 @@ import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import ph.codeia.todo.Entities;
 import ph.codeia.todo.Mvp;
+import ph.codeia.todo.Parallel;
 import ph.codeia.todo.Stepper;
+import ph.codeia.todo.data.AsyncTodoRepository;
+import ph.codeia.todo.details.Details;
+import ph.codeia.todo.details.DetailsActions;
+import ph.codeia.todo.details.DetailsSpecs;
+import ph.codeia.todo.data.Clock;
 import ph.codeia.todo.data.TodoInMemory;
 import ph.codeia.todo.data.TodoRepository;
 
@@ -194,6 +203,481 @@ public class IndexSpecs {
         complete.forEach(id -> assertThat(allIds, not(hasItem(id))));
     }
 
+    @Test
+    public void should_only_delete_the_completed_items_that_match_the_search() {
+        int milk = m.add("buy milk", "", true).id;
+        int eggs = m.add("buy eggs", "", true).id;
+        int book = m.add("read", "a book", true).id;
+
+        index.apply(v, p.search("milk"));
+        index.drain(v);
+        index.apply(v, p.deleteAllCompleted());
+        v.confirm(index);
+        index.drain(v);
+
+        assertNull(m.oneWithId(milk));
+        assertNotNull(m.oneWithId(eggs));
+        assertNotNull(m.oneWithId(book));
+    }
+
+    @Test
+    public void should_only_delete_the_completed_items_that_match_the_tags() {
+        int milk = m.add("buy milk", "", true).id;
+        m.put(m.oneWithId(milk).withTags(Collections.singleton("food")));
+        int sink = m.add("fix sink", "", true).id;
+        m.put(m.oneWithId(sink).withTags(Collections.singleton("errand")));
+        int book = m.add("read", "a book", true).id;
+
+        index.apply(v, p.filterTags(Collections.singleton("food"), Collections.emptySet()));
+        index.drain(v);
+        index.apply(v, p.deleteAllCompleted());
+        v.confirm(index);
+        index.drain(v);
+
+        assertNull(m.oneWithId(milk));
+        assertNotNull(m.oneWithId(sink));
+        assertNotNull(m.oneWithId(book));
+    }
+
+    @Test
+    public void should_only_load_items_matching_the_search_query() {
+        m.add("buy milk", "at the grocery", false);
+        m.add("buy eggs", "a dozen", true);
+        m.add("call mom", "about the milk", false);
+        m.add("read", "a book", false);
+
+        index.apply(v, p.search("mil"));
+        index.drain(v);
+        assertEquals(2, v.count());
+        assertThat(v.s().map(Index.Item::title).collect(Collectors.toList()),
+                hasItems("buy milk", "call mom"));
+
+        index.apply(v, p.search("buy m"));
+        index.drain(v);
+        assertEquals(1, v.count());
+
+        index.apply(v, p.search(""));
+        index.drain(v);
+        assertEquals(4, v.count());
+    }
+
+    @Test
+    public void should_ignore_search_results_that_come_back_late() {
+        m.add("buy milk", "at the grocery", false);
+        m.add("buy eggs", "a dozen", true);
+        m.add("call mom", "about the milk", false);
+        List<Runnable> pending = new ArrayList<>();
+        p = new IndexActions(new AsyncTodoRepository(m, pending::add), Clock.SYSTEM);
+
+        index.apply(v, p.search("buy"));
+        index.step(v);
+        index.apply(v, p.search("buy m"));
+        index.start(v);
+        assertEquals(2, pending.size());
+
+        pending.get(1).run();
+        index.start(v);
+        pending.get(0).run();
+        index.drain(v);
+        assertEquals("buy m", index.state().query);
+        assertEquals(1, v.count());
+        assertEquals("buy milk", v.visible.get(0).title());
+        assertFalse(v.isSpinning);
+    }
+
+    @Test
+    public void should_only_load_items_with_the_required_tags() {
+        m.put(m.add("buy milk", "", false).withTags(Arrays.asList("errand", "food")));
+        m.put(m.add("buy eggs", "", false).withTags(Collections.singleton("food")));
+        m.put(m.add("fix sink", "", false).withTags(Collections.singleton("errand")));
+        m.add("read", "a book", false);
+
+        index.apply(v, p.filterTags(Collections.singleton("food"), Collections.emptySet()));
+        index.drain(v);
+        assertEquals(2, v.count());
+
+        index.apply(v, p.filterTags(Collections.singleton("food"), Collections.singleton("errand")));
+        index.drain(v);
+        assertEquals(1, v.count());
+        assertThat(v.s().map(Index.Item::title).collect(Collectors.toList()), hasItems("buy eggs"));
+
+        index.apply(v, p.search("buy"));
+        index.drain(v);
+        assertEquals(1, v.count());
+
+        index.apply(v, p.filterTags(Collections.emptySet(), Collections.emptySet()));
+        index.drain(v);
+        assertEquals(2, v.count());
+    }
+
+    @Test
+    public void should_move_an_item_to_where_another_one_is() {
+        int a = m.add("a", "", false).id;
+        int b = m.add("b", "", false).id;
+        int c = m.add("c", "", false).id;
+        int d = m.add("d", "", false).id;
+        index.apply(v, p.load());
+        index.drain(v);
+
+        index.apply(v, p.move(a, c));
+        index.drain(v);
+        assertEquals(Arrays.asList(b, c, a, d), visibleIds());
+
+        index.apply(v, p.move(d, b));
+        index.drain(v);
+        assertEquals(Arrays.asList(d, b, c, a), visibleIds());
+
+        index.apply(v, p.load());
+        index.drain(v);
+        assertEquals(Arrays.asList(d, b, c, a), visibleIds());
+    }
+
+    @Test
+    public void should_show_the_upcoming_occurrences_of_recurring_items() {
+        long day = 86_400_000L;
+        p = new IndexActions(m, () -> 100 * day);
+        m.add("one-off", "", false);
+        m.addRecurrence(TodoRepository.Recurrence.daily("water plants", "", new Date(0)));
+        index.apply(v, p.load());
+        index.drain(v);
+        assertEquals(8, v.count());
+
+        int tomorrow = (int) v.s(e -> e.title().equals("water plants")).skip(1).findFirst().get().id();
+        index.apply(v, p.setCompleted(tomorrow, true));
+        index.drain(v);
+        assertEquals(1, m.withStatus(true).size());
+
+        index.apply(v, p.load());
+        index.drain(v);
+        assertEquals(8, v.count());
+        assertEquals(1, v.s(Index.Item::completed).count());
+    }
+
+    @Test
+    public void should_patch_the_cache_with_changes_made_elsewhere() {
+        int a = m.add("a", "", false).id;
+        int b = m.add("b", "", false).id;
+        int c = m.add("c", "", false).id;
+        index.apply(v, p.load());
+        index.drain(v);
+
+        m.update(a, e -> e.withTitle("A"));
+        m.delete(b);
+        int d = m.add("d", "", false).id;
+        m.update(d, e -> e.withCompleted(true));
+        index.apply(v, p.sync());
+        index.drain(v);
+        assertEquals(Arrays.asList(a, c, d), visibleIds());
+        assertEquals("A", v.visible.get(0).title());
+        assertTrue(v.visible.get(2).completed());
+        assertEquals(m.changes().seq(), index.state().seq);
+
+        index.apply(v, p.sync());
+        index.drain(v);
+        assertEquals(Arrays.asList(a, c, d), visibleIds());
+    }
+
+    @Test
+    public void should_reuse_the_visible_list_until_something_changes() {
+        int a = m.add("a", "", false).id;
+        m.add("b", "", true);
+        index.apply(v, p.load());
+        index.drain(v);
+        List<Index.Item> first = v.visible;
+
+        index.apply(v, p.refresh());
+        assertSame(first, v.visible);
+
+        index.apply(v, p.filter(false, true));
+        index.drain(v);
+        assertEquals(1, v.count());
+        index.apply(v, p.setCompleted(a, true));
+        index.drain(v);
+        assertEquals(0, v.count());
+        index.apply(v, p.filter(true, true));
+        index.drain(v);
+        assertEquals(2, v.count());
+        assertNotSame(first, v.visible);
+    }
+
+    @Test
+    public void should_keep_the_sort_order_through_changes() {
+        int a = m.add("b", "", false).id;
+        int b = m.add("C", "", true).id;
+        int c = m.add("a", "", false).id;
+        index.apply(v, p.load());
+        index.drain(v);
+
+        index.apply(v, p.sortBy(Index.Sort.TITLE));
+        index.drain(v);
+        assertEquals(Arrays.asList(c, a, b), visibleIds());
+
+        index.apply(v, p.sortBy(Index.Sort.COMPLETED_FIRST));
+        index.drain(v);
+        assertEquals(Arrays.asList(b, a, c), visibleIds());
+        index.apply(v, p.setCompleted(c, true));
+        index.drain(v);
+        assertEquals(Arrays.asList(b, c, a), visibleIds());
+
+        index.apply(v, p.move(a, b));
+        index.drain(v);
+        assertEquals(Arrays.asList(b, c, a), visibleIds());
+
+        m.update(a, e -> e.withTitle("0"));
+        index.apply(v, p.sortBy(Index.Sort.TITLE));
+        index.apply(v, p.sync());
+        index.drain(v);
+        assertEquals(Arrays.asList(a, c, b), visibleIds());
+
+        index.apply(v, p.sortBy(Index.Sort.MANUAL));
+        index.drain(v);
+        assertEquals(Arrays.asList(a, b, c), visibleIds());
+    }
+
+    @Test
+    public void should_show_the_first_page_before_the_rest_is_loaded() {
+        for (int i = 0; i < 600; i++) {
+            m.add("row " + i, "", false);
+        }
+        List<Runnable> pending = new ArrayList<>();
+        boolean[] hold = {true};
+        p = new IndexActions(new AsyncTodoRepository(m, task -> {
+            if (hold[0]) {
+                pending.add(task);
+            } else {
+                task.run();
+            }
+        }), Clock.SYSTEM);
+
+        index.apply(v, p.load());
+        pending.remove(0).run();
+        index.start(v);
+        index.start(v);
+        assertEquals(256, v.count());
+        assertTrue(v.isSpinning);
+
+        m.delete(1);
+        m.delete(500);
+        hold[0] = false;
+        pending.remove(0).run();
+        index.drain(v);
+        assertFalse(v.isSpinning);
+        assertEquals(598, v.count());
+        assertEquals(m.all().size(), index.state().cache.size());
+        assertEquals("row 1", v.visible.get(0).title());
+        assertEquals("row 599", v.visible.get(597).title());
+    }
+
+    @Test
+    public void should_keep_rows_added_while_streaming_at_the_end() {
+        for (int i = 0; i < 600; i++) {
+            m.add("row " + i, "", false);
+        }
+        List<Runnable> pending = new ArrayList<>();
+        boolean[] hold = {true};
+        p = new IndexActions(new AsyncTodoRepository(m, task -> {
+            if (hold[0]) {
+                pending.add(task);
+            } else {
+                task.run();
+            }
+        }), Clock.SYSTEM);
+        index.apply(v, p.load());
+        pending.remove(0).run();
+        index.start(v);
+        assertEquals(1, pending.size());
+
+        m.add("new", "", false);
+        index.apply(v, p.sync());
+        pending.remove(1).run();
+        index.start(v);
+        index.start(v);
+        assertEquals(256, index.state().cache.size());
+        assertEquals(1, pending.size());
+
+        hold[0] = false;
+        pending.remove(0).run();
+        index.drain(v);
+        assertEquals(601, v.count());
+        assertEquals("row 599", v.visible.get(599).title());
+        assertEquals("new", v.visible.get(600).title());
+    }
+
+    @Test
+    public void should_reload_when_an_edit_makes_a_row_match_the_tags() {
+        int a = m.add("a", "", false).id;
+        m.put(m.add("b", "", false).withTags(Collections.singleton("x")));
+        index.apply(v, p.filterTags(Collections.singleton("x"), Collections.emptySet()));
+        index.drain(v);
+        assertEquals(1, v.count());
+
+        m.put(m.oneWithId(a).withTags(Collections.singleton("x")));
+        index.apply(v, p.sync());
+        index.drain(v);
+        assertEquals(Arrays.asList("a", "b"),
+                v.s().map(Index.Item::title).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void should_only_keep_a_few_windows_when_windowed() {
+        for (int i = 0; i < 100; i++) {
+            m.add("row " + i, "", false);
+        }
+        p = new IndexActions(
+                new AsyncTodoRepository(m, Runnable::run),
+                Clock.SYSTEM, Parallel.SEQUENTIAL, Runnable::run, 10);
+        index.apply(v, p.load());
+        index.drain(v);
+        assertEquals(10, v.count());
+        assertEquals("row 0", v.visible.get(0).title());
+        assertFalse(index.state().hasPrevious);
+        assertTrue(index.state().hasNext);
+
+        index.apply(v, p.scrolled(0, 3));
+        index.drain(v);
+        assertEquals(10, v.count());
+        for (int i = 0; i < 5; i++) {
+            index.apply(v, p.scrolled(v.count() - 4, v.count() - 1));
+            index.drain(v);
+        }
+        assertEquals(30, v.count());
+        assertEquals("row 30", v.visible.get(0).title());
+        assertEquals("row 59", v.visible.get(29).title());
+        assertTrue(index.state().hasPrevious);
+
+        index.apply(v, p.previous());
+        index.drain(v);
+        assertEquals(30, v.count());
+        assertEquals("row 20", v.visible.get(0).title());
+        assertEquals("row 49", v.visible.get(29).title());
+
+        for (int i = 0; i < 10; i++) {
+            index.apply(v, p.next());
+            index.drain(v);
+        }
+        assertEquals("row 99", v.visible.get(v.count() - 1).title());
+        assertFalse(index.state().hasNext);
+        assertTrue(v.count() <= 30);
+
+        index.apply(v, p.sortBy(Index.Sort.TITLE));
+        index.drain(v);
+        assertEquals(100, v.count());
+    }
+
+    @Test
+    public void should_drop_a_window_that_comes_back_after_a_new_load() {
+        for (int i = 0; i < 100; i++) {
+            m.add("row " + i, "", false);
+        }
+        List<Runnable> pending = new ArrayList<>();
+        p = new IndexActions(
+                new AsyncTodoRepository(m, pending::add),
+                Clock.SYSTEM, Parallel.SEQUENTIAL, Runnable::run, 10);
+        index.apply(v, p.load());
+        pending.remove(0).run();
+        index.drain(v);
+        assertEquals(10, v.count());
+
+        index.apply(v, p.next());
+        index.apply(v, p.search("row 5"));
+        index.start(v);
+        assertEquals(2, pending.size());
+        pending.remove(1).run();
+        index.start(v);
+        pending.remove(0).run();
+        index.drain(v);
+        assertEquals(11, v.count());
+        v.s().forEach(e -> assertThat(e.title(), startsWith("row 5")));
+        assertFalse(index.state().hasNext);
+        assertFalse(index.state().busy);
+    }
+
+    @Test
+    public void should_keep_patching_the_view_after_a_rotation() {
+        int a = m.add("a", "", false).id;
+        m.add("b", "", false);
+        index.apply(v, p.load());
+        index.drain(v);
+        for (int i = 0; i < 5; i++) {
+            index.apply(v, p.setCompleted(a, i % 2 == 0));
+            index.drain(v);
+        }
+        long before = v.patched;
+        assertTrue(v.visible.get(0).completed());
+
+        // the activity makes new actions but keeps the states
+        p = new IndexActions(m);
+        index.apply(v, p.sync());
+        index.drain(v);
+        index.apply(v, p.setCompleted(a, false));
+        index.drain(v);
+        assertTrue(v.patched < before);
+        assertFalse(v.visible.get(0).completed());
+    }
+
+    @Test
+    public void should_share_rows_with_the_details_screen() {
+        int a = m.add("a", "", false).id;
+        m.add("b", "", false);
+        Entities entities = new Entities(16);
+        AsyncTodoRepository io = new AsyncTodoRepository(m, Runnable::run);
+        p = new IndexActions(io, Clock.SYSTEM, Parallel.SEQUENTIAL, Runnable::run, 0, entities);
+        index.apply(v, p.load());
+        index.drain(v);
+        index.apply(v, p.details(a));
+
+        Stepper<Details.State, Details.Action, Details.View> details =
+                new Stepper<>(Details.State.ROOT);
+        DetailsSpecs.FakeView dv = new DetailsSpecs.FakeView();
+        Details.Presenter dp = new DetailsActions(io, a, entities);
+        details.apply(dv, dp.load());
+        assertEquals("a", dv.title);
+        details.drain(dv);
+        details.apply(dv, dp.toggleCompleted());
+        details.drain(dv);
+        assertTrue(dv.checked);
+
+        index.apply(v, p.sync());
+        assertTrue(index.state().cache.byId(a).completed());
+        index.drain(v);
+        assertTrue(v.visible.get(0).completed());
+        assertEquals(2, v.count());
+    }
+
+    @Test
+    public void should_drop_search_results_that_were_edited_to_not_match() {
+        int milk = m.add("buy milk", "", false).id;
+        int soy = m.add("buy soy milk", "", false).id;
+        index.apply(v, p.search("milk"));
+        index.drain(v);
+        assertEquals(2, v.count());
+
+        m.update(milk, e -> e.withTitle("buy eggs"));
+        m.update(soy, e -> e.withCompleted(true));
+        index.apply(v, p.sync());
+        index.drain(v);
+        assertEquals(Collections.singletonList(soy), visibleIds());
+        assertTrue(v.visible.get(0).completed());
+    }
+
+    @Test
+    public void should_not_keep_a_shared_row_that_was_edited_to_not_match() {
+        int milk = m.add("buy milk", "", false).id;
+        m.add("buy soy milk", "", false);
+        Entities entities = new Entities(16);
+        AsyncTodoRepository io = new AsyncTodoRepository(m, Runnable::run);
+        p = new IndexActions(io, Clock.SYSTEM, Parallel.SEQUENTIAL, Runnable::run, 0, entities);
+        index.apply(v, p.search("milk"));
+        index.drain(v);
+        assertEquals(2, v.count());
+
+        entities.put(m.update(milk, e -> e.withTitle("buy eggs")));
+        index.apply(v, p.sync());
+        index.drain(v);
+        assertEquals(1, v.count());
+        assertThat(visibleIds(), not(hasItem(milk)));
+    }
+
     List<Integer> visibleIds() {
         return v.s()
                 .map(Index.Item::id)
@@ -204,6 +688,7 @@ public class IndexSpecs {
     static class FakeView implements Index.View {
         boolean isSpinning;
         List<Index.Item> visible = Collections.emptyList();
+        long patched;
         Index.Action confirm;
 
         int count() {
@@ -257,6 +742,18 @@ public class IndexSpecs {
         @Override
         public void show(List<Index.Item> items) {
             visible = items;
+            patched = 0;
+        }
+
+        @Override
+        public void show(ListDiff.Patch patch) {
+            assertSame(visible, patch.before);
+            assertTrue(patch.seq > patched);
+            patched = patch.seq;
+            List<Index.Item> items = new ArrayList<>(visible);
+            patch.applyTo(items);
+            ListDiffTest.assertSameItems(patch.after, items);
+            visible = patch.after;
         }
 
         @Override
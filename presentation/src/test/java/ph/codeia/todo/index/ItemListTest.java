@@ -0,0 +1,166 @@
+package ph.codeia.todo.index;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import ph.codeia.todo.data.TodoRepository;
+
+import static org.junit.Assert.*;
+
+public class ItemListTest {
+
+    @Test
+    public void behaves_like_a_list_keyed_by_id() {
+        Random random = new Random(0);
+        List<Index.Item> model = new ArrayList<>();
+        ItemList items = ItemList.EMPTY;
+        int nextId = 1;
+        for (int step = 0; step < 2000; step++) {
+            int op = random.nextInt(4);
+            if (op == 0 || model.isEmpty()) {
+                int at = random.nextInt(model.size() + 1);
+                Index.Item e = item(nextId++, "new");
+                model.add(at, e);
+                items = items.insert(at, e);
+            } else if (op == 1) {
+                Index.Item e = model.remove(random.nextInt(model.size()));
+                items = items.without(e.id());
+            } else if (op == 2) {
+                int at = random.nextInt(model.size());
+                Index.Item e = item((int) model.get(at).id(), "changed " + step);
+                model.set(at, e);
+                items = items.put(e);
+            } else {
+                // always prepend to run out of gaps
+                Index.Item e = model.remove(random.nextInt(model.size()));
+                model.add(0, e);
+                items = items.insert(0, e);
+            }
+            assertEquals(model.size(), items.size());
+        }
+        assertEquals(model, items);
+        for (int i = 0; i < model.size(); i++) {
+            Index.Item e = model.get(i);
+            assertSame(e, items.get(i));
+            assertSame(e, items.byId(e.id()));
+            assertEquals(i, items.positionOf(e.id()));
+        }
+        assertNull(items.byId(nextId));
+        assertEquals(-1, items.positionOf(nextId));
+    }
+
+    @Test
+    public void changes_leave_older_versions_alone() {
+        List<Index.Item> rows = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            rows.add(item(i, "row " + i));
+        }
+        ItemList before = ItemList.of(rows);
+        ItemList after = before.put(item(3, "three")).without(1).insert(0, item(9, "nine"));
+
+        assertEquals(rows, before);
+        assertEquals("row 3", before.byId(3).title());
+        assertEquals("three", after.byId(3).title());
+        assertEquals(9, after.get(0).id());
+        assertEquals(5, after.size());
+        assertSame(before, ItemList.of(before));
+    }
+
+    @Test
+    public void views_the_items_by_status() {
+        Random random = new Random(1);
+        ItemList items = ItemList.EMPTY;
+        for (int i = 1; i <= 500; i++) {
+            items = items.put(item(i, "row " + i, random.nextBoolean()));
+        }
+        for (int step = 0; step < 200; step++) {
+            int id = 1 + random.nextInt(500);
+            items = items.put(item(id, "row " + id, !items.byId(id).completed()));
+
+            List<Index.Item> done = new ArrayList<>();
+            List<Index.Item> active = new ArrayList<>();
+            for (Index.Item e : items) {
+                (e.completed() ? done : active).add(e);
+            }
+            List<Index.Item> doneView = items.filtered(true, false);
+            List<Index.Item> activeView = items.filtered(false, true);
+            assertEquals(done.size(), items.completedCount());
+            assertEquals(done, doneView);
+            assertEquals(active, activeView);
+            int i = random.nextInt(done.size());
+            assertSame(done.get(i), doneView.get(i));
+        }
+        assertSame(items, items.filtered(true, true));
+        assertTrue(items.filtered(false, false).isEmpty());
+    }
+
+    @Test
+    public void keeps_every_sort_order_up_to_date() {
+        Random random = new Random(2);
+        List<Index.Item> model = new ArrayList<>();
+        for (int i = 1; i <= 300; i++) {
+            model.add(item(i, "row " + random.nextInt(50), random.nextBoolean(), random.nextInt(20)));
+        }
+        ItemList items = ItemList.of(model);
+        for (int step = 0; step < 300; step++) {
+            int at = random.nextInt(model.size());
+            int op = random.nextInt(3);
+            if (op == 0) {
+                Index.Item e = item((int) model.get(at).id(),
+                        "row " + random.nextInt(50), random.nextBoolean(), random.nextInt(20));
+                model.set(at, e);
+                items = items.put(e);
+            } else if (op == 1) {
+                Index.Item e = model.remove(at);
+                items = items.without(e.id());
+            } else {
+                Index.Item e = model.remove(at);
+                int to = random.nextInt(model.size() + 1);
+                model.add(to, e);
+                items = items.insert(to, e);
+            }
+            if (step % 30 == 0) {
+                for (Index.Sort sort : Index.Sort.values()) {
+                    List<Index.Item> sorted = new ArrayList<>(model);
+                    // stable, so ties stay in manual order
+                    sorted.sort(sort::compare);
+                    assertEquals(sort.name(), sorted, items.filtered(sort, true, true));
+                    List<Index.Item> done = new ArrayList<>();
+                    for (Index.Item e : sorted) {
+                        if (e.completed()) {
+                            done.add(e);
+                        }
+                    }
+                    assertEquals(sort.name(), done, items.filtered(sort, true, false));
+                }
+            }
+        }
+        for (Index.Sort sort : Index.Sort.values()) {
+            List<Index.Item> sorted = new ArrayList<>(model);
+            sorted.sort(sort::compare);
+            assertEquals(sorted, ItemList.of(model).filtered(sort, true, true));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cannot_be_changed_in_place() {
+        ItemList.of(ItemList.EMPTY.put(item(1, "a"))).set(0, item(2, "b"));
+    }
+
+    static Index.Item item(int id, String title) {
+        return item(id, title, false);
+    }
+
+    static Index.Item item(int id, String title, boolean completed) {
+        return item(id, title, completed, 0);
+    }
+
+    static Index.Item item(int id, String title, boolean completed, long created) {
+        return new Item(new TodoRepository.Todo(id, title, "", completed, new Date(created)));
+    }
+
+}
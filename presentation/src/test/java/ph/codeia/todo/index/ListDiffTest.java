@@ -0,0 +1,95 @@
+package ph.codeia.todo.index;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static ph.codeia.todo.index.ItemListTest.item;
+
+public class ListDiffTest {
+
+    @Test
+    public void patches_turn_the_old_list_into_the_new_one() {
+        Random random = new Random(3);
+        int nextId = 1;
+        List<Index.Item> before = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            before.add(item(nextId++, "row " + i));
+        }
+        for (int round = 0; round < 500; round++) {
+            List<Index.Item> after = new ArrayList<>(before);
+            int edits = random.nextInt(8);
+            for (int e = 0; e < edits; e++) {
+                int op = random.nextInt(4);
+                if (op == 0 || after.isEmpty()) {
+                    after.add(random.nextInt(after.size() + 1), item(nextId++, "new"));
+                } else if (op == 1) {
+                    after.remove(random.nextInt(after.size()));
+                } else if (op == 2) {
+                    after.add(random.nextInt(after.size()), after.remove(random.nextInt(after.size())));
+                } else {
+                    int at = random.nextInt(after.size());
+                    Index.Item old = after.get(at);
+                    after.set(at, item((int) old.id(), old.title(), !old.completed()));
+                }
+            }
+            if (round % 50 == 0) {
+                Collections.shuffle(after, random);
+            }
+
+            ListDiff.Patch patch = ListDiff.between(before, after);
+            List<Index.Item> items = new ArrayList<>(before);
+            patch.applyTo(items);
+            assertSameItems(after, items);
+            before = items;
+        }
+    }
+
+    @Test
+    public void moving_one_item_is_one_op() {
+        List<Index.Item> before = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            before.add(item(i, "row " + i));
+        }
+        List<Index.Item> after = new ArrayList<>(before);
+        after.add(after.remove(0));
+
+        ListDiff.Patch patch = ListDiff.between(before, after);
+        assertEquals(1, patch.ops.size());
+        ListDiff.Op op = patch.ops.get(0);
+        assertEquals(ListDiff.Op.Kind.MOVE, op.kind);
+        assertEquals(0, op.position);
+        assertEquals(999, op.to);
+    }
+
+    @Test
+    public void only_items_with_different_contents_are_changed() {
+        List<Index.Item> before = new ArrayList<>();
+        List<Index.Item> after = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            before.add(item(i, "row " + i));
+            after.add(i == 4 ? item(i, "four") : item(i, "row " + i));
+        }
+        ListDiff.Patch patch = ListDiff.between(before, after);
+        assertEquals(1, patch.ops.size());
+        assertEquals(ListDiff.Op.Kind.CHANGE, patch.ops.get(0).kind);
+        assertEquals(3, patch.ops.get(0).position);
+        assertTrue(ListDiff.between(after, after).isEmpty());
+    }
+
+    /**
+     * Items whose contents didn't change are kept as they were.
+     */
+    static void assertSameItems(List<Index.Item> expected, List<Index.Item> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).id(), actual.get(i).id());
+            assertTrue(expected.get(i).sameAs(actual.get(i)));
+        }
+    }
+
+}